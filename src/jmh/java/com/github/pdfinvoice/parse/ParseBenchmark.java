@@ -0,0 +1,143 @@
+package com.github.pdfinvoice.parse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.service.DocumentLoader;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解析管线各阶段基准: 加载、文字提取、关键字定位、区块文本、字段提取、明细组装、json 序列化及整体解析
+ * <p>
+ * 样例为 test 目录下文件名包含 sample 的 pdf; 每个阶段的输入在 setup 中由前序阶段准备, 只计该阶段耗时.
+ * 默认附带 gc 分析 (-prof gc), 结果写入 target/jmh-result.json
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"高德打车", "accounting", "dzfp"})
+    public String sample;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final DocumentLoader documentLoader = new DocumentLoader(new PdfInvoiceProperties());
+
+    private byte[] bytes;
+
+    private PDDocument document;
+
+    private PDPage page;
+
+    // 已完成文字提取, 供后续阶段使用
+    private CustomInvoiceTextStripper stripper;
+
+    private PageLayout layout;
+
+    private Map<String, String> regions;
+
+    private GlyphLines detailLines;
+
+    private int titleIndex;
+
+    private Invoice invoice;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        File[] files = new File("test").listFiles((dir, name) -> name.endsWith(".pdf") && name.contains(sample));
+        if (files == null || files.length == 0) {
+            throw new IllegalStateException("样例不存在: " + sample);
+        }
+        bytes = Files.readAllBytes(files[0].toPath());
+        document = load();
+
+        stripper = CustomInvoiceTextStripper.staged(LayoutTemplates.DEFAULT);
+        page = stripper.extract(document);
+        layout = stripper.discoverLayout(page);
+        detailLines = stripper.detailLines(layout.detail());
+        titleIndex = stripper.titleIndex(detailLines, Float.NaN);
+        stripper.setColumnBounds(stripper.columnBounds(detailLines, titleIndex));
+        regions = stripper.regionText(layout);
+        invoice = new CustomInvoiceTextStripper(document).getInvoice();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        document.close();
+    }
+
+    private PDDocument load() throws IOException {
+        return documentLoader.load(new RandomAccessReadBuffer(bytes));
+    }
+
+    @Benchmark
+    public int loadDocument() throws IOException {
+        try (PDDocument loaded = load()) {
+            return loaded.getNumberOfPages();
+        }
+    }
+
+    @Benchmark
+    public CustomInvoiceTextStripper extract() throws IOException {
+        CustomInvoiceTextStripper s = CustomInvoiceTextStripper.staged(LayoutTemplates.DEFAULT);
+        s.extract(document);
+        return s;
+    }
+
+    @Benchmark
+    public PageLayout anchors() {
+        return stripper.discoverLayout(page);
+    }
+
+    @Benchmark
+    public Map<String, String> regionText() throws IOException {
+        return stripper.regionText(layout);
+    }
+
+    @Benchmark
+    public Invoice fields() {
+        return stripper.fields(regions);
+    }
+
+    @Benchmark
+    public List<Detail> details() {
+        return stripper.parseDetails(detailLines, titleIndex, new Invoice());
+    }
+
+    @Benchmark
+    public byte[] json() throws IOException {
+        return objectMapper.writeValueAsBytes(invoice);
+    }
+
+    @Benchmark
+    public Invoice endToEnd() throws Exception {
+        try (PDDocument loaded = load()) {
+            return new CustomInvoiceTextStripper(loaded).getInvoice();
+        }
+    }
+}
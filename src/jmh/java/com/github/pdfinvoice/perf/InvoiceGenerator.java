@@ -0,0 +1,742 @@
+package com.github.pdfinvoice.perf;
+
+import com.github.pdfinvoice.parse.CustomInvoiceTextStripper;
+import com.github.pdfinvoice.parse.Invoice;
+import com.github.pdfinvoice.parse.LayoutTemplates;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * 合成发票 pdf 生成器, 用于压测及基准测试, 不依赖真实发票
+ * <p>
+ * 生成 {@link CustomInvoiceTextStripper} 支持的版式: 数电发票、税控电子发票 (含机器编号、密码区)、网约车行程单;
+ * 开票方、购买方、金额随机, 明细 1 ~ max-rows 行, 首页放不下时附销货清单页 (行程单为续页), 监制章为红色文字.
+ * 字体为不嵌入的 STSong-Light (UniGB-UCS2-H), 与税务系统生成的 pdf 相同, 文件只有几 KB.
+ * <p>
+ * 输出目录写入 manifest.csv (文件名, 版式, 发票号码, 明细行数, 价税合计), 供压测核对结果; --verify 时逐个解析核对.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Dbench.main=com.github.pdfinvoice.perf.InvoiceGenerator -Dbench.args="--out=target/invoices --count=200 --verify"
+ * </pre>
+ * 参数: out (target/invoices), count (100), seed (随机), max-rows (500), layout (DIGITAL/VAT/TRIP, 默认随机), verify
+ */
+public final class InvoiceGenerator {
+
+    public static final String MANIFEST = "manifest.csv";
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy年MM月dd日");
+
+    private static final String[][] REGIONS = {{"安徽", "合肥"}, {"浙江", "杭州"}, {"江苏", "南京"}, {"广东", "深圳"},
+            {"湖南", "长沙"}, {"四川", "成都"}, {"湖北", "武汉"}, {"山东", "济南"}};
+
+    private static final String[] BRANDS = {"正恩", "越陌", "鲨鱼", "携华", "远景", "星辰", "华信", "明德", "中科", "博雅", "恒通", "海川"};
+
+    private static final String[] INDUSTRIES = {"信息科技", "电子", "酒店管理", "网络科技", "商贸", "物流", "餐饮管理", "建筑工程"};
+
+    private static final String[][] ITEMS = {{"住宿服务", "住宿费"}, {"运输服务", "客运服务费"}, {"餐饮服务", "餐饮服务"},
+            {"信息技术服务", "服务费"}, {"电子计算机", "笔记本电脑"}, {"纸制品", "打印纸"}, {"文具", "签字笔"},
+            {"日用杂品", "纸巾"}, {"计算机外部设备", "鼠标"}, {"经纪代理服务", "代理费"}};
+
+    private static final String[] UNITS = {"天", "次", "个", "台", "箱", "项", "支", "包", ""};
+
+    private static final String[] MODELS = {"", "", "无", "A4", "X1-Pro", "M720", "500ml"};
+
+    private static final String[] PEOPLE = {"李红梅", "张灵敏", "徐明宇", "潘月", "贾红艳", "王芳", "刘洋", "陈静"};
+
+    private static final String[] RIDE_PROVIDERS = {"高德", "T3出行", "曹操出行", "滴滴快车"};
+
+    private static final String[] CAR_TYPES = {"经济型", "舒适型", "特惠快车", "商务型"};
+
+    private static final String[] PLACES = {"高铁南站", "市政务中心", "万达广场", "软件园", "国际机场T2", "会展中心", "人民医院", "科技大厦"};
+
+    private static final BigDecimal[] TAX_RATES = {new BigDecimal("0.01"), new BigDecimal("0.03"), new BigDecimal("0.06"),
+            new BigDecimal("0.09"), new BigDecimal("0.13")};
+
+    private final Random random;
+
+    private final int maxRows;
+
+    public InvoiceGenerator(long seed, int maxRows) {
+        this.random = new Random(seed);
+        this.maxRows = maxRows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Options.parse(args);
+        Path out = Paths.get(options.getOrDefault("out", "target/invoices"));
+        int count = Integer.parseInt(options.getOrDefault("count", "100"));
+        long seed = Long.parseLong(options.getOrDefault("seed", String.valueOf(System.nanoTime())));
+        int maxRows = Integer.parseInt(options.getOrDefault("max-rows", "500"));
+        String layout = options.get("layout");
+        boolean verify = options.containsKey("verify");
+
+        Files.createDirectories(out);
+        InvoiceGenerator generator = new InvoiceGenerator(seed, maxRows);
+        int failures = 0;
+        try (Writer manifest = Files.newBufferedWriter(out.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+            manifest.write("file,layout,number,rows,total\n");
+            for (int i = 0; i < count; i++) {
+                Sample sample = generator.next(Objects.isNull(layout) ? null : Layout.valueOf(layout.toUpperCase(Locale.ROOT)));
+                String name = String.format("%05d-%s.pdf", i, sample.layout().name().toLowerCase(Locale.ROOT));
+                Files.write(out.resolve(name), sample.pdf());
+                manifest.write(String.join(",", name, sample.layout().name(), Objects.toString(sample.number(), ""),
+                        String.valueOf(sample.rows()), sample.total().toPlainString()) + "\n");
+                if (verify) {
+                    String mismatch = verify(sample);
+                    if (Objects.nonNull(mismatch)) {
+                        failures++;
+                        System.out.println(name + ": " + mismatch);
+                    }
+                }
+            }
+        }
+        System.out.printf("%d invoices written to %s (seed %d)%s%n", count, out.toAbsolutePath(), seed,
+                verify ? ", " + failures + " mismatches" : "");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 解析生成的发票并与生成时的数据核对
+     *
+     * @param sample 样例
+     * @return 不一致的说明, 一致时为 null
+     */
+    public static String verify(Sample sample) {
+        try (PDDocument document = Loader.loadPDF(sample.pdf())) {
+            CustomInvoiceTextStripper stripper = new CustomInvoiceTextStripper(document);
+            Invoice invoice = stripper.getInvoice();
+            for (int page = 1; page < document.getNumberOfPages(); page++) {
+                invoice.addDetails(new CustomInvoiceTextStripper(document, LayoutTemplates.DEFAULT, stripper.getTemplate(), page).getInvoice());
+            }
+            int rows = Objects.isNull(invoice.getDetailList()) ? 0 : invoice.getDetailList().size();
+            if (!Objects.equals(sample.number(), invoice.getNumber())) {
+                return "number " + invoice.getNumber() + " != " + sample.number();
+            }
+            if (Objects.isNull(invoice.getTotalAmount()) || invoice.getTotalAmount().compareTo(sample.total()) != 0) {
+                return "total " + invoice.getTotalAmount() + " != " + sample.total();
+            }
+            if (rows != sample.rows()) {
+                return "rows " + rows + " != " + sample.rows();
+            }
+            return null;
+        } catch (Exception e) {
+            return e.toString();
+        }
+    }
+
+    /**
+     * 生成一张发票
+     *
+     * @param layout 版式, null 时随机
+     * @return 样例
+     */
+    public Sample next(Layout layout) throws IOException {
+        Layout l = Objects.requireNonNullElseGet(layout, () -> Layout.values()[random.nextInt(Layout.values().length)]);
+        // 多数发票只有几行明细, 少数带清单
+        int rows = 1 + (int) Math.floor(Math.pow(random.nextDouble(), 6) * maxRows);
+        return switch (l) {
+            case DIGITAL -> digital(rows);
+            case VAT -> vat(rows);
+            case TRIP -> trip(rows);
+        };
+    }
+
+    private Sample digital(int rows) throws IOException {
+        Party buyer = party();
+        Party seller = party();
+        List<Item> items = items(rows);
+        String number = digits(2) + "3" + digits(17);
+        boolean special = random.nextInt(4) == 0;
+        Totals totals = Totals.of(items);
+
+        try (PDDocument document = document()) {
+            Canvas c = new Canvas(595.3F, 396.9F);
+            c.center(297.6F, 42, 16, special ? "电子发票（增值税专用发票）" : "电子发票（普通发票）", Canvas.BLACK);
+            stamp(c, 297.6F, 58, seller.province());
+            c.text(440, 43, 9, "发票号码：" + number);
+            c.text(440, 60, 9, "开票日期：" + date());
+
+            c.rect(10, 90, 575.3F, 290);
+            c.line(10, 150, 585.3F, 150);
+            c.line(296, 90, 296, 150);
+            c.vertical(19.5F, 103, 8, 10, "购买方信息");
+            c.vertical(305.5F, 103, 8, 10, "销售方信息");
+            c.text(34.5F, 111, 9, "名称：" + buyer.name());
+            c.text(34.5F, 137, 9, "统一社会信用代码/纳税人识别号：" + buyer.code());
+            c.text(321.5F, 111, 9, "名称：" + seller.name());
+            c.text(321.5F, 137, 9, "统一社会信用代码/纳税人识别号：" + seller.code());
+
+            Columns columns = new Columns(12.8F, 119.4F, 203.5F, 290.7F, 361.6F, 433.8F, 471.3F, 582.5F);
+            header(c, 162, new float[]{45.4F, 119.4F, 190, 263.7F, 334.6F, 406.8F, 446.5F, 551.4F}, "项目名称");
+            int capacity = 10;
+            List<Item> firstPage = items.size() <= capacity ? items : List.of();
+            rows(c, 174, 9, columns, firstPage);
+            if (firstPage.isEmpty()) {
+                c.text(columns.name(), 174, 8, "（详见销货清单）");
+                c.right(columns.amount(), 174, 8, totals.amount().toPlainString());
+                c.right(columns.tax(), 174, 8, totals.tax().toPlainString());
+            }
+
+            c.line(10, 262, 585.3F, 262);
+            c.text(60.5F, 272, 9, "合");
+            c.text(105.5F, 272, 9, "计");
+            c.right(433.8F, 272, 9, "￥" + totals.amount().toPlainString());
+            c.right(582.5F, 272, 9, "￥" + totals.tax().toPlainString());
+            c.line(10, 278, 585.3F, 278);
+            c.text(50.5F, 290, 9, "价税合计（大写）");
+            c.text(182, 290, 9, upper(totals.total()));
+            c.text(409.5F, 290, 9, "（小写）￥" + totals.total().toPlainString());
+            c.line(10, 298, 585.3F, 298);
+            c.vertical(19.5F, 320, 9, 17, "备注");
+            c.text(40, 325, 8, remark());
+            c.text(57.5F, 375, 9, "开票人：" + pick(PEOPLE));
+            c.draw(document);
+
+            if (firstPage.isEmpty()) {
+                list(document, items, totals, buyer, seller, number);
+            }
+            return new Sample(Layout.DIGITAL, save(document), number, items.size(), totals.total());
+        }
+    }
+
+    private Sample vat(int rows) throws IOException {
+        Party buyer = party();
+        Party seller = party();
+        List<Item> items = items(rows);
+        String code = "0" + digits(11);
+        String number = digits(8);
+        boolean special = random.nextInt(4) == 0;
+        Totals totals = Totals.of(items);
+
+        try (PDDocument document = document()) {
+            Canvas c = new Canvas(596, 397);
+            c.center(298, 45, 19, seller.province() + (special ? "增值税电子专用发票" : "增值税电子普通发票"), Canvas.BLACK);
+            stamp(c, 298, 60, seller.province());
+            c.text(421.5F, 35, 9, "发票代码：" + code);
+            c.text(421.5F, 49, 9, "发票号码：" + number);
+            c.text(421.5F, 64, 9, "开票日期：" + date());
+            c.text(421.5F, 78, 9, "校验码：" + digits(5) + " " + digits(5) + " " + digits(5) + " " + digits(5));
+            c.text(15, 81, 9, "机器编号：" + digits(12));
+
+            c.rect(10, 88, 576, 265);
+            c.line(10, 150, 586, 150);
+            c.line(333, 88, 333, 150);
+            c.vertical(19.5F, 103, 9, 16, "购买方");
+            subject(c, 97, buyer);
+            c.vertical(340.5F, 103, 9, 16, "密码区");
+            for (int i = 0; i < 4; i++) {
+                c.text(368, 95 + i * 15, 10, password());
+            }
+
+            Columns columns = new Columns(14, 162, 250, 323, 380, 464, 488, 581);
+            header(c, 159, new float[]{27.5F, 179.5F, 241.5F, 282.5F, 340.5F, 405.5F, 472.5F, 521.5F}, "货物或应税劳务、服务名称");
+            int capacity = 10;
+            List<Item> firstPage = items.size() <= capacity ? items : List.of();
+            rows(c, 172, 9, columns, firstPage);
+            if (firstPage.isEmpty()) {
+                c.text(columns.name(), 172, 8, "（详见销货清单）");
+                c.right(columns.amount(), 172, 8, totals.amount().toPlainString());
+                c.right(columns.tax(), 172, 8, totals.tax().toPlainString());
+            }
+
+            c.line(10, 262, 586, 262);
+            c.text(64.5F, 269, 9, "合");
+            c.text(92.5F, 269, 9, "计");
+            c.right(464, 270, 9, "￥" + totals.amount().toPlainString());
+            c.right(581, 270, 9, "￥" + totals.tax().toPlainString());
+            c.line(10, 277, 586, 277);
+            c.text(51.5F, 287, 9, "价税合计（大写）");
+            c.text(175, 287, 9, upper(totals.total()));
+            c.text(443.5F, 287, 9, "（小写）￥" + totals.total().toPlainString());
+            c.line(10, 295, 586, 295);
+            c.line(333, 295, 333, 353);
+            c.vertical(19.5F, 313, 9, 14.5F, "销售方");
+            subject(c, 306, seller);
+            c.vertical(340.5F, 313, 9, 29, "备注");
+            c.text(360, 320, 8, remark());
+            c.text(22.5F, 364, 9, "收款人：" + pick(PEOPLE));
+            c.text(179.5F, 364, 9, "复核：" + pick(PEOPLE));
+            c.text(299.5F, 364, 9, "开票人：" + pick(PEOPLE));
+            c.text(436, 364, 9, "销售方：（章）");
+            c.draw(document);
+
+            if (firstPage.isEmpty()) {
+                list(document, items, totals, buyer, seller, number);
+            }
+            return new Sample(Layout.VAT, save(document), number, items.size(), totals.total());
+        }
+    }
+
+    private Sample trip(int rows) throws IOException {
+        LocalDate from = LocalDate.of(2023, 1, 1).plusDays(random.nextInt(700));
+        String provider = pick(RIDE_PROVIDERS);
+        List<String[]> trips = new ArrayList<>(rows);
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < rows; i++) {
+            BigDecimal amount = BigDecimal.valueOf(800 + random.nextInt(12000), 2);
+            total = total.add(amount);
+            String time = from.plusDays(random.nextInt(28)) + String.format(" %02d:%02d", random.nextInt(24), random.nextInt(60));
+            trips.add(new String[]{String.valueOf(i + 1), provider, pick(CAR_TYPES), time, pick(REGIONS)[1] + "市", pick(PLACES), pick(PLACES), amount.toPlainString()});
+        }
+
+        try (PDDocument document = document()) {
+            float[] titles = {30, 65, 120, 165, 265, 310, 420, 530};
+            float[] cells = {36, 65, 120, 165, 265, 310, 420, 560};
+            Canvas c = new Canvas(595, 842);
+            c.center(297.5F, 60, 18, provider + "电子行程单", Canvas.BLACK);
+            c.text(40, 90, 9, "申请日期：" + from.plusDays(30));
+            c.text(250, 90, 9, "行程时间：" + from + " 至 " + from.plusDays(27));
+            c.text(40, 104, 9, "行程人手机号：1" + digits(2) + "****" + digits(4));
+            c.text(250, 104, 9, "共" + rows + "笔行程，合计" + total.toPlainString() + "元");
+            float top = tripHeader(c, 130, titles);
+            int pages = 1;
+            for (String[] trip : trips) {
+                if (top > 800) {
+                    c.text(270, 825, 8, "第" + pages++ + "页");
+                    c.draw(document);
+                    c = new Canvas(595, 842);
+                    top = tripHeader(c, 60, titles);
+                }
+                c.center(cells[0], top, 8, trip[0], Canvas.BLACK);
+                for (int k = 1; k < 7; k++) {
+                    c.text(cells[k], top, 8, trip[k]);
+                }
+                c.right(cells[7], top, 8, trip[7]);
+                top += 14;
+            }
+            c.text(270, 825, 8, "第" + pages + "页");
+            c.draw(document);
+            return new Sample(Layout.TRIP, save(document), null, rows, total);
+        }
+    }
+
+    private float tripHeader(Canvas c, float top, float[] titles) {
+        String[] names = {"序号", "服务商", "车型", "上车时间", "城市", "起点", "终点", "金额（元）"};
+        for (int k = 0; k < titles.length; k++) {
+            c.text(titles[k], top, 9, names[k]);
+        }
+        return top + 15;
+    }
+
+    /**
+     * 销货清单页
+     */
+    private void list(PDDocument document, List<Item> items, Totals totals, Party buyer, Party seller, String number) throws IOException {
+        int perPage = 32;
+        int pages = (items.size() + perPage - 1) / perPage;
+        Columns columns = new Columns(12.8F, 119.4F, 203.5F, 290.7F, 361.6F, 433.8F, 471.3F, 582.5F);
+        for (int page = 0; page < pages; page++) {
+            Canvas c = new Canvas(595.3F, 396.9F);
+            c.center(297.6F, 28, 12, "销售货物或者提供应税劳务、服务清单", Canvas.BLACK);
+            c.text(20, 45, 8, "购买方名称：" + buyer.name());
+            c.text(300, 45, 8, "销售方名称：" + seller.name());
+            c.text(20, 57, 8, "所属发票号码：" + number);
+            c.text(300, 57, 8, "共" + pages + "页 第" + (page + 1) + "页");
+            header(c, 75, new float[]{45.4F, 119.4F, 190, 263.7F, 334.6F, 406.8F, 446.5F, 551.4F}, "项目名称");
+            List<Item> slice = items.subList(page * perPage, Math.min(items.size(), (page + 1) * perPage));
+            float top = rows(c, 86, 9, columns, slice);
+            Totals subtotal = Totals.of(slice);
+            c.text(40, top + 2, 8, "小计");
+            c.right(columns.amount(), top + 2, 8, subtotal.amount().toPlainString());
+            c.right(columns.tax(), top + 2, 8, subtotal.tax().toPlainString());
+            if (page == pages - 1) {
+                c.text(40, top + 12, 8, "总计");
+                c.right(columns.amount(), top + 12, 8, totals.amount().toPlainString());
+                c.right(columns.tax(), top + 12, 8, totals.tax().toPlainString());
+            }
+            c.draw(document);
+        }
+    }
+
+    private void header(Canvas c, float top, float[] x, String name) {
+        String[] titles = {name, "规格型号", "单 位", "数 量", "单 价", "金 额", "税率/征收率", "税 额"};
+        for (int k = 0; k < titles.length; k++) {
+            c.text(x[k], top, 9, titles[k]);
+        }
+    }
+
+    /**
+     * 明细行
+     *
+     * @return 下一行位置
+     */
+    private float rows(Canvas c, float top, float step, Columns columns, List<Item> items) {
+        for (Item item : items) {
+            c.text(columns.name(), top, 8, item.name());
+            c.text(columns.model(), top, 8, item.model());
+            c.center(columns.unit(), top, 8, item.unit(), Canvas.BLACK);
+            c.right(columns.count(), top, 8, item.count().toPlainString());
+            c.right(columns.price(), top, 8, item.price().toPlainString());
+            c.right(columns.amount(), top, 8, item.amount().toPlainString());
+            c.center(columns.rate(), top, 8, item.rate().movePointRight(2).stripTrailingZeros().toPlainString() + "%", Canvas.BLACK);
+            c.right(columns.tax(), top, 8, item.tax().toPlainString());
+            top += step;
+        }
+        return top;
+    }
+
+    private void subject(Canvas c, float top, Party party) {
+        c.text(38.5F, top, 9, "名称：" + party.name());
+        c.text(38.5F, top + 15, 9, "纳税人识别号：" + party.code());
+        c.text(38.5F, top + 30, 9, "地址、电话：" + party.address());
+        c.text(38.5F, top + 45, 9, "开户行及账号：" + party.account());
+    }
+
+    /**
+     * 监制章, 红色
+     */
+    private void stamp(Canvas c, float x, float top, String province) {
+        String ring = "全国统一发票监制";
+        for (int i = 0; i < ring.length(); i++) {
+            double angle = Math.PI * (0.9 - 0.8 * i / (ring.length() - 1));
+            c.text((float) (x - 3 + 32 * Math.cos(angle)), (float) (top - 10 * Math.sin(angle)), 6, ring.substring(i, i + 1), Canvas.RED);
+        }
+        c.center(x, top + 1, 7, "国家税务总局", Canvas.RED);
+        c.center(x, top + 13, 6, province + "省税务局", Canvas.RED);
+    }
+
+    private List<Item> items(int rows) {
+        List<Item> items = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            String[] item = pick(ITEMS);
+            BigDecimal count = BigDecimal.valueOf(1 + random.nextInt(20));
+            BigDecimal amount = BigDecimal.valueOf(100 + random.nextInt(500000), 2);
+            BigDecimal price = amount.divide(count, 8, RoundingMode.HALF_UP).stripTrailingZeros();
+            BigDecimal rate = TAX_RATES[random.nextInt(TAX_RATES.length)];
+            BigDecimal tax = amount.multiply(rate).setScale(2, RoundingMode.HALF_UP);
+            items.add(new Item("*" + item[0] + "*" + item[1], pick(MODELS), pick(UNITS), count, price.scale() < 0 ? price.setScale(0) : price, amount, rate, tax));
+        }
+        return items;
+    }
+
+    private Party party() {
+        String[] region = pick(REGIONS);
+        String name = region[1] + pick(BRANDS) + pick(INDUSTRIES) + "有限公司";
+        String alphabet = "0123456789ABCDEFGHJKLMNPQRTUWXY";
+        StringBuilder code = new StringBuilder("91").append(digits(6));
+        for (int i = 0; i < 10; i++) {
+            code.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        String address = region[1] + "市" + pick(PLACES) + (1 + random.nextInt(300)) + "号 0" + digits(3) + "-" + digits(8);
+        String account = "中国建设银行" + region[1] + "分行 " + digits(19);
+        return new Party(region[0], name, code.toString(), address, account);
+    }
+
+    private String password() {
+        String alphabet = "0123456789+-*/<>";
+        StringBuilder builder = new StringBuilder(27);
+        for (int i = 0; i < 27; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    private String remark() {
+        return switch (random.nextInt(3)) {
+            case 0 -> "";
+            case 1 -> "订单号：" + digits(16);
+            default -> "入住日期：" + LocalDate.of(2024, 1, 1).plusDays(random.nextInt(300));
+        };
+    }
+
+    private String date() {
+        return LocalDate.of(2023, 1, 1).plusDays(random.nextInt(730)).format(DATE);
+    }
+
+    private String digits(int n) {
+        StringBuilder builder = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            builder.append((char) ('0' + random.nextInt(10)));
+        }
+        return builder.toString();
+    }
+
+    private <T> T pick(T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private PDDocument document() {
+        PDDocument document = new PDDocument();
+        PDDocumentInformation info = new PDDocumentInformation();
+        info.setProducer("pdf-invoice InvoiceGenerator");
+        document.setDocumentInformation(info);
+        return document;
+    }
+
+    private static byte[] save(PDDocument document) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.save(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 金额大写
+     */
+    static String upper(BigDecimal amount) {
+        String[] digits = {"零", "壹", "贰", "叁", "肆", "伍", "陆", "柒", "捌", "玖"};
+        String[] units = {"", "拾", "佰", "仟"};
+        String[] sections = {"", "万", "亿"};
+        long cents = amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        long yuan = cents / 100;
+        StringBuilder builder = new StringBuilder();
+        if (yuan > 0) {
+            boolean zero = false;
+            String integer = Long.toString(yuan);
+            for (int i = 0; i < integer.length(); i++) {
+                int d = integer.charAt(i) - '0';
+                int position = integer.length() - 1 - i;
+                if (d == 0) {
+                    zero = true;
+                } else {
+                    if (zero && builder.length() > 0) {
+                        builder.append(digits[0]);
+                    }
+                    zero = false;
+                    builder.append(digits[d]).append(units[position % 4]);
+                }
+                if (position % 4 == 0 && position > 0 && !builder.isEmpty()) {
+                    builder.append(sections[position / 4]);
+                }
+            }
+            builder.append("圆");
+        }
+        int jiao = (int) (cents / 10 % 10);
+        int fen = (int) (cents % 10);
+        if (jiao == 0 && fen == 0) {
+            return builder.append("整").toString();
+        }
+        if (jiao > 0) {
+            builder.append(digits[jiao]).append("角");
+        } else if (yuan > 0) {
+            builder.append(digits[0]);
+        }
+        if (fen > 0) {
+            builder.append(digits[fen]).append("分");
+        }
+        return builder.toString();
+    }
+
+    public enum Layout {
+        /**
+         * 数电发票
+         */
+        DIGITAL,
+        /**
+         * 税控电子发票
+         */
+        VAT,
+        /**
+         * 网约车行程单
+         */
+        TRIP
+    }
+
+    /**
+     * 生成的发票
+     *
+     * @param layout 版式
+     * @param pdf    pdf 内容
+     * @param number 发票号码, 行程单为 null
+     * @param rows   明细行数
+     * @param total  价税合计
+     */
+    public record Sample(Layout layout, byte[] pdf, String number, int rows, BigDecimal total) {
+    }
+
+    private record Party(String province, String name, String code, String address, String account) {
+    }
+
+    private record Item(String name, String model, String unit, BigDecimal count, BigDecimal price, BigDecimal amount,
+                        BigDecimal rate, BigDecimal tax) {
+    }
+
+    /**
+     * 明细各列的位置: 名称、规格型号左对齐, 单位、税率居中, 其余右对齐
+     */
+    private record Columns(float name, float model, float unit, float count, float price, float amount, float rate,
+                           float tax) {
+    }
+
+    private record Totals(BigDecimal amount, BigDecimal tax, BigDecimal total) {
+
+        static Totals of(List<Item> items) {
+            BigDecimal amount = items.stream().map(Item::amount).reduce(BigDecimal.ZERO, BigDecimal::add);
+            BigDecimal tax = items.stream().map(Item::tax).reduce(BigDecimal.ZERO, BigDecimal::add);
+            return new Totals(amount, tax, amount.add(tax));
+        }
+    }
+
+    /**
+     * 页面内容流, 坐标以页面左上角为原点 (与 {@link org.apache.pdfbox.text.TextPosition#getY()} 一致), top 为基线位置
+     */
+    private static final class Canvas {
+
+        static final String BLACK = "0 0 0";
+
+        static final String RED = "1 0 0";
+
+        // STSong-Light 半角字符 (CID 1 ~ 95, 即 U+0020 ~ U+007E) 宽度, 其余为 1000
+        private static final int[] WIDTHS = {207, 270, 342, 467, 462, 797, 710, 239, 374, 374, 423, 605, 238, 375, 238, 334,
+                462, 462, 462, 462, 462, 462, 462, 462, 462, 462, 238, 238, 605, 605, 605, 344, 748,
+                684, 560, 695, 739, 563, 511, 729, 793, 318, 312, 666, 526, 896, 758, 772, 544, 772, 628, 465, 607, 753, 711, 972, 647, 620, 607,
+                374, 333, 374, 606, 500, 239,
+                417, 503, 427, 529, 415, 264, 444, 518, 241, 230, 495, 228, 793, 527, 524, 524, 504, 338, 336, 277, 517, 450, 652, 466, 452, 407,
+                370, 258, 370, 605};
+
+        private final float width;
+
+        private final float height;
+
+        private final StringBuilder content = new StringBuilder(4096);
+
+        Canvas(float width, float height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        static float width(String text, float size) {
+            float w = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char ch = text.charAt(i);
+                w += ch >= 0x20 && ch <= 0x7E ? WIDTHS[ch - 0x20] : 1000;
+            }
+            return w * size / 1000;
+        }
+
+        void text(float x, float top, float size, String text) {
+            text(x, top, size, text, BLACK);
+        }
+
+        void text(float x, float top, float size, String text, String color) {
+            if (text.isEmpty()) {
+                return;
+            }
+            content.append("BT /F1 ").append(size).append(" Tf ").append(color).append(" rg 1 0 0 1 ")
+                    .append(x).append(' ').append(height - top).append(" Tm <");
+            for (int i = 0; i < text.length(); i++) {
+                content.append(String.format("%04X", (int) text.charAt(i)));
+            }
+            content.append("> Tj ET\n");
+        }
+
+        void right(float x, float top, float size, String text) {
+            text(x - width(text, size), top, size, text, BLACK);
+        }
+
+        void center(float x, float top, float size, String text, String color) {
+            text(x - width(text, size) / 2, top, size, text, color);
+        }
+
+        /**
+         * 竖排文字
+         */
+        void vertical(float x, float top, float size, float step, String text) {
+            for (int i = 0; i < text.length(); i++) {
+                text(x, top + i * step, size, text.substring(i, i + 1));
+            }
+        }
+
+        void rect(float x, float top, float w, float h) {
+            content.append("0.6 0.3 0.1 RG 0.5 w ").append(x).append(' ').append(height - top - h).append(' ')
+                    .append(w).append(' ').append(h).append(" re S\n");
+        }
+
+        void line(float x1, float top1, float x2, float top2) {
+            content.append("0.6 0.3 0.1 RG 0.5 w ").append(x1).append(' ').append(height - top1).append(" m ")
+                    .append(x2).append(' ').append(height - top2).append(" l S\n");
+        }
+
+        void draw(PDDocument document) throws IOException {
+            PDPage page = new PDPage(new PDRectangle(width, height));
+            PDResources resources = new PDResources();
+            COSDictionary fonts = new COSDictionary();
+            fonts.setItem(COSName.getPDFName("F1"), font());
+            resources.getCOSObject().setItem(COSName.FONT, fonts);
+            page.setResources(resources);
+            page.setContents(new PDStream(document, new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.US_ASCII)), COSName.FLATE_DECODE));
+            document.addPage(page);
+        }
+
+        /**
+         * 不嵌入的 STSong-Light, 文字编码为 UCS-2
+         */
+        private static COSDictionary font() {
+            COSDictionary descriptor = new COSDictionary();
+            descriptor.setItem(COSName.TYPE, COSName.FONT_DESC);
+            descriptor.setName(COSName.FONT_NAME, "STSong-Light");
+            descriptor.setInt(COSName.FLAGS, 6);
+            descriptor.setItem(COSName.FONT_BBOX, array(-25, -254, 1000, 880));
+            descriptor.setInt(COSName.ITALIC_ANGLE, 0);
+            descriptor.setInt(COSName.ASCENT, 880);
+            descriptor.setInt(COSName.DESCENT, -120);
+            descriptor.setInt(COSName.CAP_HEIGHT, 880);
+            descriptor.setInt(COSName.STEM_V, 93);
+
+            COSDictionary systemInfo = new COSDictionary();
+            systemInfo.setItem(COSName.REGISTRY, new COSString("Adobe"));
+            systemInfo.setItem(COSName.ORDERING, new COSString("GB1"));
+            systemInfo.setInt(COSName.SUPPLEMENT, 4);
+
+            COSArray widths = new COSArray();
+            widths.add(COSInteger.get(1));
+            widths.add(array(WIDTHS));
+
+            COSDictionary cidFont = new COSDictionary();
+            cidFont.setItem(COSName.TYPE, COSName.FONT);
+            cidFont.setItem(COSName.SUBTYPE, COSName.CID_FONT_TYPE0);
+            cidFont.setName(COSName.BASE_FONT, "STSong-Light");
+            cidFont.setItem(COSName.CIDSYSTEMINFO, systemInfo);
+            cidFont.setItem(COSName.FONT_DESC, descriptor);
+            cidFont.setInt(COSName.DW, 1000);
+            cidFont.setItem(COSName.W, widths);
+
+            COSArray descendants = new COSArray();
+            descendants.add(cidFont);
+            COSDictionary font = new COSDictionary();
+            font.setItem(COSName.TYPE, COSName.FONT);
+            font.setItem(COSName.SUBTYPE, COSName.TYPE0);
+            font.setName(COSName.BASE_FONT, "STSong-Light-UniGB-UCS2-H");
+            font.setName(COSName.ENCODING, "UniGB-UCS2-H");
+            font.setItem(COSName.DESCENDANT_FONTS, descendants);
+            return font;
+        }
+
+        private static COSArray array(int... values) {
+            COSArray array = new COSArray();
+            for (int value : values) {
+                array.add(COSInteger.get(value));
+            }
+            return array;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.github.pdfinvoice.perf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * /pdf/parse 压测, 按固定速率发送请求 (开环), 不因服务变慢而降低发送速率
+ * <p>
+ * 延迟从计划发送时间起算, 避免协调遗漏 (coordinated omission); 预热期间的请求不计入统计.
+ * 默认在每个 pdf 末尾追加随机注释, 内容哈希各不相同, 不会命中解析结果缓存.
+ * 目录下有 {@link InvoiceGenerator#MANIFEST} 时核对返回的发票号码, 不一致计为错误.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Dbench.main=com.github.pdfinvoice.perf.LoadDriver -Dbench.args="--dir=target/invoices --rate=50 --duration=60"
+ * </pre>
+ * 参数: url (http://127.0.0.1:8080/pdf/parse), dir (target/invoices), rate (每秒请求数, 20), duration (秒, 60),
+ * warmup (秒, 10), max-inflight (512, 超过时丢弃并计数), mode (FULL), timeout (秒, 30), cache (允许命中结果缓存)
+ */
+public final class LoadDriver {
+
+    private static final String BOUNDARY = "----pdf-invoice-" + UUID.randomUUID();
+
+    private final HttpClient client;
+
+    private final URI uri;
+
+    private final Duration timeout;
+
+    private final boolean unique;
+
+    private final AtomicLong nonce = new AtomicLong();
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    // 预热后完成的请求延迟 (纳秒)
+    private final long[] latencies;
+
+    private final AtomicInteger recorded = new AtomicInteger();
+
+    private LoadDriver(URI uri, Duration timeout, boolean unique, int capacity) {
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(5)).build();
+        this.uri = uri;
+        this.timeout = timeout;
+        this.unique = unique;
+        this.latencies = new long[capacity];
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Options.parse(args);
+        Path dir = Paths.get(options.getOrDefault("dir", "target/invoices"));
+        String mode = options.getOrDefault("mode", "FULL");
+        URI uri = URI.create(options.getOrDefault("url", "http://127.0.0.1:8080/pdf/parse") + "?mode=" + mode);
+        double rate = Double.parseDouble(options.getOrDefault("rate", "20"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "60"));
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "10"));
+        int maxInflight = Integer.parseInt(options.getOrDefault("max-inflight", "512"));
+        Duration timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "30")));
+
+        List<Document> documents = documents(dir);
+        if (documents.isEmpty()) {
+            throw new IllegalArgumentException("目录下没有 pdf: " + dir.toAbsolutePath() + ", 先运行 InvoiceGenerator");
+        }
+        long total = (long) Math.ceil(rate * (warmup + duration));
+        LoadDriver driver = new LoadDriver(uri, timeout, !options.containsKey("cache"), (int) Math.min(Integer.MAX_VALUE - 8, total));
+        System.out.printf("%s: %d documents, %.1f req/s, warmup %ds, duration %ds%n", uri, documents.size(), rate, warmup, duration);
+        driver.run(documents, rate, TimeUnit.SECONDS.toNanos(warmup), total, maxInflight);
+    }
+
+    private void run(List<Document> documents, double rate, long warmup, long total, int maxInflight) throws InterruptedException {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + warmup;
+        long sent = 0;
+        long measured = 0;
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong pending = new AtomicLong(total);
+        for (long i = 0; i < total; i++) {
+            long scheduled = start + i * interval;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measure = scheduled >= measureFrom;
+            if (measure) {
+                measured++;
+            }
+            if (inflight.get() >= maxInflight) {
+                if (measure) {
+                    dropped.increment();
+                }
+                if (pending.decrementAndGet() == 0) {
+                    done.countDown();
+                }
+                continue;
+            }
+            sent++;
+            inflight.incrementAndGet();
+            Document document = documents.get((int) (i % documents.size()));
+            client.sendAsync(request(document), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                    .whenComplete((response, e) -> {
+                        long latency = System.nanoTime() - scheduled;
+                        inflight.decrementAndGet();
+                        if (measure) {
+                            String error = Objects.nonNull(e) ? e.getClass().getSimpleName() : check(document, response);
+                            if (Objects.nonNull(error)) {
+                                errors.computeIfAbsent(error, k -> new LongAdder()).increment();
+                            }
+                            int k = recorded.getAndIncrement();
+                            if (k < latencies.length) {
+                                latencies[k] = latency;
+                            }
+                        }
+                        if (pending.decrementAndGet() == 0) {
+                            done.countDown();
+                        }
+                    });
+        }
+        long sendEnd = System.nanoTime();
+        done.await(timeout.toMillis() + 1000, TimeUnit.MILLISECONDS);
+        report(measured, sent, Math.max(1, sendEnd - measureFrom), rate);
+    }
+
+    /**
+     * @return 错误类别, 成功为 null
+     */
+    private static String check(Document document, HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            return "HTTP " + response.statusCode();
+        }
+        if (Objects.nonNull(document.number()) && !response.body().contains("\"number\":\"" + document.number() + "\"")) {
+            return "number mismatch";
+        }
+        return null;
+    }
+
+    private HttpRequest request(Document document) {
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + document.name()
+                + "\"\r\nContent-Type: application/pdf\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        // pdf 之后的注释不影响解析, 只改变内容哈希
+        byte[] tail = ((unique ? "\n%" + nonce.incrementAndGet() + "\n" : "") + "\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, document.pdf(), tail)))
+                .build();
+    }
+
+    private void report(long measured, long sent, long elapsed, double rate) {
+        int n = Math.min(recorded.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        long failed = errors.values().stream().mapToLong(LongAdder::sum).sum();
+        double seconds = elapsed / 1e9;
+        System.out.println();
+        System.out.printf("requests   %d measured, %d completed, %d dropped (in-flight limit), %d not completed%n",
+                measured, n, dropped.sum(), Math.max(0, measured - dropped.sum() - n));
+        System.out.printf("throughput %.1f req/s completed, %.1f req/s successful (target %.1f)%n", n / seconds, (n - failed) / seconds, rate);
+        System.out.printf("latency    p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), percentile(sorted, 1.0));
+        Map<String, Long> byType = new TreeMap<>();
+        errors.forEach((k, v) -> byType.put(k, v.sum()));
+        System.out.printf("errors     %.2f%% %s%n", n == 0 ? 0D : failed * 100D / n, byType);
+        System.out.printf("(%d requests sent in total, including warmup)%n", sent);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int k = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, k))] / 1e6;
+    }
+
+    private static List<Document> documents(Path dir) throws IOException {
+        Map<String, String> numbers = new HashMap<>();
+        Path manifest = dir.resolve(InvoiceGenerator.MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] columns = line.split(",", -1);
+                if (columns.length > 2 && !columns[2].isEmpty() && !"number".equals(columns[2])) {
+                    numbers.put(columns[0], columns[2]);
+                }
+            }
+        }
+        List<Document> documents = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(e -> e.getFileName().toString().endsWith(".pdf")).sorted().toList()) {
+                String name = file.getFileName().toString();
+                documents.add(new Document(name, Files.readAllBytes(file), numbers.get(name)));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * 待发送的文档
+     *
+     * @param name   文件名
+     * @param pdf    内容
+     * @param number 预期发票号码, 未知时为 null
+     */
+    private record Document(String name, byte[] pdf, String number) {
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.pdfinvoice.perf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 命令行参数, 格式为 --key=value, 无值的参数值为 "true"
+ */
+final class Options {
+
+    private Options() {
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("参数格式为 --key=value: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.pdfinvoice.perf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 启动耗时及首个请求延迟: 启动服务进程, 轮询健康检查直至可用, 随后依次上传目录下的 pdf, 结束后关闭进程; 重复多次取中位数
+ * <p>
+ * 用于比较普通 jar、AppCDS (含 AOT 初始化代码) 及 native image, 指定 out 时保存各文档的响应, 可逐字节比较不同构建的解析结果.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Dbench.main=com.github.pdfinvoice.perf.StartupProbe -Dbench.args="--cmd=target/pdf-invoice --runs=5"
+ * mvn -Pjmh test-compile exec:exec -Dbench.main=com.github.pdfinvoice.perf.StartupProbe -Dbench.args="--cmd=java,-XX:SharedArchiveFile=target/cds/application.jsa,-Dspring.aot.enabled=true,-jar,target/cds/pdf-invoice-0.0.1-SNAPSHOT.jar"
+ * </pre>
+ * 参数: cmd (服务启动命令, 参数以逗号分隔), url (http://127.0.0.1:8080), dir (test), runs (5),
+ * timeout (秒, 60), out (响应保存目录, 只保存最后一次)
+ */
+public final class StartupProbe {
+
+    private static final String BOUNDARY = "----pdf-invoice-" + UUID.randomUUID();
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(1)).build();
+
+    private final List<String> command;
+
+    private final URI base;
+
+    private final Duration timeout;
+
+    private StartupProbe(List<String> command, URI base, Duration timeout) {
+        this.command = command;
+        this.base = base;
+        this.timeout = timeout;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Options.parse(args);
+        List<String> command = List.of(Objects.requireNonNull(options.get("cmd"), "缺少参数 --cmd").split(","));
+        Path dir = Paths.get(options.getOrDefault("dir", "test"));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        Path out = options.containsKey("out") ? Paths.get(options.get("out")) : null;
+        StartupProbe probe = new StartupProbe(command, URI.create(options.getOrDefault("url", "http://127.0.0.1:8080")),
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "60"))));
+        List<Path> pdfs;
+        try (Stream<Path> files = Files.list(dir)) {
+            pdfs = files.filter(e -> e.getFileName().toString().endsWith(".pdf")).sorted().toList();
+        }
+        if (pdfs.isEmpty()) {
+            throw new IllegalArgumentException("目录下没有 pdf: " + dir);
+        }
+        if (Objects.nonNull(out)) {
+            Files.createDirectories(out);
+        }
+        long[] startup = new long[runs];
+        long[] first = new long[runs];
+        long[] rest = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] run = probe.run(pdfs, i == runs - 1 ? out : null);
+            startup[i] = run[0];
+            first[i] = run[1];
+            rest[i] = run[2];
+            System.out.printf("run %d: startup %.0f ms, first request %.1f ms, next %d requests %.1f ms%n",
+                    i + 1, run[0] / 1e6, run[1] / 1e6, pdfs.size() - 1, run[2] / 1e6);
+        }
+        System.out.println();
+        System.out.printf("startup       p50 %.0f ms%n", median(startup) / 1e6);
+        System.out.printf("first request p50 %.1f ms%n", median(first) / 1e6);
+        System.out.printf("next requests p50 %.1f ms (%d documents)%n", median(rest) / 1e6, pdfs.size() - 1);
+    }
+
+    /**
+     * 单次启动
+     *
+     * @return 启动耗时, 首个请求延迟, 其余请求总耗时 (纳秒)
+     */
+    private long[] run(List<Path> pdfs, Path out) throws Exception {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            awaitHealthy(process, start);
+            long ready = System.nanoTime();
+            long[] latencies = new long[pdfs.size()];
+            for (int i = 0; i < pdfs.size(); i++) {
+                long sent = System.nanoTime();
+                HttpResponse<byte[]> response = client.send(request(pdfs.get(i)), HttpResponse.BodyHandlers.ofByteArray());
+                latencies[i] = System.nanoTime() - sent;
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException(pdfs.get(i).getFileName() + " 返回 " + response.statusCode());
+                }
+                if (Objects.nonNull(out)) {
+                    Files.write(out.resolve(pdfs.get(i).getFileName() + ".json"), response.body());
+                }
+            }
+            return new long[]{ready - start, latencies[0], Arrays.stream(latencies).skip(1).sum()};
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private void awaitHealthy(Process process, long start) throws InterruptedException {
+        HttpRequest health = HttpRequest.newBuilder(base.resolve("/actuator/health")).timeout(Duration.ofSeconds(1)).GET().build();
+        while (System.nanoTime() - start < timeout.toNanos()) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("服务进程已退出: " + process.exitValue());
+            }
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // 端口未监听
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("服务未在 " + timeout.toSeconds() + " 秒内启动");
+    }
+
+    private HttpRequest request(Path pdf) throws IOException {
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + pdf.getFileName()
+                + "\"\r\nContent-Type: application/pdf\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(base.resolve("/pdf/parse"))
+                .timeout(timeout)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, Files.readAllBytes(pdf), tail)))
+                .build();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
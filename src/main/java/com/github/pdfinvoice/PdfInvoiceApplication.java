@@ -1,9 +1,14 @@
 package com.github.pdfinvoice;
 
+import com.github.pdfinvoice.parse.ParseRuntimeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
+@ImportRuntimeHints(ParseRuntimeHints.class)
 public class PdfInvoiceApplication {
 
 	public static void main(String[] args) {
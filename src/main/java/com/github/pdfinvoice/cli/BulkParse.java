@@ -0,0 +1,450 @@
+package com.github.pdfinvoice.cli;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.Invoice;
+import com.github.pdfinvoice.parse.InvoiceParser;
+import com.github.pdfinvoice.parse.LayoutCache;
+import com.github.pdfinvoice.parse.LayoutTemplates;
+import com.github.pdfinvoice.parse.ParseBudget;
+import com.github.pdfinvoice.service.DocumentLoader;
+import com.github.pdfinvoice.service.DocumentTooLargeException;
+import com.github.pdfinvoice.service.ParseMetrics;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 命令行批量解析, 不启动 Spring: 递归扫描目录及 zip 压缩包中的 pdf, 在 work-stealing 线程池中解析, 结果逐条追加写入 ndjson 或 csv
+ * <p>
+ * 已完成的文档记入断点文件, 中断后以相同参数重新运行时跳过; 结束时输出文档数、每秒文档数及失败原因.
+ * <pre>
+ * java -cp pdf-invoice.jar -Dloader.main=com.github.pdfinvoice.cli.BulkParse org.springframework.boot.loader.launch.PropertiesLauncher \
+ *     --out=invoices.ndjson /data/archive /data/2024.zip
+ * </pre>
+ * 参数: out (结果文件, 必填), format (ndjson|csv, 默认按 out 扩展名), checkpoint (断点文件, 默认 out + ".checkpoint"),
+ * threads (默认 CPU 核数), retry-failed (重新解析断点中失败的文档), max-entry-size (压缩包条目上限, 默认 batch.max-entry-size),
+ * spool-threshold (超过该大小的压缩包条目解压到临时文件, 默认 upload.spool-threshold); 其余参数为目录、pdf 或 zip 文件
+ */
+public final class BulkParse {
+
+    // 每个线程排队的文档数, zip 条目排队时已读入内存 (不超过 spool-threshold) 或解压到临时文件
+    private static final int QUEUED_PER_THREAD = 4;
+
+    private static final String TEMP_PREFIX = "bulk-entry-";
+
+    private final InvoiceParser invoiceParser;
+
+    private final DocumentLoader documentLoader;
+
+    private final PdfInvoiceProperties.Document limits;
+
+    private final long maxEntrySize;
+
+    private final long spoolThreshold;
+
+    private final Path tempDir;
+
+    private final ResultSink sink;
+
+    private final Set<String> completed;
+
+    private final ForkJoinPool pool;
+
+    private final Semaphore queued;
+
+    private final LongAdder parsed = new LongAdder();
+
+    private final LongAdder skipped = new LongAdder();
+
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    // 停止提交 (中断或结果写入失败)
+    private volatile boolean stopping;
+
+    // Ctrl-C
+    private volatile boolean interrupted;
+
+    // 首个结果写入失败
+    private volatile IOException writeFailure;
+
+    private BulkParse(ResultSink sink, Set<String> completed, int threads, Map<String, String> options) {
+        PdfInvoiceProperties properties = new PdfInvoiceProperties();
+        this.invoiceParser = new InvoiceParser(LayoutTemplates.DEFAULT, new LayoutCache(properties.getLayout().getCacheSize()));
+        this.documentLoader = new DocumentLoader(properties);
+        this.limits = properties.getDocument();
+        this.maxEntrySize = dataSize(options, "max-entry-size", properties.getBatch().getMaxEntrySize());
+        this.spoolThreshold = Math.min(maxEntrySize, dataSize(options, "spool-threshold", properties.getUpload().getSpoolThreshold()));
+        this.tempDir = properties.getUpload().getTempDir();
+        this.sink = sink;
+        this.completed = completed;
+        this.pool = new ForkJoinPool(threads);
+        this.queued = new Semaphore(threads * QUEUED_PER_THREAD);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<Path> inputs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+            } else {
+                inputs.add(Paths.get(arg));
+            }
+        }
+        if (!options.containsKey("out") || inputs.isEmpty()) {
+            System.err.println("用法: BulkParse --out=结果文件 [--format=ndjson|csv] [--checkpoint=断点文件] [--threads=N] [--retry-failed]"
+                    + " [--max-entry-size=64MB] [--spool-threshold=4MB] 目录|pdf|zip...");
+            System.exit(2);
+        }
+        Summary summary;
+        try {
+            summary = run(options, inputs, System.err);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.exit(summary.interrupted() ? 130 : 0);
+    }
+
+    /**
+     * 批量解析
+     *
+     * @param options 参数
+     * @param inputs  目录、pdf 或 zip 文件
+     * @param log     进度及汇总输出
+     * @return 汇总
+     * @throws IOException 结果写入失败 (已输出汇总) 或读取断点失败
+     */
+    static Summary run(Map<String, String> options, List<Path> inputs, PrintStream log) throws Exception {
+        Path out = Paths.get(options.get("out"));
+        boolean csv = "csv".equalsIgnoreCase(options.getOrDefault("format", StringUtils.endsWithIgnoreCase(out.toString(), ".csv") ? "csv" : "ndjson"));
+        Path checkpoint = Paths.get(options.getOrDefault("checkpoint", out + ".checkpoint"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Set<String> completed = ResultSink.completed(checkpoint, Boolean.parseBoolean(options.getOrDefault("retry-failed", "false")));
+        CountDownLatch finished = new CountDownLatch(1);
+        try (ResultSink sink = new ResultSink(out, csv, checkpoint)) {
+            BulkParse bulk = new BulkParse(sink, completed, Math.max(1, threads), options);
+            // 中断 (Ctrl-C) 时停止提交, 等待本方法结束 (已提交的文档完成、输出汇总、关闭结果文件) 后退出
+            Thread hook = new Thread(() -> bulk.interrupt(finished));
+            Runtime.getRuntime().addShutdownHook(hook);
+            long start = System.nanoTime();
+            try {
+                for (Path input : inputs) {
+                    bulk.scan(input);
+                }
+            } finally {
+                bulk.await();
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException ignored) {
+                    // 正在关闭
+                }
+            }
+            Summary summary = bulk.summary(System.nanoTime() - start);
+            summary.print(log);
+            if (Objects.nonNull(bulk.writeFailure)) {
+                throw bulk.writeFailure;
+            }
+            return summary;
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void scan(Path input) throws IOException, InterruptedException {
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> files = Files.walk(input)) {
+                for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                    if (stopping) {
+                        return;
+                    }
+                    scanFile(file);
+                }
+            }
+        } else {
+            scanFile(input);
+        }
+    }
+
+    private void scanFile(Path file) throws IOException, InterruptedException {
+        String name = file.getFileName().toString();
+        if (StringUtils.endsWithIgnoreCase(name, ".zip")) {
+            try {
+                scanZip(file);
+            } catch (IOException e) {
+                // 无法读取的压缩包记为一个失败的文档, 已读取的条目不受影响
+                fail(file.toString(), e);
+            }
+        } else if (StringUtils.endsWithIgnoreCase(name, ".pdf")) {
+            String id = file.toString();
+            if (!skip(id)) {
+                submit(id, () -> new RandomAccessReadBufferedFile(file));
+            }
+        }
+    }
+
+    /**
+     * 逐个读取压缩包内的 pdf, 条目在提交时读入内存或解压到临时文件; 超出上限的条目输出错误记录
+     */
+    private void scanZip(Path file) throws IOException, InterruptedException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements() && !stopping) {
+                ZipEntry entry = entries.nextElement();
+                String id = file + "!/" + entry.getName();
+                if (entry.isDirectory() || !StringUtils.endsWithIgnoreCase(entry.getName(), ".pdf") || skip(id)) {
+                    continue;
+                }
+                Source source;
+                try {
+                    source = entry(zip, entry);
+                } catch (DocumentTooLargeException e) {
+                    fail(id, e);
+                    continue;
+                }
+                submit(id, source);
+            }
+        }
+    }
+
+    /**
+     * 读取条目: 不超过 spool-threshold 的读入内存, 否则解压到临时文件 (解析后删除); 解压后超过 max-entry-size 时拒绝
+     */
+    private Source entry(ZipFile zip, ZipEntry entry) throws IOException {
+        if (entry.getSize() > maxEntrySize) {
+            throw tooLarge();
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+            byte[] head = in.readNBytes((int) spoolThreshold + 1);
+            if (head.length <= spoolThreshold) {
+                return () -> new RandomAccessReadBuffer(head);
+            }
+            Path temp = Objects.isNull(tempDir) ? Files.createTempFile(TEMP_PREFIX, ".pdf") : Files.createTempFile(tempDir, TEMP_PREFIX, ".pdf");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(head);
+                long size = head.length;
+                byte[] buffer = new byte[8192];
+                for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                    if ((size += n) > maxEntrySize) {
+                        throw tooLarge();
+                    }
+                    out.write(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            return new Source() {
+                @Override
+                public RandomAccessRead open() throws IOException {
+                    return new RandomAccessReadBufferedFile(temp);
+                }
+
+                @Override
+                public void release() throws IOException {
+                    Files.deleteIfExists(temp);
+                }
+            };
+        }
+    }
+
+    private DocumentTooLargeException tooLarge() {
+        return new DocumentTooLargeException("压缩包条目超出上限 (" + DataSize.ofBytes(maxEntrySize).toMegabytes() + "MB)", null);
+    }
+
+    private static long dataSize(Map<String, String> options, String name, DataSize defaultValue) {
+        return options.containsKey(name) ? DataSize.parse(options.get(name)).toBytes() : defaultValue.toBytes();
+    }
+
+    private void fail(String id, Exception e) throws IOException {
+        failures.computeIfAbsent(ParseMetrics.cause(e), k -> new LongAdder()).increment();
+        sink.write(id, Invoice.error(id, e));
+    }
+
+    private boolean skip(String id) {
+        if (completed.contains(id)) {
+            skipped.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private void submit(String id, Source source) throws InterruptedException {
+        try {
+            queued.acquire();
+        } catch (InterruptedException e) {
+            release(source);
+            throw e;
+        }
+        try {
+            pool.execute(() -> {
+                try {
+                    // 写入失败后不再解析
+                    if (Objects.isNull(writeFailure)) {
+                        sink.write(id, parse(id, source));
+                    }
+                } catch (IOException e) {
+                    // 结果无法写入时停止, 结束后由 run 抛出
+                    failWrite(new IOException("结果写入失败: " + id + ", " + e.getMessage(), e));
+                } finally {
+                    release(source);
+                    queued.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 中断时线程池已关闭
+            release(source);
+            queued.release();
+        }
+    }
+
+    private static void release(Source source) {
+        try {
+            source.release();
+        } catch (IOException ignored) {
+            // 临时文件删除失败不影响结果
+        }
+    }
+
+    private Invoice parse(String id, Source source) {
+        ParseBudget budget = new ParseBudget(limits.getTimeout(), limits.getMaxOperators());
+        // 时限从加载前开始计算
+        budget.start();
+        try (RandomAccessRead read = source.open(); PDDocument document = documentLoader.load(read)) {
+            budget.check();
+            // 预检解码首页文字, 先按预算检查首页
+            if (document.getNumberOfPages() > 0) {
+                documentLoader.checkPage(document.getPage(0), budget);
+            }
+            documentLoader.triage(document, budget);
+            for (int page = 1; page < document.getNumberOfPages(); page++) {
+                documentLoader.checkPage(document.getPage(page), budget);
+            }
+            Invoice invoice = invoiceParser.parse(document, budget);
+            invoice.setFileName(id);
+            parsed.increment();
+            return invoice;
+        } catch (Exception e) {
+            Exception error = e instanceof IOException io ? documentLoader.translate(io) : e;
+            failures.computeIfAbsent(ParseMetrics.cause(error), k -> new LongAdder()).increment();
+            return Invoice.error(id, error);
+        }
+    }
+
+    private synchronized void failWrite(IOException e) {
+        if (Objects.isNull(writeFailure)) {
+            writeFailure = e;
+        }
+        stopping = true;
+    }
+
+    /**
+     * 关闭钩子: 停止提交并等待 run 结束, 钩子返回后 JVM 退出
+     */
+    private void interrupt(CountDownLatch finished) {
+        interrupted = true;
+        stopping = true;
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void await() {
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(1, TimeUnit.HOURS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sink.flush();
+        } catch (IOException ignored) {
+            // 关闭时再次刷新
+        }
+    }
+
+    private Summary summary(long nanos) {
+        Map<String, Long> causes = new LinkedHashMap<>();
+        failures.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                .forEach(e -> causes.put(e.getKey(), e.getValue().sum()));
+        return new Summary(parsed.sum(), causes.values().stream().mapToLong(Long::longValue).sum(), skipped.sum(), nanos, causes, interrupted,
+                Objects.isNull(writeFailure) ? null : writeFailure.getMessage());
+    }
+
+    @FunctionalInterface
+    private interface Source {
+
+        RandomAccessRead open() throws IOException;
+
+        /**
+         * 解析结束后释放 (删除临时文件)
+         */
+        default void release() throws IOException {
+        }
+    }
+
+    /**
+     * 运行汇总
+     *
+     * @param parsed      解析成功的文档数
+     * @param failed      失败的文档数
+     * @param skipped     断点中已完成而跳过的文档数
+     * @param nanos       耗时
+     * @param causes      失败原因 -> 文档数, 按数量降序
+     * @param interrupted 是否中断
+     * @param writeError  结果写入失败原因, 成功为 null
+     */
+    record Summary(long parsed, long failed, long skipped, long nanos, Map<String, Long> causes, boolean interrupted, String writeError) {
+
+        double docsPerSecond() {
+            return nanos == 0 ? 0 : (parsed + failed) / (nanos / 1e9);
+        }
+
+        void print(PrintStream log) {
+            log.printf("%s: %d parsed, %d failed, %d skipped (checkpoint) in %.1f s, %.1f docs/s%n",
+                    Objects.nonNull(writeError) ? "write failed" : interrupted ? "interrupted" : "done", parsed, failed, skipped, nanos / 1e9, docsPerSecond());
+            if (Objects.nonNull(writeError)) {
+                log.printf("  %s%n", writeError);
+            }
+            causes.entrySet().stream().limit(10).forEach(e -> log.printf("  %6d  %s%n", e.getValue(), e.getKey()));
+            if (causes.size() > 10) {
+                log.printf("  ... %d more causes%n", causes.size() - 10);
+            }
+        }
+    }
+}
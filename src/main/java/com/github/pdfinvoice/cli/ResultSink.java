@@ -0,0 +1,174 @@
+package com.github.pdfinvoice.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pdfinvoice.parse.Invoice;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 批量解析结果输出 (ndjson 或 csv) 及断点文件, 均为追加写入
+ * <p>
+ * 断点文件每行一个已完成的文档 ("ok|fail" + tab + 文档标识); 先刷新结果再刷新断点, 中断后重新运行时已记入断点的文档不再解析,
+ * 只写入结果未记入断点的文档会重新解析, 结果中可能重复 (至少一次)
+ */
+final class ResultSink implements Closeable {
+
+    // 每写入该数量的结果刷新一次
+    private static final int FLUSH_EVERY = 256;
+
+    private static final List<Column> COLUMNS = List.of(
+            new Column("fileName", Invoice::getFileName),
+            new Column("title", Invoice::getTitle),
+            new Column("code", Invoice::getCode),
+            new Column("number", Invoice::getNumber),
+            new Column("date", Invoice::getDate),
+            new Column("checksum", Invoice::getChecksum),
+            new Column("buyerName", Invoice::getBuyerName),
+            new Column("buyerCode", Invoice::getBuyerCode),
+            new Column("sellerName", Invoice::getSellerName),
+            new Column("sellerCode", Invoice::getSellerCode),
+            new Column("amount", e -> plain(e.getAmount())),
+            new Column("taxAmount", e -> plain(e.getTaxAmount())),
+            new Column("totalAmount", e -> plain(e.getTotalAmount())),
+            new Column("type", Invoice::getType),
+            new Column("detailRows", e -> Objects.isNull(e.getDetailList()) ? null : String.valueOf(e.getDetailList().size())),
+            new Column("error", Invoice::getError));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean csv;
+
+    private final BufferedWriter output;
+
+    private final BufferedWriter checkpoint;
+
+    // 结果刷新后才写入断点文件, 断点不会先于结果落盘
+    private final StringBuilder pending = new StringBuilder();
+
+    private int count;
+
+    private boolean closed;
+
+    /**
+     * @param output     结果文件
+     * @param csv        csv 格式, 否则为 ndjson
+     * @param checkpoint 断点文件
+     */
+    ResultSink(Path output, boolean csv, Path checkpoint) throws IOException {
+        this.csv = csv;
+        boolean empty = Files.notExists(output) || Files.size(output) == 0;
+        this.output = Files.newBufferedWriter(output, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.checkpoint = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (csv && empty) {
+            this.output.write(String.join(",", COLUMNS.stream().map(Column::name).toList()));
+            this.output.newLine();
+        }
+    }
+
+    /**
+     * 读取断点文件
+     *
+     * @param checkpoint  断点文件
+     * @param retryFailed 失败的文档是否重新解析
+     * @return 不再解析的文档标识
+     */
+    static Set<String> completed(Path checkpoint, boolean retryFailed) throws IOException {
+        Set<String> completed = new HashSet<>();
+        if (Files.notExists(checkpoint)) {
+            return completed;
+        }
+        try (var lines = Files.lines(checkpoint, StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+                int tab = line.indexOf('\t');
+                // 中断时只写入部分的行可能没有文档标识
+                if (tab > 0 && !(retryFailed && line.startsWith("fail"))) {
+                    completed.add(line.substring(tab + 1));
+                }
+            });
+        }
+        return completed;
+    }
+
+    /**
+     * 写入结果并记入断点
+     *
+     * @param id      文档标识
+     * @param invoice 发票或失败记录
+     */
+    synchronized void write(String id, Invoice invoice) throws IOException {
+        if (closed) {
+            return;
+        }
+        output.write(csv ? csvLine(invoice) : objectMapper.writeValueAsString(invoice));
+        output.newLine();
+        pending.append(Objects.isNull(invoice.getError()) ? "ok" : "fail").append('\t').append(id).append(System.lineSeparator());
+        if (++count >= FLUSH_EVERY) {
+            flush();
+        }
+    }
+
+    synchronized void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        count = 0;
+        output.flush();
+        checkpoint.write(pending.toString());
+        checkpoint.flush();
+        pending.setLength(0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        try {
+            output.close();
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    private static String csvLine(Invoice invoice) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            String value = COLUMNS.get(i).value().apply(invoice);
+            if (Objects.nonNull(value)) {
+                line.append(escape(value));
+            }
+        }
+        return line.toString();
+    }
+
+    private static String escape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String plain(BigDecimal value) {
+        return Objects.isNull(value) ? null : value.toPlainString();
+    }
+
+    private record Column(String name, Function<Invoice, String> value) {
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.pdfinvoice.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 发票解析配置
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "pdf-invoice")
+public class PdfInvoiceProperties {
+
+    // 批量解析
+    private final Batch batch = new Batch();
+
+    // 解析线程池
+    private final Worker worker = new Worker();
+
+    // 上传接收
+    private final Upload upload = new Upload();
+
+    // 定位关键字
+    private final Anchor anchor = new Anchor();
+
+    // 版式缓存
+    private final Layout layout = new Layout();
+
+    // 解析结果缓存
+    private final ResultCache resultCache = new ResultCache();
+
+    // 单文档内存预算及解析时限
+    private final Document document = new Document();
+
+    // 文档预检
+    private final Triage triage = new Triage();
+
+    // 解析记录采样
+    private final Trace trace = new Trace();
+
+    // 解析函数 (Spring Cloud Function)
+    private final Function function = new Function();
+
+    @Getter
+    @Setter
+    public static class Batch {
+        // 并发解析文档数, 默认 CPU 核数
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        // 压缩包单个条目解压后上限, 超过时该条目返回错误记录
+        private DataSize maxEntrySize = DataSize.ofMegabytes(64);
+        // 压缩包解压总字节数上限 (含跳过的条目), 超过时停止读取该压缩包
+        private DataSize maxArchiveSize = DataSize.ofGigabytes(1);
+        // 压缩包条目数上限 (含目录及非 pdf 条目)
+        private int maxEntries = 10000;
+    }
+
+    @Getter
+    @Setter
+    public static class Worker {
+        // 解析线程数, 默认 CPU 核数
+        private int threads = Runtime.getRuntime().availableProcessors();
+        // 等待队列长度, 队列满时拒绝请求
+        private int queueCapacity = 64;
+        // 拒绝时建议客户端重试间隔, 也是批量任务退避重试的最大间隔
+        private Duration retryAfter = Duration.ofSeconds(1);
+        // 批量任务被拒绝时的重试次数, 用尽后该文档返回错误记录
+        private int maxRetries = 60;
+        // 单个文档同时解析续页的任务数 (不超过解析线程数), 每个任务加载一次文档
+        private int pageParallelism = 4;
+    }
+
+    @Getter
+    @Setter
+    public static class Upload {
+        // 超过该大小的上传落盘为临时文件
+        private DataSize spoolThreshold = DataSize.ofMegabytes(4);
+        // 全局内存中上传字节上限, 超过时暂停读取上传内容
+        private DataSize maxInFlight = DataSize.ofMegabytes(256);
+        // 临时文件以内存映射方式读取
+        private boolean memoryMapped;
+        // 临时文件目录, 默认系统临时目录
+        private Path tempDir;
+    }
+
+    @Getter
+    @Setter
+    public static class Anchor {
+        // 在内置关键字之外追加的水平关键字, 区块为关键字所在整行
+        private List<String> horizontal = new ArrayList<>();
+        // 在内置关键字之外追加的垂直关键字, 区块为关键字右侧
+        private List<String> vertical = new ArrayList<>();
+    }
+
+    @Getter
+    @Setter
+    public static class Layout {
+        // 缓存的版式数, 0 为不缓存
+        private int cacheSize = 512;
+    }
+
+    @Getter
+    @Setter
+    public static class ResultCache {
+        // 内存中缓存的解析结果数, 0 为不缓存
+        private int maxEntries = 10000;
+        // 过期时间
+        private Duration ttl = Duration.ofHours(24);
+        // 文件缓存目录, 为空时只缓存在内存; 同一主机的多个实例可共享
+        private Path dir;
+    }
+
+    @Getter
+    @Setter
+    public static class Document {
+        // pdfbox 流缓存可使用的内存, 超过部分写入临时文件
+        private DataSize maxMainMemory = DataSize.ofMegabytes(8);
+        // 流缓存 (内存与临时文件合计) 及单页解码内容 (内容流、表单、嵌入字体) 上限, 超过时拒绝该文档
+        private DataSize maxStorage = DataSize.ofMegabytes(64);
+        // 跨文档共享的字体、颜色空间实例数 (按内容区分), 0 为不共享
+        private int resourceCacheSize = 256;
+        // 共享字体、颜色空间的空闲实例占用上限 (按嵌入字体程序等流的长度估算), 不计入单文档预算; 超过时淘汰最久未使用的
+        private DataSize resourceCacheMemory = DataSize.ofMegabytes(64);
+        // 单文档解析时限 (首页及续页合计, 不含排队), 超过时结束解析; 0 为不限
+        private Duration timeout = Duration.ofSeconds(30);
+        // 单文档内容流操作符上限 (含表单及文字), 超过时结束解析; 0 为不限
+        private long maxOperators = 1_000_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Triage {
+        // 加载前检查文件头, 版面解析前检查首页文字及发票号码, 不通过时拒绝
+        private boolean enabled = true;
+        // 首页文字预检最多读取的解码内容, 读完仍未找到发票号码时不拒绝, 由版面解析处理
+        private DataSize maxScanSize = DataSize.ofMegabytes(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Trace {
+        // 采样比例 (0 ~ 1), 0 为只记录失败及请求头要求的解析
+        private double sampleRate;
+        // 解析失败时记录
+        private boolean onFailure = true;
+        // 允许客户端以请求头 X-Parse-Trace 强制记录 (不使用结果缓存); 记录含发票区块文本, 默认不允许
+        private boolean allowHeader;
+        // 保留的最近记录数
+        private int capacity = 100;
+    }
+
+    @Getter
+    @Setter
+    public static class Function {
+        // 并发解析文档数, 默认 CPU 核数
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        // 每次向上游请求的消息数, 即已接收未解析的文档上限
+        private int batchSize = 32;
+        // 按消息到达顺序输出, 否则解析完成即输出
+        private boolean ordered;
+    }
+}
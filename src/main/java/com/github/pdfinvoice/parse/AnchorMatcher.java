@@ -0,0 +1,265 @@
+package com.github.pdfinvoice.parse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 定位关键字匹配
+ * <p>
+ * 水平关键字编译为 Aho-Corasick 自动机, 逐字输入; 同一位置结束的多个关键字只取最长的一个, 避免 "合计" 占用 "价税合计" 的文字。
+ * 垂直关键字的文字不连续出现, 只按字符归属记录候选文字, 由位置关系组合。
+ * 编译后不可变, 匹配过程不分配对象, 可在线程间共享
+ */
+public final class AnchorMatcher {
+
+    public static final List<String> HORIZONTAL = List.of("发票号码", "价税合计", "合计", "开票人");
+
+    public static final List<String> VERTICAL = List.of("下载次数", "备注", "购买方信息", "销售方信息", "密码区");
+
+    public static final AnchorMatcher DEFAULT = new AnchorMatcher(HORIZONTAL, VERTICAL);
+
+    private static final long EMPTY = -1L;
+
+    private final List<String> horizontal;
+
+    private final List<String> vertical;
+
+    private final int maxLength;
+
+    // 水平关键字字数
+    private final int[] lengths;
+
+    // 转移表, 开放寻址: key = state << 32 | codePoint
+    private final long[] transitionKeys;
+
+    private final int[] transitionTargets;
+
+    private final int[] fail;
+
+    // 状态结束的最长关键字下标, -1 表示无
+    private final int[] output;
+
+    // 垂直关键字字符表, 开放寻址: 字符 -> 关键字位掩码
+    private final int[] charKeys;
+
+    private final int[] charMasks;
+
+    public AnchorMatcher(List<String> horizontal, List<String> vertical) {
+        this.horizontal = List.copyOf(new LinkedHashSet<>(horizontal));
+        this.vertical = List.copyOf(new LinkedHashSet<>(vertical));
+        if (this.vertical.size() > Integer.SIZE) {
+            throw new IllegalArgumentException("垂直关键字数量不能超过 " + Integer.SIZE);
+        }
+
+        // trie
+        List<Map<Integer, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        children.add(new HashMap<>());
+        terminal.add(-1);
+        this.lengths = new int[this.horizontal.size()];
+        int max = 0;
+        for (int k = 0; k < this.horizontal.size(); k++) {
+            String keyword = this.horizontal.get(k);
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("关键字不能为空");
+            }
+            int state = 0;
+            int length = 0;
+            for (int cp : keyword.codePoints().toArray()) {
+                Integer next = children.get(state).get(cp);
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(cp, next);
+                    children.add(new HashMap<>());
+                    terminal.add(-1);
+                }
+                state = next;
+                length++;
+            }
+            terminal.set(state, k);
+            lengths[k] = length;
+            max = Math.max(max, length);
+        }
+        this.maxLength = max;
+
+        int states = children.size();
+        int transitions = children.stream().mapToInt(Map::size).sum();
+        int capacity = Integer.highestOneBit(Math.max(4, transitions * 2 - 1)) << 1;
+        this.transitionKeys = new long[capacity];
+        this.transitionTargets = new int[capacity];
+        Arrays.fill(transitionKeys, EMPTY);
+        for (int state = 0; state < states; state++) {
+            for (Map.Entry<Integer, Integer> e : children.get(state).entrySet()) {
+                put(state, e.getKey(), e.getValue());
+            }
+        }
+
+        // 失败指针, 广度优先
+        this.fail = new int[states];
+        this.output = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        output[0] = -1;
+        for (int child : children.get(0).values()) {
+            fail[child] = 0;
+            output[child] = terminal.get(child);
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Integer, Integer> e : children.get(state).entrySet()) {
+                int child = e.getValue();
+                fail[child] = next(fail[state], e.getKey());
+                // 自身为关键字时即为最长, 否则沿失败指针取最长后缀关键字
+                output[child] = terminal.get(child) >= 0 ? terminal.get(child) : output[fail[child]];
+                queue.add(child);
+            }
+        }
+
+        // 垂直关键字字符
+        Map<Integer, Integer> masks = new HashMap<>();
+        for (int k = 0; k < this.vertical.size(); k++) {
+            int bit = 1 << k;
+            this.vertical.get(k).codePoints().forEach(cp -> masks.merge(cp, bit, (a, b) -> a | b));
+        }
+        int charCapacity = Integer.highestOneBit(Math.max(4, masks.size() * 2 - 1)) << 1;
+        this.charKeys = new int[charCapacity];
+        this.charMasks = new int[charCapacity];
+        Arrays.fill(charKeys, -1);
+        masks.forEach((cp, mask) -> {
+            int i = mix(cp) & (charCapacity - 1);
+            while (charKeys[i] != -1) {
+                i = (i + 1) & (charCapacity - 1);
+            }
+            charKeys[i] = cp;
+            charMasks[i] = mask;
+        });
+    }
+
+    /**
+     * 追加关键字
+     *
+     * @param horizontal 水平关键字
+     * @param vertical   垂直关键字
+     * @return 新的匹配器
+     */
+    public AnchorMatcher with(List<String> horizontal, List<String> vertical) {
+        if (horizontal.isEmpty() && vertical.isEmpty()) {
+            return this;
+        }
+        List<String> h = new ArrayList<>(this.horizontal);
+        h.addAll(horizontal);
+        List<String> v = new ArrayList<>(this.vertical);
+        v.addAll(vertical);
+        return new AnchorMatcher(h, v);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void put(int state, int cp, int target) {
+        long key = ((long) state << 32) | (cp & 0xFFFFFFFFL);
+        int mask = transitionKeys.length - 1;
+        int i = mix(key) & mask;
+        while (transitionKeys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        transitionKeys[i] = key;
+        transitionTargets[i] = target;
+    }
+
+    private int transition(int state, int cp) {
+        long key = ((long) state << 32) | (cp & 0xFFFFFFFFL);
+        int mask = transitionKeys.length - 1;
+        int i = mix(key) & mask;
+        long k;
+        while ((k = transitionKeys[i]) != EMPTY) {
+            if (k == key) {
+                return transitionTargets[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 输入一个字符
+     *
+     * @param state 当前状态, 初始为 0
+     * @param cp    字符
+     * @return 下一状态
+     */
+    public int next(int state, int cp) {
+        while (true) {
+            int target = transition(state, cp);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    /**
+     * 在该状态结束的最长水平关键字
+     *
+     * @param state 状态
+     * @return 关键字下标, -1 表示无
+     */
+    public int match(int state) {
+        return output[state];
+    }
+
+    /**
+     * 包含该字符的垂直关键字
+     *
+     * @param cp 字符
+     * @return 关键字位掩码, 第 k 位对应 {@link #getVertical()} 第 k 个关键字
+     */
+    public int verticalMask(int cp) {
+        int mask = charKeys.length - 1;
+        int i = mix(cp) & mask;
+        int k;
+        while ((k = charKeys[i]) != -1) {
+            if (k == cp) {
+                return charMasks[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    public List<String> getHorizontal() {
+        return horizontal;
+    }
+
+    public List<String> getVertical() {
+        return vertical;
+    }
+
+    /**
+     * 最长水平关键字长度, 用于缓存最近输入的文字
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * 水平关键字字数
+     *
+     * @param keyword 关键字下标
+     * @return 字数
+     */
+    public int length(int keyword) {
+        return lengths[keyword];
+    }
+}
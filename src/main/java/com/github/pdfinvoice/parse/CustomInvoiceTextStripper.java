@@ -3,25 +3,29 @@ package com.github.pdfinvoice.parse;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pdfbox.contentstream.operator.Operator;
 import org.apache.pdfbox.contentstream.operator.color.*;
+import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.graphics.color.PDColor;
-import org.apache.pdfbox.text.PDFTextStripperByArea;
+import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.pdfbox.text.TextPosition;
 
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RectangularShape;
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -31,32 +35,72 @@ import java.util.stream.Stream;
 
 /**
  * 根据关键字进行分区块解析
+ * <p>
+ * 首页内容流只解析一次, 文字位置及填充颜色记录于 {@link GlyphStore}, 关键字定位、红色文字过滤、明细行及区块文字均以文字下标计算
  */
 @Getter
 @Setter
 @Slf4j
-public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
+public class CustomInvoiceTextStripper extends PDFTextStripper {
 
     // 探测红色文字
     private boolean detachColorText;
 
-    private BiPredicate<TextPosition, PDColor> colorPredicate;
-    // 红色文字集合
-    private final List<TextPosition> textPositions = new ArrayList<>();
+    // 按文字下标判断是否为红色文字
+    private IntPredicate colorPredicate;
+
+    // 首页文字 (已去除重叠文字, 按内容流顺序), 红色文字标记为剔除
+    private final GlyphStore glyphStore = new GlyphStore();
+    // 首页文字空间索引
+    private GlyphIndex glyphIndex;
+    // 明细行收集, 非空时 writeString 按行收集文字
+    private GlyphLines lines;
+
+    private boolean newLine;
 
     // 下列文字集解析
     private boolean parsedPosition;
-    // 水平文字
-    private LinkedHashMap<String, List<TextPosition>> horizonText = new LinkedHashMap<>();
-    // maybe垂直文字
-    private LinkedHashMap<String, List<TextPosition>> orVerticalText = new LinkedHashMap<>();
+    // 版式模板
+    private final LayoutTemplates layoutTemplates;
+    // 识别的版式
+    private LayoutTemplate template;
+    // 定位关键字匹配
+    private final AnchorMatcher anchorMatcher;
+    // 水平文字下标, 与关键字下标对应, 未找到为 null
+    private final int[][] horizonAnchors;
+    // maybe垂直文字下标
+    private final int[][] verticalCandidates;
+
+    private final int[] verticalCounts;
+    // 匹配状态及最近输入的文字
+    private int anchorState;
+
+    private final int[] recentText;
+
+    private int recentIndex;
+    // 最近的填充颜色
+    private PDColor lastColor;
+
+    private int lastColour;
+    // 版式缓存, 为 null 时不缓存
+    private final LayoutCache layoutCache;
+    // 明细表头首字纵坐标及列边界
+    private float titleY;
+
+    private List<PageLayout.ColumnBound> columnBounds;
+    // 各阶段耗时
+    private ParseTrace trace;
+    // 解析时限及操作符上限
+    private ParseBudget budget = ParseBudget.unlimited();
+    // 尚未计入预算的操作符、文字数
+    private int unchecked;
 
 
     // 异形字处理
     private static final Map<String, String> REPLACEMENTS = new HashMap<>();
-    private static final List<Pattern> PATTERNS;
 
-    private String tag = UUID.randomUUID().toString();
+    // 调试日志标识, 未设置为 null
+    private String tag;
     // 数据
     private Invoice invoice;
 
@@ -65,8 +109,6 @@ public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
         REPLACEMENTS.put("⼦", "子");
         REPLACEMENTS.put("⼈", "人");
         REPLACEMENTS.put("⾦", "金");
-
-        PATTERNS = Stream.of("[^\\x20]+名称", "规格型号", "单[^\u4e00-\u9fa5]*位", "数[^\u4e00-\u9fa5]*量", "单[^\u4e00-\u9fa5]*价", "[金⾦][^\u4e00-\u9fa5]*额", "税[^\u4e00-\u9fa5]*率(\\/征收率)?", "税[^\u4e00-\u9fa5]*额").map(e -> Pattern.compile(e, Pattern.DOTALL)).collect(Collectors.toList());
     }
 
 
@@ -75,6 +117,40 @@ public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
     }
 
     public CustomInvoiceTextStripper(PDDocument document) throws Exception {
+        this(document, LayoutTemplates.DEFAULT);
+    }
+
+    public CustomInvoiceTextStripper(PDDocument document, LayoutTemplates layoutTemplates) throws Exception {
+        this(document, layoutTemplates, null);
+    }
+
+    public CustomInvoiceTextStripper(PDDocument document, LayoutTemplates layoutTemplates, LayoutCache layoutCache) throws Exception {
+        this(document, layoutTemplates, layoutCache, new ParseTrace());
+    }
+
+    public CustomInvoiceTextStripper(PDDocument document, LayoutTemplates layoutTemplates, LayoutCache layoutCache, ParseTrace trace) throws Exception {
+        this(layoutTemplates, layoutCache, trace);
+        this.parse(document);
+    }
+
+    /**
+     * 续页明细解析 (销货清单、多页行程单), 以首页版式的明细表头识别续页, 结果发票只有明细
+     *
+     * @param document        文档
+     * @param layoutTemplates 版式模板
+     * @param template        首页版式
+     * @param pageIndex       页下标
+     */
+    public CustomInvoiceTextStripper(PDDocument document, LayoutTemplates layoutTemplates, LayoutTemplate template, int pageIndex) throws Exception {
+        this(document, layoutTemplates, template, pageIndex, new ParseTrace());
+    }
+
+    public CustomInvoiceTextStripper(PDDocument document, LayoutTemplates layoutTemplates, LayoutTemplate template, int pageIndex, ParseTrace trace) throws Exception {
+        this(layoutTemplates, null, trace);
+        this.parseContinuation(document.getPage(pageIndex), pageIndex, template);
+    }
+
+    private CustomInvoiceTextStripper(LayoutTemplates layoutTemplates, LayoutCache layoutCache, ParseTrace trace) {
 
         // 颜色处理
         addOperator(new SetStrokingColorSpace(this));
@@ -90,22 +166,68 @@ public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
         addOperator(new SetNonStrokingColor(this));
         addOperator(new SetNonStrokingColorN(this));
         setSortByPosition(true);
+        setShouldSeparateByBeads(false);
+
+        this.layoutTemplates = layoutTemplates;
+        this.anchorMatcher = layoutTemplates.getAnchorMatcher();
+        this.recentText = new int[Math.max(1, anchorMatcher.getMaxLength())];
+        this.horizonAnchors = new int[anchorMatcher.getHorizontal().size()][];
+        this.verticalCandidates = new int[anchorMatcher.getVertical().size()][16];
+        this.verticalCounts = new int[anchorMatcher.getVertical().size()];
+        this.layoutCache = layoutCache;
+        this.trace = trace;
+    }
 
-        orVerticalText.put("下载次数", new ArrayList<>());
-        orVerticalText.put("备注", new ArrayList<>());
-        orVerticalText.put("购买方信息", new ArrayList<>());
-        orVerticalText.put("销售方信息", new ArrayList<>());
-        orVerticalText.put("密码区", new ArrayList<>());
-
-        horizonText.put("发票号码", new ArrayList<>());
-        horizonText.put("价税合计", new ArrayList<>());
-        horizonText.put("合计", new ArrayList<>());
-        horizonText.put("开票人", new ArrayList<>());
 
+    /**
+     * 未解析的 stripper, 由 {@link InvoiceParser} 按线程复用
+     */
+    static CustomInvoiceTextStripper reusable(LayoutTemplates layoutTemplates, LayoutCache layoutCache) {
+        return new CustomInvoiceTextStripper(layoutTemplates, layoutCache, new ParseTrace());
+    }
 
-        this.parse(document);
+    /**
+     * 清除上一文档的解析状态, 保留已分配的文字存储及关键字候选数组
+     *
+     * @param trace  本次解析任务记录
+     * @param budget 文档解析预算
+     */
+    void reset(ParseTrace trace, ParseBudget budget) {
+        this.trace = trace;
+        this.budget = budget;
+        unchecked = 0;
+        glyphStore.clear();
+        glyphIndex = null;
+        lines = null;
+        newLine = false;
+        parsedPosition = false;
+        detachColorText = false;
+        colorPredicate = null;
+        template = null;
+        Arrays.fill(horizonAnchors, null);
+        Arrays.fill(verticalCounts, 0);
+        anchorState = 0;
+        recentIndex = 0;
+        lastColor = null;
+        lastColour = 0;
+        titleY = 0;
+        columnBounds = null;
+        invoice = null;
+        tag = null;
     }
 
+    /**
+     * 释放对文档的引用 (文字、页面及图形状态), 空闲时不持有已关闭的文档
+     */
+    void release() throws IOException {
+        reset(new ParseTrace(), ParseBudget.unlimited());
+        charactersByArticle = new ArrayList<>();
+        output = Writer.nullWriter();
+        // 以无内容的空白页重置图形状态
+        setStartPage(getCurrentPageNo());
+        setEndPage(getCurrentPageNo());
+        processPage(new PDPage());
+    }
 
     /**
      * 增加二维矩阵高度
@@ -122,49 +244,100 @@ public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
      * 文字组合
      *
      * @param key           查找文字
-     * @param textPositions 文档中所有关联key的字集合
+     * @param textPositions 文档中所有关联key的字下标
      * @param predicate
-     * @return
+     * @return 文字下标
      */
-    private List<TextPosition> detachText(String key, List<TextPosition> textPositions, BiPredicate<String, List<TextPosition>> predicate) {
+    private int[] detachText(String key, int[] textPositions, BiPredicate<String, int[]> predicate) {
         float pt = 1F;
-        String c = Objects.toString(key.charAt(0));
-
-        return textPositions.stream().filter(e -> Objects.equals(e.getUnicode(), c)).map(e -> {
-            List<TextPosition> list = new ArrayList<>();
-            list.add(e);
-            int i = textPositions.indexOf(e);
-            return textPositions.subList(i, textPositions.size()).stream().filter(t -> !Objects.equals(e, t)).reduce(list, (l, t) -> {
-                TextPosition cur = l.get(l.size() - 1);
-                float absX = Math.abs(t.getX() - cur.getX());
+        int c = key.codePointAt(0);
+        IntPredicate keyChar = t -> key.contains(REPLACEMENTS.getOrDefault(glyphStore.unicode(t), glyphStore.unicode(t)));
+
+        int[] best = new int[0];
+        for (int e : textPositions) {
+            if (glyphStore.codePoint(e) != c) {
+                continue;
+            }
+            int[] column = glyphIndex.column(e, pt, keyChar);
+            int[] l = new int[column.length + 1];
+            int n = 0;
+            l[n++] = e;
+            // 同列下方的关键字文字, 文字间距需保持一致
+            for (int t : column) {
+                int cur = l[n - 1];
+                float absX = Math.abs(glyphStore.x(t) - glyphStore.x(cur));
                 boolean add = true;
-                if (l.size() >= 2) {
-                    float absY = t.getY() - cur.getY();
-                    TextPosition prev = l.get(l.size() - 2);
-                    float prevAbsY = cur.getY() - prev.getY();
+                if (n >= 2) {
+                    float absY = glyphStore.y(t) - glyphStore.y(cur);
+                    float prevAbsY = glyphStore.y(cur) - glyphStore.y(l[n - 2]);
                     add = Math.abs(absY - prevAbsY) < 2;
                 }
                 if (absX < pt && add) {
-                    l.add(t);
+                    l[n++] = t;
                 }
-                return l;
-            }, (l1, l2) -> l1);
-        }).filter(e -> e.size() > 1).max(Comparator.comparingInt(List::size)).filter(e -> predicate.test(key, e)).orElseGet(Collections::emptyList);
+            }
+            if (n > 1 && n > best.length) {
+                best = Arrays.copyOf(l, n);
+            }
+        }
+        return best.length > 0 && predicate.test(key, best) ? best : new int[0];
+    }
 
+    /**
+     * 分阶段解析, 供基准测试逐阶段计时
+     *
+     * @param layoutTemplates 版式模板
+     * @return 未解析的 stripper
+     */
+    static CustomInvoiceTextStripper staged(LayoutTemplates layoutTemplates) {
+        return new CustomInvoiceTextStripper(layoutTemplates, null, new ParseTrace());
     }
 
     public void parse(PDDocument document) throws Exception {
+        long start = System.nanoTime();
+        PDPage page = extract(document);
+        trace.stage(ParseTrace.Stage.EXTRACT, start);
+
+        // 同一开票方的版式命中缓存时跳过垂直关键字定位, 校验失败时重新定位
+        long fingerprint = fingerprint(document, page);
+        PageLayout cached = Objects.isNull(layoutCache) ? null : layoutCache.get(fingerprint);
+        if (Objects.nonNull(cached)) {
+            try {
+                if (parseLayout(cached, true)) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                log.debug("版式缓存校验失败 {}", tag, e);
+            }
+            layoutCache.invalidate(fingerprint, cached);
+            glyphStore.clearExcluded();
+            colorPredicate = null;
+        }
 
-        PDPage page = document.getPage(0);
+        start = System.nanoTime();
+        PageLayout layout = discoverLayout(page);
+        trace.stage(ParseTrace.Stage.LAYOUT, start);
+        parseLayout(layout, false);
+        if (Objects.nonNull(layoutCache)) {
+            layoutCache.put(fingerprint, layout.withColumns(titleY, columnBounds));
+        }
+    }
 
-        addRegion("page", new Rectangle2D.Double(0, 0, page.getCropBox().getWidth(), page.getCropBox().getHeight()));
-        extractRegions(page);
+    /**
+     * 解析首页内容流: 文字位置、颜色及水平关键字
+     *
+     * @param document 文档
+     * @return 首页
+     */
+    PDPage extract(PDDocument document) throws IOException {
+        PDPage page = document.getPage(0);
 
-        String region = getTextForRegion("page");
+        extractPage(page);
+        glyphIndex = new GlyphIndex(glyphStore, pageRect(page));
 
-        removeRegion("page");
+        boolean blank = Arrays.stream(glyphIndex.query(pageRect(page))).mapToObj(glyphStore::unicode).allMatch(StringUtils::isBlank);
 
-        if (StringUtils.isBlank(region)) {
+        if (blank) {
             throw new IllegalArgumentException("发票首页内容解析为空，请确认文档正确性");
         }
 
@@ -173,21 +346,247 @@ public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
 
         // 解析颜色
         detachColorText = true;
+        return page;
+    }
+
+    private static Rectangle2D pageRect(PDPage page) {
+        return new Rectangle2D.Double(0, 0, page.getCropBox().getWidth(), page.getCropBox().getHeight());
+    }
+
+    /**
+     * 首页指纹: 生成工具、页面尺寸及旋转、各水平关键字首字的位置 (取整)
+     *
+     * @param document 文档
+     * @param page     首页
+     * @return 指纹
+     */
+    private long fingerprint(PDDocument document, PDPage page) {
+        long hash = LayoutCache.seed();
+        hash = LayoutCache.mix(hash, Objects.hashCode(document.getDocumentInformation().getProducer()));
+        hash = LayoutCache.mix(hash, Math.round(page.getCropBox().getWidth()));
+        hash = LayoutCache.mix(hash, Math.round(page.getCropBox().getHeight()));
+        hash = LayoutCache.mix(hash, page.getRotation());
+        for (int[] anchor : horizonAnchors) {
+            if (Objects.isNull(anchor)) {
+                hash = LayoutCache.mix(hash, -1);
+                continue;
+            }
+            hash = LayoutCache.mix(hash, Math.round(glyphStore.x(anchor[0])));
+            hash = LayoutCache.mix(hash, Math.round(glyphStore.y(anchor[0])));
+        }
+        return hash;
+    }
+
+    /**
+     * 关键字定位, 识别版式并划分区块
+     *
+     * @param page 首页
+     * @return 版式, 明细表头及列边界待确定
+     */
+    PageLayout discoverLayout(PDPage page) {
+        List<String> verticalKeys = anchorMatcher.getVertical();
+        Map<String, int[]> verticalText = IntStream.range(0, verticalKeys.size()).boxed().collect(Collectors.toMap(verticalKeys::get,
+                k -> detachText(verticalKeys.get(k), Arrays.copyOf(verticalCandidates[k], verticalCounts[k]), (key, v) -> Objects.equals(key.length(), v.length) || (key.contains("方") && v.length == 3))));
+
+        Map<String, int[]> horizonText = new LinkedHashMap<>();
+        for (int k = 0; k < horizonAnchors.length; k++) {
+            horizonText.put(anchorMatcher.getHorizontal().get(k), Objects.requireNonNullElse(horizonAnchors[k], ArrayUtils.EMPTY_INT_ARRAY));
+        }
 
+        Set<String> anchors = Stream.of(verticalText.entrySet(), horizonText.entrySet()).flatMap(Set::stream)
+                .filter(e -> ArrayUtils.isNotEmpty(e.getValue())).map(Map.Entry::getKey).collect(Collectors.toSet());
+        template = layoutTemplates.classify(anchors);
+        trace.family(template.getFamily());
 
-        Map<String, List<TextPosition>> verticalText = orVerticalText.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> detachText(e.getKey(), e.getValue(), (k, v) -> Objects.equals(k.length(), v.size()) || (k.contains("方") && v.size() == 3))));
+        Rectangle2D pageRec = pageRect(page);
+        return template.getGeometry() == LayoutTemplate.Geometry.PAGE
+                ? new PageLayout(template, Map.of(LayoutTemplate.PAGE_REGION, pageRec), pageRec, Double.NaN, List.of(), Float.NaN, null)
+                : anchoredRegions(page, verticalText, horizonText);
+    }
 
-        Map<String, Rectangle2D> verticalCollect = verticalText.entrySet().stream().filter(e -> CollectionUtils.isNotEmpty(e.getValue())).collect(Collectors.toMap(Map.Entry::getKey, e -> getRectangle2D(e.getValue())));
+    /**
+     * 按版式提取区块文字及明细
+     *
+     * @param layout 版式
+     * @param cached 是否来自缓存, 缓存版式需校验关键字、表头位置及列边界
+     * @return 缓存版式校验失败时为 false
+     */
+    private boolean parseLayout(PageLayout layout, boolean cached) throws IOException {
+        template = layout.template();
+        trace.family(template.getFamily());
+        trace.regions(layout.regions());
+
+        long start = System.nanoTime();
+        boolean probesMatch = !cached || probesMatch(layout.probes());
+        if (cached) {
+            trace.stage(ParseTrace.Stage.LAYOUT, start);
+        }
+        if (!probesMatch) {
+            return false;
+        }
+
+        start = System.nanoTime();
+        GlyphLines detailLines = detailLines(layout.detail());
+        trace.stage(ParseTrace.Stage.DETAIL_LINES, start);
+        trace.detailLines(0, () -> lineText(detailLines));
+
+        start = System.nanoTime();
+        int titleIndex = titleIndex(detailLines, cached ? layout.titleY() : Float.NaN);
+        if (titleIndex < 0) {
+            if (cached) {
+                return false;
+            }
+            throw new IllegalArgumentException("发票明细解析异常");
+        }
+        titleY = glyphStore.y(detailLines.glyphs()[detailLines.start(titleIndex)]);
+        columnBounds = columnBounds(detailLines, titleIndex);
+        // 表头已定位, 重新计算列边界开销很小; 与缓存不一致时重新定位
+        if (cached && !columnBounds.equals(layout.columns())) {
+            return false;
+        }
+        trace.stage(ParseTrace.Stage.DETAILS, start);
+
+        start = System.nanoTime();
+        Map<String, String> result = regionText(layout);
+        trace.stage(ParseTrace.Stage.REGIONS, start);
+        trace.regionText(result);
+
+        start = System.nanoTime();
+        Invoice invoice = fields(result);
+        trace.stage(ParseTrace.Stage.FIELDS, start);
+
+        start = System.nanoTime();
+        invoice.setDetailList(parseDetails(detailLines, titleIndex, invoice));
+        trace.stage(ParseTrace.Stage.DETAILS, start);
+        trace.detailRows(invoice.getDetailList().size());
+        this.invoice = invoice;
+        return true;
+    }
+
+    /**
+     * 剔除红色文字后按区块输出文本
+     *
+     * @param layout 版式
+     * @return 区块文本
+     */
+    Map<String, String> regionText(PageLayout layout) throws IOException {
+        double redLimit = layout.redLimit();
+        colorPredicate = Double.isNaN(redLimit) ? null : t -> glyphStore.y(t) < redLimit && GlyphStore.isRed(glyphStore.colour(t));
+
+        if (detachColorText && Objects.nonNull(colorPredicate)) {
+            for (int i = 0; i < glyphStore.size(); i++) {
+                if (colorPredicate.test(i)) {
+                    glyphStore.exclude(i);
+                }
+            }
+        }
+
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, int[]> entry : regionGlyphs(layout.regions()).entrySet()) {
+            String text = writeText(entry.getValue());
+            result.put(entry.getKey(), normalize(text));
+        }
+        return result;
+    }
+
+    /**
+     * 明细区文字行, 仅用于解析记录
+     */
+    private List<String> lineText(GlyphLines detailLines) {
+        return IntStream.range(0, detailLines.size()).mapToObj(i -> detailLines.text(glyphStore, i)).toList();
+    }
+
+    /**
+     * 续页明细: 整页查找明细表头, 未找到时不是续页, 明细为空
+     *
+     * @param page      页
+     * @param pageIndex 页下标
+     * @param template  首页版式
+     */
+    void parseContinuation(PDPage page, int pageIndex, LayoutTemplate template) throws IOException {
+        this.template = template;
+        trace.family(template.getFamily());
+        long start = System.nanoTime();
+        extractPage(page);
+        glyphIndex = new GlyphIndex(glyphStore, pageRect(page));
+        parsedPosition = true;
+        trace.stage(ParseTrace.Stage.EXTRACT, start);
+
+        Invoice continuation = new Invoice();
+        continuation.setDetailList(new ArrayList<>());
+        this.invoice = continuation;
+
+        start = System.nanoTime();
+        GlyphLines detailLines = detailLines(pageRect(page));
+        trace.stage(ParseTrace.Stage.DETAIL_LINES, start);
+        trace.detailLines(pageIndex, () -> lineText(detailLines));
+
+        start = System.nanoTime();
+        int titleIndex = titleIndex(detailLines, Float.NaN);
+        if (titleIndex < 0) {
+            trace.stage(ParseTrace.Stage.DETAILS, start);
+            return;
+        }
+        columnBounds = columnBounds(detailLines, titleIndex);
+        continuation.setDetailList(parseDetails(detailLines, titleIndex, continuation));
+        trace.stage(ParseTrace.Stage.DETAILS, start);
+        trace.detailRows(continuation.getDetailList().size());
+    }
+
+    /**
+     * 明细表头行: 至少匹配模板中 titleMatches 列
+     *
+     * @param detailLines 明细行
+     * @param titleY      表头首字纵坐标, NaN 时不限
+     * @return 行, 未找到为 -1
+     */
+    int titleIndex(GlyphLines detailLines, float titleY) {
+        return IntStream.range(0, detailLines.size())
+                .filter(i -> Float.isNaN(titleY) || Math.abs(glyphStore.y(detailLines.glyphs()[detailLines.start(i)]) - titleY) < 1)
+                .filter(i -> {
+                    String s = detailLines.text(glyphStore, i);
+                    long c = template.getColumns().stream().filter(e -> e.title().matcher(s).find()).count();
+                    return c >= template.getTitleMatches();
+                }).findFirst().orElse(-1);
+    }
+
+    /**
+     * 缓存版式的关键字首字在原位置
+     */
+    private boolean probesMatch(List<PageLayout.Probe> probes) {
+        for (PageLayout.Probe probe : probes) {
+            Rectangle2D rec = new Rectangle2D.Double(probe.x() - 1, probe.y() - 1, 2, 2);
+            boolean found = Arrays.stream(glyphIndex.query(rec)).anyMatch(t -> glyphStore.codePoint(t) == probe.codePoint()
+                    && Math.abs(glyphStore.x(t) - probe.x()) < 1 && Math.abs(glyphStore.y(t) - probe.y()) < 1);
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按定位关键字划分区块
+     *
+     * @param page         首页
+     * @param verticalText 垂直关键字文字
+     * @param horizonText  水平关键字文字
+     * @return 版式, 明细表头及列边界待确定
+     */
+    private PageLayout anchoredRegions(PDPage page, Map<String, int[]> verticalText, Map<String, int[]> horizonText) {
+        Map<String, Rectangle2D> verticalCollect = verticalText.entrySet().stream().filter(e -> ArrayUtils.isNotEmpty(e.getValue()))
+                .filter(e -> layoutTemplates.isRegion(template, e.getKey())).collect(Collectors.toMap(Map.Entry::getKey, e -> getRectangle2D(e.getValue())));
 
         // 下载次数修正长度
         Double side = Optional.ofNullable(verticalCollect.remove("下载次数")).map(RectangularShape::getX).orElse(0D);
         double width = Objects.equals(0D, side) ? Math.max(page.getCropBox().getWidth(), page.getCropBox().getHeight()) : side;
 
 
-        Map<String, Float> textHeight = Stream.of(verticalText.entrySet(), horizonText.entrySet()).flatMap(Set::stream).filter(e -> CollectionUtils.isNotEmpty(e.getValue()))
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get(0).getYScale()));
+        Map<String, Float> textHeight = Stream.of(verticalText.entrySet(), horizonText.entrySet()).flatMap(Set::stream).filter(e -> ArrayUtils.isNotEmpty(e.getValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> glyphStore.height(e.getValue()[0])));
 
-        Map<String, Rectangle2D> horizonCollect = horizonText.entrySet().stream().filter(e -> CollectionUtils.isNotEmpty(e.getValue())).collect(Collectors.toMap(Map.Entry::getKey, e -> getRectangle2D(e.getValue())));
+        Map<String, Rectangle2D> horizonCollect = horizonText.entrySet().stream().filter(e -> ArrayUtils.isNotEmpty(e.getValue()))
+                .filter(e -> layoutTemplates.isRegion(template, e.getKey())).collect(Collectors.toMap(Map.Entry::getKey, e -> getRectangle2D(e.getValue())));
         Rectangle2D fphm = Objects.requireNonNull(horizonCollect.remove("发票号码"), "发票号码区块不存在");
 
 
@@ -220,18 +619,11 @@ public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
         map.put("tl", new Rectangle2D.Double(0, 0, fixedMid, gmfxx.getMinY() - 8.5));
         map.put("tr", new Rectangle2D.Double(fixedMid, 0, width - fixedMid, gmfxx.getMinY() - 8.5));
 
-        final double y = gmfxx.getY();
-        this.colorPredicate = (t, c) -> {
-            boolean b = t.getY() < y;
-            if (!b) {
-                return false;
-            }
-            float[] components = c.getComponents();
-            if (components.length == 0) {
-                return false;
-            }
-            return components[0] == 1.0F;
-        };
+        // 区块关键字首字, 缓存命中时校验
+        List<PageLayout.Probe> probes = verticalText.entrySet().stream().filter(e -> ArrayUtils.isNotEmpty(e.getValue()))
+                .filter(e -> layoutTemplates.isRegion(template, e.getKey()))
+                .map(e -> new PageLayout.Probe(glyphStore.codePoint(e.getValue()[0]), glyphStore.x(e.getValue()[0]), glyphStore.y(e.getValue()[0])))
+                .collect(Collectors.toList());
 
         double minY = map.get("合计").getMinY() + 1;
         double maxY = gmfxx.getMaxY() - textHeight.get("购买方信息") * 0.9 + 1;
@@ -239,334 +631,410 @@ public class CustomInvoiceTextStripper extends PDFTextStripperByArea {
 
         Rectangle2D.Double detailRec = new Rectangle2D.Double(0, maxY, page.getCropBox().getWidth(), minY - maxY);
 
-        List<List<TextPosition>> detailLines = detailLines(page, detailRec);
-
-        int titleIndex = IntStream.range(0, detailLines.size()).filter(i -> {
-            String s = detailLines.get(i).stream().map(TextPosition::getUnicode).collect(Collectors.joining());
-            long c = PATTERNS.stream().map(Pattern::asPredicate).filter(e -> e.test(s)).count();
-            return c >= 4;
-        }).findFirst().orElseThrow(() -> new IllegalArgumentException("发票明细解析异常"));
-
-        List<List<TextPosition>> fixedDetails = detailLines.subList(titleIndex, detailLines.size());
-
-        map.forEach(this::addRegion);
-
-        this.extractRegions(page);
-        Map<String, String> result = map.entrySet().stream()
-                .filter(entry -> getRegions().contains(entry.getKey()))
-                .collect(Collectors.toMap(Map.Entry::getKey,
-                        e -> Optional.ofNullable(this.getTextForRegion(e.getKey())).map(t -> REPLACEMENTS.entrySet().stream().reduce(t, (s, en) -> s.replaceAll(en.getKey(), en.getValue()), (a, b) -> a)).orElse("")));
-        String reduce = result.entrySet().stream()
-                .map(e -> ">>>[" + e.getKey() + "]<<<\n" + e.getValue())
-                .reduce("", (a, b) -> a + b);
-
+        return new PageLayout(template, map, detailRec, gmfxx.getY(), probes, Float.NaN, null);
+    }
 
-        String r = fixedDetails.stream()
-                .map(l -> l.stream().map(TextPosition::getUnicode).collect(Collectors.joining()))
-                .collect(Collectors.joining("\n"));
-        log.info("================={}=================\n==基础信息== \n{}\n==明细== \n{}", tag, reduce, r);
-        parseInvoice(result, fixedDetails);
+    public String cleanTitle(String str) {
+        return LayoutTemplates.cleanTitle(str);
+    }
 
+    /**
+     * 解析首页内容流, 记录文字位置及颜色
+     *
+     * @param page 首页
+     * @throws IOException
+     */
+    private void extractPage(PDPage page) throws IOException {
+        setStartPage(getCurrentPageNo());
+        setEndPage(getCurrentPageNo());
+        if (page.hasContents()) {
+            processPage(page);
+        }
+        // 文字已记录于 glyphStore, 不再持有 TextPosition
+        charactersByArticle = new ArrayList<>();
     }
 
-    public String cleanTitle(String str) {
-        String trim = Optional.ofNullable(str).map(String::trim).map(e -> e.replaceAll("\\x20", "")).orElse("");
-        int tidx = Optional.of(trim.lastIndexOf("）")).filter(e -> e != -1).map(e -> e + 1).orElseGet(() -> trim.lastIndexOf("发票") + 2);
-        String pre = trim.substring(0, tidx);
-        String next = trim.substring(tidx);
-        return pre.replaceAll("\\s", "") + next;
-    }
-
-    public List<List<TextPosition>> detailLines(PDPage page, Rectangle2D rectangle2D) throws IOException {
-        List<List<TextPosition>> lines = new ArrayList<>();
-        PDFTextStripperByArea dStripper = new PDFTextStripperByArea() {
-            boolean newLine = true;
-
-            @Override
-            protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
-                if (newLine) {
-                    lines.add(new ArrayList<>());
-                    newLine = false;
+    /**
+     * 文字按区块划分, 每个文字只归属于第一个包含它的区块 (与按区块提取时重叠文字去重的结果一致)
+     *
+     * @param regions 区块
+     * @return 区块文字下标
+     */
+    private Map<String, int[]> regionGlyphs(Map<String, Rectangle2D> regions) {
+        Map<String, int[]> text = new HashMap<>();
+        boolean[] taken = new boolean[glyphIndex.size()];
+        regions.forEach((k, v) -> {
+            int[] indexes = glyphIndex.query(v);
+            int n = 0;
+            for (int i : indexes) {
+                if (!taken[i]) {
+                    taken[i] = true;
+                    indexes[n++] = i;
                 }
-                lines.get(lines.size() - 1).addAll(textPositions);
             }
+            text.put(k, Arrays.copyOf(indexes, n));
+        });
+        return text;
+    }
 
+    /**
+     * 按阅读顺序输出文字
+     *
+     * @param positions 文字下标
+     * @return 文本
+     * @throws IOException
+     */
+    private String writeText(int[] positions) throws IOException {
+        StringWriter writer = new StringWriter();
+        charactersByArticle = new ArrayList<>(Collections.singletonList(glyphStore.glyphs(positions)));
+        output = writer;
+        super.writePage();
+        return writer.toString();
+    }
 
-            @Override
-            protected void writeLineSeparator() throws IOException {
-                newLine = true;
-            }
-
-        };
-        dStripper.setSortByPosition(true);
-        dStripper.addRegion("detail", rectangle2D);
-        dStripper.extractRegions(page);
-        return lines;
+    public GlyphLines detailLines(Rectangle2D rectangle2D) throws IOException {
+        GlyphLines detailLines = new GlyphLines();
+        lines = detailLines;
+        newLine = true;
+        try {
+            writeText(glyphIndex.query(rectangle2D));
+            return detailLines;
+        } finally {
+            lines = null;
+        }
     }
 
 
     public String replace(String str) {
-        return REPLACEMENTS.entrySet().stream().reduce(str, (t, e) -> t.replaceAll(e.getKey(), e.getValue()), (t, e) -> t + e);
+        return normalize(str);
     }
 
-    private void parseInvoice(Map<String, String> result, List<List<TextPosition>> detailLines) {
-        Invoice invoice = new Invoice();
-
-        Optional.ofNullable(result.get("tl")).map(this::cleanTitle).ifPresent(e -> {
-            boolean ptfp = e.contains("普通发票");
-            invoice.setType(ptfp ? "普通发票" : "专用发票");
-            String title = get(Pattern.compile("[^\n\r]+"), e, 0);
-            invoice.setTitle(title);
-            String jqbh = get(Pattern.compile("机器编号\\S\\x20?([^\n\r]+)"), e, 1);
-            invoice.setMachineNumber(jqbh);
+    /**
+     * 异形字替换
+     *
+     * @param str 文本
+     * @return 文本
+     */
+    static String normalize(String str) {
+        for (Map.Entry<String, String> e : REPLACEMENTS.entrySet()) {
+            str = str.replace(e.getKey(), e.getValue());
+        }
+        return str;
+    }
 
-        });
-        Optional.ofNullable(result.get("密码区")).map(e -> e.replaceAll("\\s", "")).ifPresent(invoice::setPassword);
-        Optional.ofNullable(result.get("备注")).map(String::trim).ifPresent(invoice::setRemark);
+    /**
+     * 明细列边界, 相邻表头之间为列边界
+     *
+     * @param detailLines 明细行
+     * @param titleIndex  表头行
+     * @return 列边界, 按横坐标排序
+     */
+    List<PageLayout.ColumnBound> columnBounds(GlyphLines detailLines, int titleIndex) {
+        int[] glyphs = detailLines.glyphs();
+        int titleStart = detailLines.start(titleIndex);
 
-        Optional.ofNullable(result.get("价税合计")).ifPresent(e -> {
-            String jshj = Objects.requireNonNull(get(Pattern.compile("价税合计[^0-9-]+(-?\\d+(\\.\\d+)?)"), e, 1), "总价未知: " + e);
-            invoice.setTotalAmountString(jshj);
-            invoice.setTotalAmount(new BigDecimal(jshj));
-        });
-        Optional.ofNullable(result.get("合计")).ifPresent(e -> {
-            List<String> hj = findAll(Pattern.compile("-?\\d+(\\.\\d+)?"), e, 0);
-            if (hj.size() < 2) hj.add("0");
-            invoice.setAmount(new BigDecimal(hj.get(0)));
-            invoice.setTaxAmount(new BigDecimal(hj.get(1)));
-        });
-        Optional.ofNullable(result.get("tr")).ifPresent(e -> {
-            List<String> list = Arrays.asList("发\\x20?票\\x20?代\\x20?码", "发\\x20?票\\x20?号\\x20?码", "开\\x20?票\\x20?日\\x20?期", "校\\x20?验\\x20?码");
-            Map<Integer, String> collect = IntStream.range(0, list.size())
-                    .boxed()
-                    .collect(HashMap::new, (m, i) -> m.put(i, get(Pattern.compile(list.get(i) + "\\x20?\\S\\x20?([^\n\r]+)"), e, 1)), HashMap::putAll);
-            invoice.setCode(collect.get(0));
-            invoice.setNumber(collect.get(1));
-            Optional.ofNullable(collect.get(2))
-                    .map(t -> t.replaceAll("\\s", ""))
-                    .filter(StringUtils::isNotBlank)
-                    .ifPresent(invoice::setDate);
-            invoice.setChecksum(collect.get(3));
+        String titles = detailLines.text(glyphStore, titleIndex);
 
-        });
-        List<String> subject = Arrays.asList("名.*称", "纳\\x20?税\\x20?人\\x20?识\\x20?别\\x20?号", "地[址、电\\s]+话", "开\\x20?户\\x20?行\\x20?及\\x20?账\\x20?号");
-
-        Optional.ofNullable(result.get("购买方信息")).map(this::replace).ifPresent(e -> {
-            Map<Integer, String> collect = IntStream.range(0, subject.size())
-                    .boxed()
-                    .collect(HashMap::new, (m, i) -> m.put(i, get(Pattern.compile(subject.get(i) + "\\x20*\\S\\x20?([^\n\r]+)"), e, 1)), HashMap::putAll);
-            invoice.setBuyerName(collect.get(0));
-            Optional.ofNullable(collect.get(1)).map(t -> t.replaceAll("\\x20", "")).ifPresent(invoice::setBuyerCode);
-//            invoice.setBuyerCode(collect.get(1));
-            invoice.setBuyerAddress(collect.get(2));
-            invoice.setBuyerAccount(collect.get(3));
-        });
 
-        Optional.ofNullable(result.get("销售方信息")).ifPresent(e -> {
-            Map<Integer, String> collect = IntStream.range(0, subject.size())
-                    .boxed()
-                    .collect(HashMap::new, (m, i) -> m.put(i, get(Pattern.compile(subject.get(i) + "\\x20*\\S\\x20?([^\n\r]+)"), e, 1)), HashMap::putAll);
-            invoice.setSellerName(collect.get(0));
-            Optional.ofNullable(collect.get(1)).map(t -> t.replaceAll("\\x20", "")).ifPresent(invoice::setSellerCode);
-//            invoice.setSellerCode(collect.get(1));
-            invoice.setSellerAddress(collect.get(2));
-            invoice.setSellerAccount(collect.get(3));
-        });
+        List<LayoutTemplate.Column> columns = template.getColumns();
+        List<Pair<Integer, MatchResult>> pairs = IntStream.range(0, columns.size()).boxed().map(i -> Pair.of(i, indexOf(columns.get(i).title(), titles)))
+                .filter(e -> Objects.nonNull(e.getRight()))
+                .collect(Collectors.toList());
 
-        Optional.ofNullable(result.get("开票人")).map(this::replace).ifPresent(e -> {
-            List<String> list = Arrays.asList("收\\s*款\\s*人", "复\\s*核", "开\\s*票\\s*人");
-            Map<Integer, String> collect = IntStream.range(0, list.size())
-                    .boxed()
-                    .collect(HashMap::new, (m, i) -> m.put(i, get(Pattern.compile(list.get(i) + "\\x20?\\S\\x20?(\\S+)"), e, 1)), HashMap::putAll);
-            invoice.setPayee(collect.get(0));
-            invoice.setReviewer(collect.get(1));
-            invoice.setDrawer(collect.get(2));
+        List<Pair<Integer, Rectangle2D>> pairRec = pairs.stream().map(e -> Pair.of(e.getLeft(), getRectangle2D(glyphs, titleStart + e.getRight().start(), titleStart + e.getRight().end()))).sorted(Comparator.comparingDouble(e -> e.getRight().getX())).collect(Collectors.toList());
 
-        });
 
-        List<TextPosition> titleLine = detailLines.isEmpty() ? Collections.emptyList() : detailLines.get(0);
+        List<PageLayout.ColumnBound> titleArea = new ArrayList<>(pairRec.size());
+        for (int i = 0; i < pairRec.size(); i++) {
+            double left = i == 0 ? 0D : pairRec.get(i - 1).getRight().getMaxX();
+            double right = i == pairRec.size() - 1 ? Double.MAX_VALUE : pairRec.get(i + 1).getRight().getMinX();
+            titleArea.add(new PageLayout.ColumnBound(pairRec.get(i).getLeft(), left, right));
+        }
+        return titleArea;
+    }
 
-        String titles = titleLine.stream().map(TextPosition::getUnicode).collect(Collectors.joining());
+    /**
+     * 按模板字段规则从区块文本提取字段
+     *
+     * @param result 区块文本
+     * @return 发票, 明细待填充
+     */
+    Invoice fields(Map<String, String> result) {
+        Invoice invoice = new Invoice();
 
+        for (FieldRule rule : template.getFields()) {
+            rule.apply(result, invoice);
+        }
+        return invoice;
+    }
 
-        List<Pair<Integer, List<TextPosition>>> pairs = IntStream.range(0, PATTERNS.size()).boxed().map(i -> Pair.of(i, indexOf(PATTERNS.get(i), titles)))
-                .filter(e -> Objects.nonNull(e.getRight()))
-                .map(e -> Pair.of(e.getLeft(), titleLine.subList(e.getRight().start(), e.getRight().end())))
-                .collect(Collectors.toList());
+    /**
+     * 表头下方的明细行按列边界取值
+     * <p>
+     * 明细行按文字间距切分为文字段, 列边界自左向右依次取重叠且端点距列中点最近的未分配文字段;
+     * 文字段与列边界均按横坐标有序, 候选文字段为连续区间, 起点随列右移, 每行耗时与文字数成线性
+     *
+     * @param detailLines 明细行
+     * @param titleIndex  表头行
+     * @param invoice     发票, 设置明细首项名称
+     * @return 明细
+     */
+    List<Detail> parseDetails(GlyphLines detailLines, int titleIndex, Invoice invoice) {
+        List<Detail> details = new ArrayList<>();
+        int[] glyphs = detailLines.glyphs();
+        List<LayoutTemplate.Column> columns = template.getColumns();
+        String[] values = new String[columns.size()];
+        // 文字段为 glyphs 的 [from[k], to[k]) 区间, 横坐标范围 [start[k], end[k]]
+        int[] from = new int[16];
+        int[] to = new int[16];
+        double[] start = new double[16];
+        double[] end = new double[16];
+        boolean[] taken = new boolean[16];
+        boolean first = true;
+
+        for (int line = titleIndex + 1; line < detailLines.size(); line++) {
+            if (!template.getDetailRow().test(detailLines.text(glyphStore, line))) {
+                continue;
+            }
+            int count = 0;
+            int lineEnd = detailLines.end(line);
+            for (int k = detailLines.start(line), segment = k; k < lineEnd; k++) {
+                boolean last = k + 1 == lineEnd;
+                if (!last && glyphStore.x(glyphs[k + 1]) - glyphStore.x(glyphs[k]) <= glyphStore.width(glyphs[k]) + 0.01) {
+                    continue;
+                }
+                if (count == from.length) {
+                    from = Arrays.copyOf(from, count * 2);
+                    to = Arrays.copyOf(to, count * 2);
+                    start = Arrays.copyOf(start, count * 2);
+                    end = Arrays.copyOf(end, count * 2);
+                    taken = new boolean[count * 2];
+                }
+                from[count] = segment;
+                to[count] = k + 1;
+                start[count] = glyphStore.x(glyphs[segment]);
+                end[count] = glyphStore.endX(glyphs[k]);
+                count++;
+                segment = k + 1;
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (first) {
+                // 详情第一个名称
+                invoice.setFirstRecName(glyphStore.text(glyphs, from[0], to[0]).replace('*', ' ').trim());
+                first = false;
+            }
 
-        List<Pair<Integer, Rectangle2D>> pairRec = pairs.stream().map(e -> Pair.of(e.getLeft(), getRectangle2D(e.getRight()))).sorted(Comparator.comparingDouble(e -> e.getRight().getX())).collect(Collectors.toList());
-
-
-        List<Pair<Integer, Pair<Double, Double>>> titleArea = IntStream.range(0, pairRec.size()).boxed().reduce(new ArrayList<Pair<Integer, Pair<Double, Double>>>(), (l, i) -> {
-            Pair<Integer, Rectangle2D> pair = pairRec.get(i);
-            Double left = i == 0 ? 0D : pairRec.get(i - 1).getRight().getMaxX();
-            Double right = i == pairRec.size() - 1 ? Double.MAX_VALUE : pairRec.get(i + 1).getRight().getMinX();
-            l.add(Pair.of(pair.getLeft(), Pair.of(left, right)));
-            return l;
-        }, (a, b) -> a);
-
-        List<List<List<TextPosition>>> detailRec = detailLines.stream().skip(1)
-                .filter(e -> e.stream().anyMatch(t -> Objects.equals(t.getUnicode(), "*")))
-                .map(list -> list.stream().reduce(new ArrayList<List<TextPosition>>(), (l, e) -> {
-                    boolean empty = l.isEmpty();
-                    List<TextPosition> curList = l.isEmpty() ? new ArrayList<>(Collections.singletonList(e)) : l.get(l.size() - 1);
-                    if (empty) {
-                        l.add(curList);
-                        return l;
+            // 文字段无序 (文字重叠、回退) 时逐列全量查找
+            boolean sorted = true;
+            for (int k = 1; k < count && sorted; k++) {
+                sorted = start[k] >= start[k - 1] && end[k] >= end[k - 1];
+            }
+            Arrays.fill(taken, 0, count, false);
+            Arrays.fill(values, null);
+            int lo = 0;
+            double lastLeft = Double.NEGATIVE_INFINITY;
+            for (PageLayout.ColumnBound bound : columnBounds) {
+                if (!sorted || bound.left() < lastLeft) {
+                    lo = 0;
+                }
+                lastLeft = bound.left();
+                // 右端在列左边界之前的文字段不再与之后的列重叠
+                while (sorted && lo < count && end[lo] < bound.left()) {
+                    lo++;
+                }
+                double mid = bound.left() + (bound.right() - bound.left()) / 2;
+                int best = -1;
+                double bestDistance = 0;
+                for (int k = lo; k < count; k++) {
+                    if (start[k] > bound.right()) {
+                        if (sorted) {
+                            break;
+                        }
+                        continue;
                     }
-                    TextPosition textPosition = curList.get(curList.size() - 1);
-                    boolean siblings = e.getX() - textPosition.getX() <= textPosition.getWidthDirAdj() + 0.01;
-                    if (siblings) {
-                        curList.add(e);
-                    } else {
-                        l.add(new ArrayList<>(Collections.singletonList(e)));
+                    if (taken[k] || end[k] < bound.left()) {
+                        continue;
                     }
-                    return l;
-                }, (a, b) -> a)).collect(Collectors.toList());
-
-
-        Function<List<TextPosition>, Pair<Double, Double>> position = (l) -> Pair.of((double) l.get(0).getX(), (double) l.get(l.size() - 1).getEndX());
-
-        Function<List<TextPosition>, String> text = (ls) -> Optional.ofNullable(ls).map(l -> l.stream().map(TextPosition::getUnicode).collect(Collectors.joining())).orElse(null);
-        // 详情第一个名称
-        detailRec.stream().findFirst().flatMap(e -> e.stream().findFirst()).map(text).map(e -> e.replaceAll("\\*", " ").trim()).ifPresent(invoice::setFirstRecName);
-
-        List<Map<Integer, String>> collect = detailRec.stream().map(l -> {
-            return titleArea.stream().map(e -> {
-                Pair<Double, Double> right = e.getRight();
-                Double mid = right.getLeft() + (right.getRight() - right.getLeft()) / 2;
-                List<TextPosition> list = l.stream().map(t -> {
-
-                            Pair<Double, Double> applied = position.apply(t);
-                            boolean overlap = isOverlap(right.getLeft(), right.getRight(), applied.getLeft(), applied.getRight());
-                            if (!overlap) return null;
-                            Double min = Math.min(Math.abs(applied.getLeft() - mid), Math.abs(applied.getRight() - mid));
-                            return Pair.of(min, t);
-                        }).filter(Objects::nonNull)
-                        .min(Comparator.comparingDouble(Pair::getLeft))
-                        .map(Pair::getRight).orElse(null);
-                // 消除影响
-                l.remove(list);
-                return Pair.of(e.getLeft(), list);
-            }).<Map<Integer, String>>collect(HashMap::new, (m, e) -> m.put(e.getLeft(), text.apply(e.getRight())), Map::putAll);
-        }).collect(Collectors.toList());
-
-        List<Detail> detailList = collect.stream().map(e -> {
-            Detail detail = new Detail();
-            detail.setName(e.get(0));
-            detail.setModel(e.get(1));
-            detail.setUnit(e.get(2));
-            detail.setCount(e.get(3));
-            detail.setPrice(e.get(4));
-            detail.setAmount(e.get(5));
-            detail.setTaxRate(e.get(6));
-            detail.setTaxAmount(e.get(7));
-            return detail;
-        }).collect(Collectors.toList());
-
-        invoice.setDetailList(detailList);
-
+                    double distance = Math.min(Math.abs(start[k] - mid), Math.abs(end[k] - mid));
+                    if (best < 0 || distance < bestDistance) {
+                        best = k;
+                        bestDistance = distance;
+                    }
+                }
+                if (best >= 0) {
+                    taken[best] = true;
+                    values[bound.column()] = glyphStore.text(glyphs, from[best], to[best]);
+                }
+            }
 
-        this.invoice = invoice;
+            Detail detail = new Detail();
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i).setter().accept(detail, values[i]);
+            }
+            details.add(detail);
+        }
+        return details;
     }
 
 
     /**
      * 计算文字二维空间
      *
-     * @param positions
+     * @param positions 文字下标
      * @return
      */
-    public Rectangle2D getRectangle2D(List<TextPosition> positions) {
-        if (positions == null || positions.isEmpty()) {
+    public Rectangle2D getRectangle2D(int[] positions) {
+        if (positions == null || positions.length == 0) {
             return null;
         }
-        TextPosition first = positions.get(0);
-        TextPosition last = positions.get(positions.size() - 1);
+        return getRectangle2D(positions, 0, positions.length);
+    }
+
+    /**
+     * 计算文字二维空间
+     *
+     * @param positions 文字下标
+     * @param from      起始 (含)
+     * @param to        结束 (不含)
+     * @return
+     */
+    public Rectangle2D getRectangle2D(int[] positions, int from, int to) {
+        int first = positions[from];
+        int last = positions[to - 1];
 
 
-        return new Rectangle2D.Double(first.getX(), first.getY(), last.getX() - first.getX() + last.getWidthDirAdj(), last.getY() - first.getY() + last.getYScale());
+        return new Rectangle2D.Double(glyphStore.x(first), glyphStore.y(first), glyphStore.x(last) - glyphStore.x(first) + glyphStore.width(last), glyphStore.y(last) - glyphStore.y(first) + glyphStore.height(last));
     }
 
 
     @Override
     protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
-        String collect = textPositions.stream().filter(e -> !this.textPositions.contains(e)).map(TextPosition::getUnicode).collect(Collectors.joining(""));
-        if (Objects.equals("", collect)) {
+        if (Objects.nonNull(lines)) {
+            if (newLine) {
+                lines.newLine();
+                newLine = false;
+            }
+            for (TextPosition t : textPositions) {
+                lines.add(glyphStore.indexOf(t));
+            }
+            return;
+        }
+        StringBuilder collect = new StringBuilder();
+        for (TextPosition t : textPositions) {
+            if (!glyphStore.isExcluded(glyphStore.indexOf(t))) {
+                collect.append(t.getUnicode());
+            }
+        }
+        if (collect.length() == 0) {
             return;
         }
 
-        super.writeString(collect, textPositions);
+        super.writeString(collect.toString(), textPositions);
     }
 
 
     @Override
-    protected void endPage(PDPage page) throws IOException {
-        // 清理红颜色文字集合
-        textPositions.clear();
-        super.endPage(page);
+    protected void writeLineSeparator() throws IOException {
+        if (Objects.nonNull(lines)) {
+            newLine = true;
+            return;
+        }
+        super.writeLineSeparator();
+    }
 
 
+    @Override
+    protected void writePage() throws IOException {
+        // 内容流解析完毕, 文字已记录于 glyphStore, 区块文字按需输出
     }
 
 
+    /**
+     * 操作符分发前计入预算, 超时或取消时结束解析 (含表单内的操作符)
+     */
+    @Override
+    protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+        if (++unchecked == ParseBudget.CHECK_INTERVAL) {
+            unchecked = 0;
+            budget.charge(ParseBudget.CHECK_INTERVAL);
+        }
+        super.processOperator(operator, operands);
+    }
+
     @Override
     protected void processTextPosition(TextPosition text) {
+        // 单个操作符输出的大量文字
+        if (++unchecked == ParseBudget.CHECK_INTERVAL) {
+            unchecked = 0;
+            budget.charge(ParseBudget.CHECK_INTERVAL);
+        }
 
-        String unicode = REPLACEMENTS.getOrDefault(text.getUnicode(), text.getUnicode());
+        List<TextPosition> textList = charactersByArticle.get(0);
+        int size = textList.size();
 
-//        System.out.printf("%s %s%n", unicode, text.getX() + "," + text.getY());
+        super.processTextPosition(text);
 
-        if (detachColorText && Objects.nonNull(colorPredicate)) {
-            PDColor color = getGraphicsState().getNonStrokingColor();
-            if (colorPredicate.test(text, color)) {
-                textPositions.add(text);
+        if (textList.isEmpty()) {
+            return;
+        }
+        TextPosition last = textList.get(textList.size() - 1);
+        // 重叠文字或已合并的附加符号不记录, 附加符号合并到上一文字时重新记录上一文字
+        if (last != text) {
+            if (last.getIndividualWidths().length > 1 && glyphStore.size() > 0) {
+                glyphStore.replaceLast(last, glyphStore.colour(glyphStore.size() - 1));
             }
+            return;
         }
-
-        super.processTextPosition(text);
+        PDColor color = getGraphicsState().getNonStrokingColor();
+        if (color != lastColor) {
+            lastColor = color;
+            lastColour = GlyphStore.pack(color);
+        }
+        int index = textList.size() > size ? glyphStore.add(text, lastColour) : glyphStore.replaceLast(text, lastColour);
 
         if (parsedPosition) {
             return;
         }
 
+        String unicode = REPLACEMENTS.getOrDefault(text.getUnicode(), text.getUnicode());
+
+//        System.out.printf("%s %s%n", unicode, text.getX() + "," + text.getY());
+
         if (StringUtils.isBlank(unicode)) {
             return;
         }
 
+        int cp = unicode.codePointAt(0);
+        if (unicode.length() != Character.charCount(cp)) {
+            // 多字符文字不参与关键字匹配
+            anchorState = 0;
+            return;
+        }
 
-        orVerticalText.forEach((k, v) -> {
-            if (!k.contains(unicode)) {
-                return;
-            }
-            v.add(text);
-        });
-
-        List<Map.Entry<String, List<TextPosition>>> list = new ArrayList<>(horizonText.entrySet());
-        IntStream.range(0, list.size()).forEach(i -> {
-            Map.Entry<String, List<TextPosition>> entry = list.get(i);
-            String k = entry.getKey();
-            List<TextPosition> v = entry.getValue();
-            if (v.size() >= k.length()) return;
-
-            if (!Objects.equals(k.charAt(v.size()) + "", unicode)) {
-                if (!Objects.equals(v.size(), k.length())) {
-                    v.clear();
-                }
-                return;
-            }
-            boolean b = list.subList(0, i).stream().filter(e -> e.getKey().contains(k)).flatMap(e -> e.getValue().stream()).anyMatch(e -> Objects.equals(e, text));
-            if (b) {
-                return;
+        int mask = anchorMatcher.verticalMask(cp);
+        while (mask != 0) {
+            int k = Integer.numberOfTrailingZeros(mask);
+            if (verticalCounts[k] == verticalCandidates[k].length) {
+                verticalCandidates[k] = Arrays.copyOf(verticalCandidates[k], verticalCounts[k] * 2);
             }
+            verticalCandidates[k][verticalCounts[k]++] = index;
+            mask &= mask - 1;
+        }
 
-            String c = Objects.toString(k.charAt(v.size()));
-            if (Objects.equals(c, unicode)) {
-                v.add(text);
+        recentIndex = (recentIndex + 1) % recentText.length;
+        recentText[recentIndex] = index;
+        anchorState = anchorMatcher.next(anchorState, cp);
+        int k = anchorMatcher.match(anchorState);
+        // 每个关键字只取首次出现
+        if (k >= 0 && horizonAnchors[k] == null) {
+            int[] v = new int[anchorMatcher.length(k)];
+            for (int i = 0; i < v.length; i++) {
+                v[i] = recentText[Math.floorMod(recentIndex - v.length + 1 + i, recentText.length)];
             }
-        });
-
-
+            horizonAnchors[k] = v;
+        }
     }
 
 
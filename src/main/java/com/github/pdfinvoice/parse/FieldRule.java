@@ -0,0 +1,48 @@
+package com.github.pdfinvoice.parse;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 字段提取规则, 从区块文本中提取字段写入发票
+ */
+@FunctionalInterface
+public interface FieldRule {
+
+    /**
+     * 提取字段
+     *
+     * @param regions 区块文本
+     * @param invoice 发票
+     */
+    void apply(Map<String, String> regions, Invoice invoice);
+
+    /**
+     * 区块存在时处理区块文本
+     *
+     * @param region 区块
+     * @param pre    文本预处理
+     * @param action 处理
+     * @return 规则
+     */
+    static FieldRule region(String region, Function<String, String> pre, BiConsumer<Invoice, String> action) {
+        return (regions, invoice) -> Optional.ofNullable(regions.get(region)).map(pre).ifPresent(e -> action.accept(invoice, e));
+    }
+
+    /**
+     * 区块存在时以正则分组为字段值, 未匹配时为 null
+     *
+     * @param region  区块
+     * @param pre     文本预处理
+     * @param pattern 已编译的正则
+     * @param group   分组
+     * @param setter  字段
+     * @return 规则
+     */
+    static FieldRule pattern(String region, Function<String, String> pre, Pattern pattern, int group, BiConsumer<Invoice, String> setter) {
+        return region(region, pre, (invoice, e) -> setter.accept(invoice, CustomInvoiceTextStripper.get(pattern, e, group)));
+    }
+}
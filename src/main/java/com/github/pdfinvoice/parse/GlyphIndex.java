@@ -0,0 +1,248 @@
+package com.github.pdfinvoice.parse;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * 页面文字空间索引
+ * <p>
+ * 均匀网格, 文字按起点 (x, y) 分桶, 与 {@link Rectangle2D#contains(double, double)} 的区块归属判断一致;
+ * 查询结果为 {@link GlyphStore} 下标, 保持文字在内容流中的顺序
+ */
+public final class GlyphIndex {
+
+    // 平均每个网格的文字数
+    private static final int GLYPHS_PER_CELL = 4;
+
+    private static final double MIN_CELL_SIZE = 8;
+
+    private final GlyphStore glyphs;
+
+    private final double minX;
+
+    private final double minY;
+
+    private final double cellSize;
+
+    private final int cols;
+
+    private final int rows;
+
+    // 网格 i 的文字为 cellGlyphs[cellStart[i], cellStart[i + 1])
+    private final int[] cellStart;
+
+    private final int[] cellGlyphs;
+
+    public GlyphIndex(GlyphStore glyphs) {
+        this(glyphs, null);
+    }
+
+    /**
+     * @param glyphs 文字
+     * @param bounds 网格范围, 通常为页面裁剪框, 范围外及坐标非有限值的文字归入边缘网格; 为 null 时使用文字范围
+     */
+    public GlyphIndex(GlyphStore glyphs, Rectangle2D bounds) {
+        this.glyphs = glyphs;
+        int n = glyphs.size();
+        double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            float x = glyphs.x(i), y = glyphs.y(i);
+            if (Float.isFinite(x)) {
+                x0 = Math.min(x0, x);
+                x1 = Math.max(x1, x);
+            }
+            if (Float.isFinite(y)) {
+                y0 = Math.min(y0, y);
+                y1 = Math.max(y1, y);
+            }
+        }
+        if (Objects.nonNull(bounds)) {
+            x0 = Math.max(x0, bounds.getMinX());
+            y0 = Math.max(y0, bounds.getMinY());
+            x1 = Math.min(x1, bounds.getMaxX());
+            y1 = Math.min(y1, bounds.getMaxY());
+        }
+        if (x0 > x1) {
+            x0 = x1 = x0 == Double.MAX_VALUE ? 0 : x0;
+        }
+        if (y0 > y1) {
+            y0 = y1 = y0 == Double.MAX_VALUE ? 0 : y0;
+        }
+        this.minX = x0;
+        this.minY = y0;
+        double area = Math.max(1, (x1 - x0) * (y1 - y0));
+        // 每个方向的网格数不超过 4√n, 网格总数约为 n / 4
+        long maxSpan = 4L * (long) Math.ceil(Math.sqrt(n)) + 1;
+        this.cellSize = Math.max(Math.max(MIN_CELL_SIZE, Math.sqrt(area * GLYPHS_PER_CELL / Math.max(1, n))),
+                Math.max(x1 - x0, y1 - y0) / maxSpan);
+        this.cols = (int) Math.min(maxSpan, (long) ((x1 - x0) / cellSize)) + 1;
+        this.rows = (int) Math.min(maxSpan, (long) ((y1 - y0) / cellSize)) + 1;
+
+        // 计数排序, 同一网格内保持内容流顺序
+        int[] cellOf = new int[n];
+        this.cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = row(glyphs.y(i)) * cols + col(glyphs.x(i));
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int i = 0; i < cols * rows; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        this.cellGlyphs = new int[n];
+        int[] fill = Arrays.copyOf(cellStart, cols * rows);
+        for (int i = 0; i < n; i++) {
+            cellGlyphs[fill[cellOf[i]]++] = i;
+        }
+    }
+
+    private int col(double x) {
+        return cell((x - minX) / cellSize, cols);
+    }
+
+    private int row(double y) {
+        return cell((y - minY) / cellSize, rows);
+    }
+
+    /**
+     * 超出范围的归入边缘网格, NaN 归入首个网格
+     */
+    private static int cell(double offset, int count) {
+        return offset >= 0 ? (int) Math.min(count - 1, (long) offset) : 0;
+    }
+
+    public int size() {
+        return glyphs.size();
+    }
+
+    public GlyphStore getGlyphs() {
+        return glyphs;
+    }
+
+    /**
+     * 区块内文字下标, 按内容流顺序
+     *
+     * @param rect 区块
+     * @return 文字下标
+     */
+    public int[] query(Rectangle2D rect) {
+        int c0 = col(rect.getMinX()), c1 = col(rect.getMaxX());
+        int r0 = row(rect.getMinY()), r1 = row(rect.getMaxY());
+        int[] result = new int[16];
+        int count = 0;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellGlyphs[k];
+                    if (rect.contains(glyphs.x(i), glyphs.y(i))) {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, count * 2);
+                        }
+                        result[count++] = i;
+                    }
+                }
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 同一列 (起点横坐标相差小于 tolerance) 中位于 from 下方最近的文字
+     *
+     * @param from      起始文字
+     * @param tolerance 横坐标容差
+     * @param filter    文字过滤
+     * @return 文字下标, 不存在时为 -1
+     */
+    public int nearestBelow(int from, float tolerance, IntPredicate filter) {
+        float fx = glyphs.x(from), fy = glyphs.y(from);
+        int c0 = col(fx - tolerance), c1 = col(fx + tolerance);
+        int best = -1;
+        for (int r = row(fy); r < rows; r++) {
+            if (best >= 0 && minY + r * cellSize > glyphs.y(best)) {
+                break;
+            }
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellGlyphs[k];
+                    if (glyphs.y(i) > fy && Math.abs(glyphs.x(i) - fx) < tolerance
+                            && (best < 0 || glyphs.y(i) < glyphs.y(best)) && filter.test(i)) {
+                        best = i;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 同一行 (起点纵坐标相差小于 tolerance) 中位于 from 右侧最近的文字
+     *
+     * @param from      起始文字
+     * @param tolerance 纵坐标容差
+     * @param filter    文字过滤
+     * @return 文字下标, 不存在时为 -1
+     */
+    public int nearestRight(int from, float tolerance, IntPredicate filter) {
+        float fx = glyphs.x(from), fy = glyphs.y(from);
+        int r0 = row(fy - tolerance), r1 = row(fy + tolerance);
+        int best = -1;
+        for (int c = col(fx); c < cols; c++) {
+            if (best >= 0 && minX + c * cellSize > glyphs.x(best)) {
+                break;
+            }
+            for (int r = r0; r <= r1; r++) {
+                int cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellGlyphs[k];
+                    if (glyphs.x(i) > fx && Math.abs(glyphs.y(i) - fy) < tolerance
+                            && (best < 0 || glyphs.x(i) < glyphs.x(best)) && filter.test(i)) {
+                        best = i;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * from 下方与其列对齐的文字, 按纵坐标排序 (纵坐标相同时保持网格顺序)
+     *
+     * @param from      起始文字
+     * @param tolerance 横坐标容差
+     * @param filter    文字过滤
+     * @return 文字下标
+     */
+    public int[] column(int from, float tolerance, IntPredicate filter) {
+        float fx = glyphs.x(from), fy = glyphs.y(from);
+        int c0 = col(fx - tolerance), c1 = col(fx + tolerance);
+        int[] result = new int[8];
+        int count = 0;
+        for (int r = row(fy); r < rows; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellGlyphs[k];
+                    if (i != from && glyphs.y(i) >= fy && Math.abs(glyphs.x(i) - fx) < tolerance && filter.test(i)) {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, count * 2);
+                        }
+                        // 插入排序, 稳定
+                        int j = count++;
+                        while (j > 0 && glyphs.y(result[j - 1]) > glyphs.y(i)) {
+                            result[j] = result[j - 1];
+                            j--;
+                        }
+                        result[j] = i;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
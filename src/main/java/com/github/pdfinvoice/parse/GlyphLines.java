@@ -0,0 +1,64 @@
+package com.github.pdfinvoice.parse;
+
+import java.util.Arrays;
+
+/**
+ * 按阅读顺序排列的文字行, 第 i 行为 {@link #glyphs()} 的 [start(i), end(i)) 区间, 元素为 {@link GlyphStore} 下标
+ */
+public final class GlyphLines {
+
+    private int[] glyphs = new int[64];
+
+    private int length;
+
+    // 行起始位置, starts[count] 为结束位置
+    private int[] starts = new int[]{0, 0};
+
+    private int count;
+
+    void newLine() {
+        if (count + 2 > starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        count++;
+        starts[count] = length;
+    }
+
+    void add(int glyph) {
+        if (length == glyphs.length) {
+            glyphs = Arrays.copyOf(glyphs, length * 2);
+        }
+        glyphs[length++] = glyph;
+        starts[count] = length;
+    }
+
+    /**
+     * 行数
+     */
+    public int size() {
+        return count;
+    }
+
+    public int start(int line) {
+        return starts[line];
+    }
+
+    public int end(int line) {
+        return starts[line + 1];
+    }
+
+    public int[] glyphs() {
+        return glyphs;
+    }
+
+    /**
+     * 行文本
+     *
+     * @param store 文字存储
+     * @param line  行
+     * @return 文本
+     */
+    public String text(GlyphStore store, int line) {
+        return store.text(glyphs, start(line), end(line));
+    }
+}
@@ -0,0 +1,373 @@
+package com.github.pdfinvoice.parse;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColor;
+import org.apache.pdfbox.text.TextPosition;
+import org.apache.pdfbox.util.Matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 页面文字存储
+ * <p>
+ * 位置、码点、颜色及排版输出所需的字号、宽度、方向按列存放于基本类型数组, 文字以下标引用, 剔除标记使用位图;
+ * 不保留 {@link TextPosition}, {@link org.apache.pdfbox.text.PDFTextStripper#writePage()} 排版输出时按列重建
+ */
+public final class GlyphStore {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // 清空时超过该容量的数组重新分配, 避免个别大页面长期占用内存
+    private static final int RETAINED_CAPACITY = 16384;
+
+    private static final int[] NO_CODES = new int[0];
+
+    private int size;
+
+    private float[] x = new float[INITIAL_CAPACITY];
+
+    private float[] y = new float[INITIAL_CAPACITY];
+
+    private float[] endX = new float[INITIAL_CAPACITY];
+
+    private float[] width = new float[INITIAL_CAPACITY];
+
+    private float[] height = new float[INITIAL_CAPACITY];
+
+    // 单字符文字的码点, 多字符为 -1
+    private int[] codePoint = new int[INITIAL_CAPACITY];
+
+    // 填充颜色, 见 pack
+    private int[] colour = new int[INITIAL_CAPACITY];
+
+    // 重建 TextPosition 的构造参数: 文字矩阵 (a b c d e f)、终点纵坐标、最大高度、字符宽度、空格宽度、字号、字体
+    private float[] matrix = new float[INITIAL_CAPACITY * 6];
+
+    private float[] endY = new float[INITIAL_CAPACITY];
+
+    private float[] maxHeight = new float[INITIAL_CAPACITY];
+
+    private float[] charWidth = new float[INITIAL_CAPACITY];
+
+    private float[] spaceWidth = new float[INITIAL_CAPACITY];
+
+    private float[] fontSize = new float[INITIAL_CAPACITY];
+
+    private int[] fontSizePt = new int[INITIAL_CAPACITY];
+
+    private int[] font = new int[INITIAL_CAPACITY];
+
+    // 页面内使用的字体, 按 font 列的编号
+    private final List<PDFont> fonts = new ArrayList<>();
+
+    // 页面旋转及尺寸, 同一页面的文字相同
+    private int rotation;
+
+    private float pageWidth;
+
+    private float pageHeight;
+
+    // 多字符文字 (含空串), 下标 -> 文本
+    private final Map<Integer, String> texts = new HashMap<>();
+
+    // 已合并附加符号的文字 (字符宽度不止一个, 无法由构造参数重建), 极少出现, 保留原文字
+    private final Map<Integer, TextPosition> merged = new HashMap<>();
+
+    // 剔除 (红色) 文字
+    private final BitSet excluded = new BitSet();
+
+    // 最近一次 glyphs 重建的文字及其下标, 供排版输出回查
+    private TextPosition[] view = new TextPosition[0];
+
+    private int[] viewIndexes = new int[0];
+
+    // identityHashCode << 32 | view 位置, 有序, 用于由 TextPosition 查找下标
+    private long[] identity;
+
+    /**
+     * 颜色前三个分量各占 8 位, 分量恰为 1 时为 255; 无颜色分量时为 -1
+     *
+     * @param color 颜色
+     * @return 颜色值
+     */
+    public static int pack(PDColor color) {
+        float[] components = color.getComponents();
+        if (components.length == 0) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < 3; i++) {
+            int c = 0;
+            if (i < components.length) {
+                c = components[i] == 1.0F ? 255 : Math.min(254, Math.max(0, Math.round(components[i] * 255)));
+            }
+            value = value << 8 | c;
+        }
+        return value;
+    }
+
+    /**
+     * 颜色第一个分量是否为 1 (红色)
+     */
+    public static boolean isRed(int colour) {
+        return colour >= 0 && colour >>> 16 == 255;
+    }
+
+    /**
+     * 追加文字
+     *
+     * @param glyph  文字
+     * @param colour 颜色, 见 {@link #pack(PDColor)}
+     * @return 下标
+     */
+    public int add(TextPosition glyph, int colour) {
+        if (size == x.length) {
+            int capacity = size * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            endX = Arrays.copyOf(endX, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            codePoint = Arrays.copyOf(codePoint, capacity);
+            this.colour = Arrays.copyOf(this.colour, capacity);
+            matrix = Arrays.copyOf(matrix, capacity * 6);
+            endY = Arrays.copyOf(endY, capacity);
+            maxHeight = Arrays.copyOf(maxHeight, capacity);
+            charWidth = Arrays.copyOf(charWidth, capacity);
+            spaceWidth = Arrays.copyOf(spaceWidth, capacity);
+            fontSize = Arrays.copyOf(fontSize, capacity);
+            fontSizePt = Arrays.copyOf(fontSizePt, capacity);
+            font = Arrays.copyOf(font, capacity);
+        }
+        set(size, glyph, colour);
+        return size++;
+    }
+
+    /**
+     * 替换最后一个文字, 或重新记录已合并附加符号的最后一个文字
+     */
+    public int replaceLast(TextPosition glyph, int colour) {
+        set(size - 1, glyph, colour);
+        return size - 1;
+    }
+
+    private void set(int i, TextPosition glyph, int colour) {
+        x[i] = glyph.getX();
+        y[i] = glyph.getY();
+        endX[i] = glyph.getEndX();
+        width[i] = glyph.getWidthDirAdj();
+        height[i] = glyph.getYScale();
+        String unicode = glyph.getUnicode();
+        int cp = unicode.isEmpty() ? -1 : unicode.codePointAt(0);
+        codePoint[i] = cp >= 0 && unicode.length() == Character.charCount(cp) ? cp : -1;
+        if (codePoint[i] < 0) {
+            texts.put(i, unicode);
+        } else if (!texts.isEmpty()) {
+            texts.remove(i);
+        }
+        this.colour[i] = colour;
+
+        Matrix m = glyph.getTextMatrix();
+        int k = i * 6;
+        matrix[k] = m.getScaleX();
+        matrix[k + 1] = m.getShearY();
+        matrix[k + 2] = m.getShearX();
+        matrix[k + 3] = m.getScaleY();
+        matrix[k + 4] = m.getTranslateX();
+        matrix[k + 5] = m.getTranslateY();
+        endY[i] = glyph.getEndY();
+        maxHeight[i] = glyph.getHeight();
+        float[] widths = glyph.getIndividualWidths();
+        charWidth[i] = widths.length == 0 ? 0 : widths[0];
+        spaceWidth[i] = glyph.getWidthOfSpace();
+        fontSize[i] = glyph.getFontSize();
+        fontSizePt[i] = (int) glyph.getFontSizeInPt();
+        font[i] = fontId(glyph.getFont());
+        rotation = glyph.getRotation();
+        pageWidth = glyph.getPageWidth();
+        pageHeight = glyph.getPageHeight();
+        if (widths.length > 1) {
+            merged.put(i, glyph);
+        } else if (!merged.isEmpty()) {
+            merged.remove(i);
+        }
+    }
+
+    private int fontId(PDFont pdFont) {
+        for (int k = fonts.size() - 1; k >= 0; k--) {
+            if (fonts.get(k) == pdFont) {
+                return k;
+            }
+        }
+        fonts.add(pdFont);
+        return fonts.size() - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float x(int i) {
+        return x[i];
+    }
+
+    public float y(int i) {
+        return y[i];
+    }
+
+    public float endX(int i) {
+        return endX[i];
+    }
+
+    public float width(int i) {
+        return width[i];
+    }
+
+    public float height(int i) {
+        return height[i];
+    }
+
+    public int codePoint(int i) {
+        return codePoint[i];
+    }
+
+    public int colour(int i) {
+        return colour[i];
+    }
+
+    public String unicode(int i) {
+        return codePoint[i] >= 0 ? Character.toString(codePoint[i]) : texts.get(i);
+    }
+
+    /**
+     * 由列重建文字, 与原文字的坐标、宽度、方向、字号及字体一致
+     *
+     * @param i 下标
+     * @return 文字
+     */
+    public TextPosition glyph(int i) {
+        TextPosition glyph = merged.get(i);
+        if (glyph != null) {
+            return glyph;
+        }
+        int k = i * 6;
+        Matrix m = new Matrix(matrix[k], matrix[k + 1], matrix[k + 2], matrix[k + 3], matrix[k + 4], matrix[k + 5]);
+        return new TextPosition(rotation, pageWidth, pageHeight, m, endX[i], endY[i], maxHeight[i], charWidth[i], spaceWidth[i],
+                unicode(i), NO_CODES, fonts.get(font[i]), fontSize[i], fontSizePt[i]);
+    }
+
+    public boolean isExcluded(int i) {
+        return excluded.get(i);
+    }
+
+    public void exclude(int i) {
+        excluded.set(i);
+    }
+
+    /**
+     * 清除剔除标记
+     */
+    public void clearExcluded() {
+        excluded.clear();
+    }
+
+    /**
+     * 清空文字, 供下一页面复用; 释放对字体及文字的引用
+     */
+    public void clear() {
+        if (x.length > RETAINED_CAPACITY) {
+            x = new float[INITIAL_CAPACITY];
+            y = new float[INITIAL_CAPACITY];
+            endX = new float[INITIAL_CAPACITY];
+            width = new float[INITIAL_CAPACITY];
+            height = new float[INITIAL_CAPACITY];
+            codePoint = new int[INITIAL_CAPACITY];
+            colour = new int[INITIAL_CAPACITY];
+            matrix = new float[INITIAL_CAPACITY * 6];
+            endY = new float[INITIAL_CAPACITY];
+            maxHeight = new float[INITIAL_CAPACITY];
+            charWidth = new float[INITIAL_CAPACITY];
+            spaceWidth = new float[INITIAL_CAPACITY];
+            fontSize = new float[INITIAL_CAPACITY];
+            fontSizePt = new int[INITIAL_CAPACITY];
+            font = new int[INITIAL_CAPACITY];
+        }
+        size = 0;
+        fonts.clear();
+        texts.clear();
+        merged.clear();
+        excluded.clear();
+        view = new TextPosition[0];
+        viewIndexes = new int[0];
+        identity = null;
+    }
+
+    /**
+     * 最近一次 {@link #glyphs(int[])} 重建的文字的下标
+     *
+     * @param glyph 文字
+     * @return 下标, 不存在时为 -1
+     */
+    public int indexOf(TextPosition glyph) {
+        if (identity == null) {
+            long[] keys = new long[view.length];
+            for (int k = 0; k < view.length; k++) {
+                keys[k] = (long) System.identityHashCode(view[k]) << 32 | k;
+            }
+            Arrays.sort(keys);
+            identity = keys;
+        }
+        int hash = System.identityHashCode(glyph);
+        int k = Arrays.binarySearch(identity, (long) hash << 32);
+        for (k = k < 0 ? -k - 1 : k; k < identity.length && (int) (identity[k] >> 32) == hash; k++) {
+            int position = (int) identity[k];
+            if (view[position] == glyph) {
+                return viewIndexes[position];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 重建文字集合, 供排版输出; 输出期间可由 {@link #indexOf(TextPosition)} 查找下标
+     *
+     * @param indexes 下标
+     * @return 文字
+     */
+    public List<TextPosition> glyphs(int[] indexes) {
+        TextPosition[] glyphs = new TextPosition[indexes.length];
+        for (int k = 0; k < indexes.length; k++) {
+            glyphs[k] = glyph(indexes[k]);
+        }
+        view = glyphs;
+        viewIndexes = indexes.clone();
+        identity = null;
+        return new ArrayList<>(Arrays.asList(glyphs));
+    }
+
+    /**
+     * 拼接文字
+     *
+     * @param indexes 下标
+     * @param from    起始 (含)
+     * @param to      结束 (不含)
+     * @return 文本
+     */
+    public String text(int[] indexes, int from, int to) {
+        StringBuilder builder = new StringBuilder(to - from);
+        for (int k = from; k < to; k++) {
+            int i = indexes[k];
+            if (codePoint[i] >= 0) {
+                builder.appendCodePoint(codePoint[i]);
+            } else {
+                builder.append(texts.get(i));
+            }
+        }
+        return builder.toString();
+    }
+}
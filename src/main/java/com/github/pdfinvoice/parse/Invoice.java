@@ -1,11 +1,14 @@
 package com.github.pdfinvoice.parse;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 @Getter
 @Setter
@@ -63,7 +66,44 @@ public class Invoice {
     private String firstRecName;
     @Schema(description = "明细")
     private List<Detail> detailList;
+    @Schema(description = "文件名 (批量解析)")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String fileName;
+    @Schema(description = "解析失败原因 (批量解析)")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String error;
 
+    /**
+     * 批量解析中单个文档的失败记录
+     *
+     * @param fileName 文件名
+     * @param e        失败原因
+     * @return 只有文件名及失败原因的发票
+     */
+    public static Invoice error(String fileName, Throwable e) {
+        Invoice invoice = new Invoice();
+        invoice.setFileName(fileName);
+        invoice.setError(Objects.toString(e.getMessage(), e.getClass().getName()));
+        return invoice;
+    }
+
+    /**
+     * 追加续页 (销货清单、多页行程单) 明细
+     *
+     * @param continuation 续页解析结果
+     */
+    public void addDetails(Invoice continuation) {
+        List<Detail> details = Objects.requireNonNullElse(continuation.getDetailList(), List.of());
+        if (details.isEmpty()) {
+            return;
+        }
+        List<Detail> merged = new ArrayList<>(Objects.requireNonNullElse(detailList, List.of()));
+        merged.addAll(details);
+        detailList = merged;
+        if (Objects.isNull(firstRecName)) {
+            firstRecName = continuation.getFirstRecName();
+        }
+    }
 }
 
 @Getter
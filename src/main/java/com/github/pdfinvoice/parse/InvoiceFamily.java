@@ -0,0 +1,19 @@
+package com.github.pdfinvoice.parse;
+
+/**
+ * 发票版式
+ */
+public enum InvoiceFamily {
+
+    // 增值税普通发票 (含电子普通发票)
+    VAT_ORDINARY,
+
+    // 增值税专用发票
+    VAT_SPECIAL,
+
+    // 全面数字化电子发票 (数电票)
+    DIGITAL,
+
+    // 网约车行程单
+    RIDE_HAILING
+}
@@ -0,0 +1,174 @@
+package com.github.pdfinvoice.parse;
+
+import lombok.Getter;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * 发票解析器: 版式模板、定位关键字及版式缓存只构建一次, 构建后不可变, 可由多个线程共享, 不依赖 Spring
+ * <p>
+ * 每个线程复用一个解析上下文 (文字存储、关键字候选数组), 文档解析前重置, 解析后释放对文档的引用.
+ * 适用于固定大小的线程池, 虚拟线程下每个线程各自创建上下文. 解析在内容流处理中检查 {@link ParseBudget}, 超时或取消时以
+ * {@link ParseTimeoutException} 结束并释放上下文
+ */
+@Getter
+public final class InvoiceParser {
+
+    private final LayoutTemplates layoutTemplates;
+
+    // 版式缓存, 为 null 时不缓存
+    private final LayoutCache layoutCache;
+
+    private final ThreadLocal<CustomInvoiceTextStripper> contexts;
+
+    public InvoiceParser() {
+        this(LayoutTemplates.DEFAULT, null);
+    }
+
+    /**
+     * @param layoutTemplates 版式模板
+     * @param layoutCache     版式缓存, 为 null 时不缓存
+     */
+    public InvoiceParser(LayoutTemplates layoutTemplates, LayoutCache layoutCache) {
+        this.layoutTemplates = layoutTemplates;
+        this.layoutCache = layoutCache;
+        this.contexts = ThreadLocal.withInitial(() -> CustomInvoiceTextStripper.reusable(layoutTemplates, layoutCache));
+    }
+
+    /**
+     * 加载并解析 pdf 文档, 含续页明细
+     *
+     * @param read pdf 内容, 解析后关闭
+     * @return 发票
+     * @throws Exception 文档加载或解析失败
+     */
+    public Invoice parse(RandomAccessRead read) throws Exception {
+        try (PDDocument document = Loader.loadPDF(read)) {
+            return parse(document);
+        }
+    }
+
+    /**
+     * 解析文档, 含续页明细
+     *
+     * @param document 文档, 由调用方关闭
+     * @return 发票
+     * @throws Exception 解析失败
+     */
+    public Invoice parse(PDDocument document) throws Exception {
+        return parse(document, ParseBudget.unlimited());
+    }
+
+    /**
+     * 在预算内解析文档, 含续页明细
+     *
+     * @param document 文档, 由调用方关闭
+     * @param budget   解析时限及操作符上限
+     * @return 发票
+     * @throws ParseTimeoutException 超出预算或已取消
+     * @throws Exception             解析失败
+     */
+    public Invoice parse(PDDocument document, ParseBudget budget) throws Exception {
+        ParseTrace trace = new ParseTrace();
+        Result first = parseFirstPage(document, trace, budget);
+        for (int page = 1; page < document.getNumberOfPages(); page++) {
+            first.invoice().addDetails(parseContinuation(document, first.template(), page, trace, budget));
+        }
+        return first.invoice();
+    }
+
+    /**
+     * 解析首页
+     *
+     * @param document 文档
+     * @param trace    解析任务记录
+     * @return 发票及识别的版式
+     * @throws Exception 解析失败
+     */
+    public Result parseFirstPage(PDDocument document, ParseTrace trace) throws Exception {
+        return parseFirstPage(document, trace, ParseBudget.unlimited());
+    }
+
+    /**
+     * 在预算内解析首页
+     *
+     * @param document 文档
+     * @param trace    解析任务记录
+     * @param budget   文档解析预算, 与续页共享
+     * @return 发票及识别的版式
+     * @throws ParseTimeoutException 超出预算或已取消
+     * @throws Exception             解析失败
+     */
+    public Result parseFirstPage(PDDocument document, ParseTrace trace, ParseBudget budget) throws Exception {
+        return withContext(trace, budget, context -> {
+            context.parse(document);
+            return new Result(context.getInvoice(), context.getTemplate());
+        });
+    }
+
+    /**
+     * 续页明细解析, 以首页版式的明细表头识别续页
+     *
+     * @param document  文档
+     * @param template  首页版式
+     * @param pageIndex 页下标
+     * @param trace     解析任务记录
+     * @return 只有明细的发票
+     * @throws Exception 解析失败
+     */
+    public Invoice parseContinuation(PDDocument document, LayoutTemplate template, int pageIndex, ParseTrace trace) throws Exception {
+        return parseContinuation(document, template, pageIndex, trace, ParseBudget.unlimited());
+    }
+
+    /**
+     * 在预算内解析续页明细
+     *
+     * @param document  文档
+     * @param template  首页版式
+     * @param pageIndex 页下标
+     * @param trace     解析任务记录
+     * @param budget    文档解析预算, 与首页及其他续页共享
+     * @return 只有明细的发票
+     * @throws ParseTimeoutException 超出预算或已取消
+     * @throws Exception             解析失败
+     */
+    public Invoice parseContinuation(PDDocument document, LayoutTemplate template, int pageIndex, ParseTrace trace, ParseBudget budget) throws Exception {
+        return withContext(trace, budget, context -> {
+            context.parseContinuation(document.getPage(pageIndex), pageIndex, template);
+            return context.getInvoice();
+        });
+    }
+
+    private <T> T withContext(ParseTrace trace, ParseBudget budget, Task<T> task) throws Exception {
+        budget.start();
+        budget.check();
+        CustomInvoiceTextStripper context = contexts.get();
+        context.reset(trace, budget);
+        try {
+            T result = task.apply(context);
+            trace.detach(trace.sampled());
+            return result;
+        } catch (Exception e) {
+            // 失败时总是保留明细行, 供解析记录
+            trace.detach(true);
+            throw e;
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 首页解析结果
+     *
+     * @param invoice  发票
+     * @param template 识别的版式
+     */
+    public record Result(Invoice invoice, LayoutTemplate template) {
+    }
+
+    @FunctionalInterface
+    private interface Task<T> {
+        T apply(CustomInvoiceTextStripper context) throws Exception;
+    }
+}
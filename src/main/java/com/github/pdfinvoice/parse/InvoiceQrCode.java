@@ -0,0 +1,195 @@
+package com.github.pdfinvoice.parse;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.ReaderException;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 发票二维码
+ * <p>
+ * 内容为逗号分隔: 版本(01), 发票种类, 发票代码, 发票号码, 金额, 开票日期(yyyyMMdd), 校验码, 加密串;
+ * 数电发票无发票代码, 金额为价税合计, 其他发票为不含税金额
+ *
+ * @param kind     发票种类代码
+ * @param code     发票代码
+ * @param number   发票号码
+ * @param amount   金额
+ * @param date     开票日期, 格式与版面一致 (yyyy年MM月dd日)
+ * @param checksum 校验码
+ */
+public record InvoiceQrCode(String kind, String code, String number, BigDecimal amount, String date, String checksum) {
+
+    // 数电发票种类 (专票, 普票)
+    private static final Set<String> DIGITAL_KINDS = Set.of("31", "32");
+
+    // 专用发票种类 (纸质专票, 电子专票, 数电专票)
+    private static final Set<String> SPECIAL_KINDS = Set.of("01", "08", "31");
+
+    // 二维码图片边长上限, 超过的图片不是二维码
+    private static final int MAX_SIZE = 1200;
+
+    private static final Map<DecodeHintType, Object> HINTS = Map.of(
+            DecodeHintType.TRY_HARDER, Boolean.TRUE,
+            DecodeHintType.POSSIBLE_FORMATS, List.of(BarcodeFormat.QR_CODE),
+            DecodeHintType.CHARACTER_SET, "UTF-8");
+
+    /**
+     * 解析二维码内容
+     *
+     * @param payload 二维码内容
+     * @return 非发票二维码时为 null
+     */
+    public static InvoiceQrCode parse(String payload) {
+        if (Objects.isNull(payload)) {
+            return null;
+        }
+        String[] parts = payload.split(",", -1);
+        if (parts.length < 7 || !"01".equals(parts[0].trim())) {
+            return null;
+        }
+        String number = StringUtils.trimToNull(parts[3]);
+        String date = StringUtils.trimToEmpty(parts[5]);
+        if (Objects.isNull(number) || !date.matches("\\d{8}")) {
+            return null;
+        }
+        BigDecimal amount;
+        try {
+            amount = new BigDecimal(parts[4].trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new InvoiceQrCode(parts[1].trim(), StringUtils.trimToNull(parts[2]), number, amount,
+                date.substring(0, 4) + "年" + date.substring(4, 6) + "月" + date.substring(6) + "日", StringUtils.trimToNull(parts[6]));
+    }
+
+    /**
+     * 在首页图片中查找发票二维码 (含表单中的图片)
+     *
+     * @param document 文档
+     * @return 未找到时为 null
+     * @throws IOException
+     */
+    public static InvoiceQrCode find(PDDocument document) throws IOException {
+        return find(document, ParseBudget.unlimited());
+    }
+
+    /**
+     * 在预算内查找首页二维码, 每个图片或表单前检查
+     *
+     * @param document 文档
+     * @param budget   文档解析预算
+     * @return 未找到时为 null
+     * @throws ParseTimeoutException 超时或已取消
+     * @throws IOException
+     */
+    public static InvoiceQrCode find(PDDocument document, ParseBudget budget) throws IOException {
+        if (document.getNumberOfPages() == 0) {
+            return null;
+        }
+        return find(document.getPage(0).getResources(), 0, budget);
+    }
+
+    private static InvoiceQrCode find(PDResources resources, int depth, ParseBudget budget) throws IOException {
+        if (Objects.isNull(resources) || depth > 2) {
+            return null;
+        }
+        for (COSName name : resources.getXObjectNames()) {
+            budget.check();
+            PDXObject xObject = resources.getXObject(name);
+            InvoiceQrCode qrCode = null;
+            if (xObject instanceof PDImageXObject image) {
+                qrCode = decode(image);
+            } else if (xObject instanceof PDFormXObject form) {
+                qrCode = find(form.getResources(), depth + 1, budget);
+            }
+            if (Objects.nonNull(qrCode)) {
+                return qrCode;
+            }
+        }
+        return null;
+    }
+
+    private static InvoiceQrCode decode(PDImageXObject image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // 二维码为正方形
+        if (Math.abs(width - height) > Math.max(width, height) / 10 || Math.max(width, height) > MAX_SIZE) {
+            return null;
+        }
+        BufferedImage bufferedImage = image.getImage();
+        int[] pixels = bufferedImage.getRGB(0, 0, bufferedImage.getWidth(), bufferedImage.getHeight(), null, 0, bufferedImage.getWidth());
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new RGBLuminanceSource(bufferedImage.getWidth(), bufferedImage.getHeight(), pixels)));
+        try {
+            return parse(new QRCodeReader().decode(bitmap, HINTS).getText());
+        } catch (ReaderException e) {
+            return null;
+        }
+    }
+
+    public boolean isDigital() {
+        return DIGITAL_KINDS.contains(kind);
+    }
+
+    /**
+     * 填充发票字段
+     *
+     * @param invoice 发票
+     */
+    public void fill(Invoice invoice) {
+        invoice.setCode(code);
+        invoice.setNumber(number);
+        invoice.setDate(date);
+        invoice.setChecksum(checksum);
+        invoice.setType(SPECIAL_KINDS.contains(kind) ? "专用发票" : "普通发票");
+        if (isDigital()) {
+            invoice.setTotalAmount(amount);
+            invoice.setTotalAmountString(amount.toPlainString());
+        } else {
+            invoice.setAmount(amount);
+        }
+    }
+
+    /**
+     * 与版面解析结果核对
+     *
+     * @param invoice 版面解析的发票
+     * @return 不一致的字段
+     */
+    public List<String> mismatches(Invoice invoice) {
+        List<String> fields = new ArrayList<>();
+        if (!Objects.equals(code, invoice.getCode())) {
+            fields.add("code");
+        }
+        if (!Objects.equals(number, invoice.getNumber())) {
+            fields.add("number");
+        }
+        if (!Objects.equals(date, invoice.getDate())) {
+            fields.add("date");
+        }
+        BigDecimal parsed = isDigital() ? invoice.getTotalAmount() : invoice.getAmount();
+        if (Objects.isNull(parsed) || amount.compareTo(parsed) != 0) {
+            fields.add(isDigital() ? "totalAmount" : "amount");
+        }
+        return fields;
+    }
+}
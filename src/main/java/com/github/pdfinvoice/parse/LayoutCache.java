@@ -0,0 +1,118 @@
+package com.github.pdfinvoice.parse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 版式缓存, 以首页指纹 (生成工具、页面尺寸、定位关键字位置) 为键, 保存已验证的 {@link PageLayout}, 按最近使用淘汰
+ */
+public final class LayoutCache {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int capacity;
+
+    private final Map<Long, PageLayout> layouts;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public LayoutCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.layouts = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PageLayout> eldest) {
+                return size() > LayoutCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * 指纹初值
+     */
+    public static long seed() {
+        return FNV_OFFSET;
+    }
+
+    /**
+     * 指纹追加
+     *
+     * @param hash  当前值
+     * @param value 追加值
+     * @return 新值
+     */
+    public static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    public PageLayout get(long fingerprint) {
+        PageLayout layout;
+        synchronized (layouts) {
+            layout = layouts.get(fingerprint);
+        }
+        (layout == null ? misses : hits).increment();
+        return layout;
+    }
+
+    public void put(long fingerprint, PageLayout layout) {
+        synchronized (layouts) {
+            layouts.put(fingerprint, layout);
+        }
+    }
+
+    /**
+     * 校验失败, 移除缓存
+     */
+    public void invalidate(long fingerprint, PageLayout layout) {
+        synchronized (layouts) {
+            layouts.remove(fingerprint, layout);
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * 已缓存的指纹
+     */
+    Set<Long> fingerprints() {
+        synchronized (layouts) {
+            return Set.copyOf(layouts.keySet());
+        }
+    }
+
+    public int size() {
+        synchronized (layouts) {
+            return layouts.size();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long invalidations() {
+        return invalidations.sum();
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.pdfinvoice.parse;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * 发票版式模板, 声明版式的定位关键字、区块划分方式及字段提取规则, 正则在创建时编译, 不可变
+ */
+@Getter
+@Builder
+public final class LayoutTemplate {
+
+    /**
+     * 区块划分方式
+     */
+    public enum Geometry {
+        // 按定位关键字划分区块 (购买方信息、发票号码、合计等)
+        ANCHORED,
+        // 整页作为一个区块
+        PAGE
+    }
+
+    // 整页区块名称
+    public static final String PAGE_REGION = "page";
+
+    private final InvoiceFamily family;
+
+    // 版式识别, 参数为首页已找到的关键字
+    private final Predicate<Set<String>> classifier;
+
+    private final Geometry geometry;
+
+    // 水平定位关键字, 区块为关键字所在整行
+    private final List<String> horizontal;
+
+    // 垂直定位关键字, 区块为关键字右侧
+    private final List<String> vertical;
+
+    // 仅用于版式识别的关键字, 不划分区块
+    private final List<String> markers;
+
+    // 字段提取规则
+    private final List<FieldRule> fields;
+
+    // 明细表头列
+    private final List<Column> columns;
+
+    // 明细表头至少匹配的列数
+    private final int titleMatches;
+
+    // 明细行判断, 参数为行文本
+    private final Predicate<String> detailRow;
+
+    /**
+     * 是否为该版式的区块关键字
+     */
+    public boolean isRegion(String anchor) {
+        return horizontal.contains(anchor) || vertical.contains(anchor);
+    }
+
+    /**
+     * 明细列
+     *
+     * @param title  表头
+     * @param setter 明细字段
+     */
+    public record Column(Pattern title, BiConsumer<Detail, String> setter) {
+    }
+}
@@ -0,0 +1,276 @@
+package com.github.pdfinvoice.parse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static com.github.pdfinvoice.parse.FieldRule.pattern;
+import static com.github.pdfinvoice.parse.FieldRule.region;
+
+/**
+ * 版式模板集合, 启动时编译, 不可变, 可在线程间共享
+ * <p>
+ * 所有模板的定位关键字与识别关键字编译为同一个 {@link AnchorMatcher}, 版式按模板顺序以首页找到的关键字识别
+ */
+public final class LayoutTemplates {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s");
+
+    private static final Pattern FIRST_LINE = Pattern.compile("[^\n\r]+");
+
+    private static final Pattern MACHINE_NUMBER = Pattern.compile("机器编号\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern TOTAL_AMOUNT = Pattern.compile("价税合计[^0-9-]+(-?\\d+(\\.\\d+)?)");
+
+    private static final Pattern AMOUNT = Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    private static final Pattern CODE = Pattern.compile("发\\x20?票\\x20?代\\x20?码\\x20?\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern NUMBER = Pattern.compile("发\\x20?票\\x20?号\\x20?码\\x20?\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern DATE = Pattern.compile("开\\x20?票\\x20?日\\x20?期\\x20?\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern CHECKSUM = Pattern.compile("校\\x20?验\\x20?码\\x20?\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern SUBJECT_NAME = Pattern.compile("名.*称\\x20*\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern SUBJECT_CODE = Pattern.compile("纳\\x20?税\\x20?人\\x20?识\\x20?别\\x20?号\\x20*\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern SUBJECT_ADDRESS = Pattern.compile("地[址、电\\s]+话\\x20*\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern SUBJECT_ACCOUNT = Pattern.compile("开\\x20?户\\x20?行\\x20?及\\x20?账\\x20?号\\x20*\\S\\x20?([^\n\r]+)");
+
+    private static final Pattern PAYEE = Pattern.compile("收\\s*款\\s*人\\x20?\\S\\x20?(\\S+)");
+
+    private static final Pattern REVIEWER = Pattern.compile("复\\s*核\\x20?\\S\\x20?(\\S+)");
+
+    private static final Pattern DRAWER = Pattern.compile("开\\s*票\\s*人\\x20?\\S\\x20?(\\S+)");
+
+    private static final Pattern APPLY_DATE = Pattern.compile("申请日期[:：]\\s*(\\S+)");
+
+    private static final Pattern TRIP_TOTAL = Pattern.compile("合计\\s*(\\d+(\\.\\d+)?)\\s*元");
+
+    // 发票明细表头
+    private static final List<LayoutTemplate.Column> INVOICE_COLUMNS = List.of(
+            column("[^\\x20]+名称", Detail::setName),
+            column("规格型号", Detail::setModel),
+            column("单[^\u4e00-\u9fa5]*位", Detail::setUnit),
+            column("数[^\u4e00-\u9fa5]*量", Detail::setCount),
+            column("单[^\u4e00-\u9fa5]*价", Detail::setPrice),
+            column("[金⾦][^\u4e00-\u9fa5]*额", Detail::setAmount),
+            column("税[^\u4e00-\u9fa5]*率(\\/征收率)?", Detail::setTaxRate),
+            column("税[^\u4e00-\u9fa5]*额", Detail::setTaxAmount));
+
+    // 行程单明细表头
+    private static final List<LayoutTemplate.Column> TRIP_COLUMNS = List.of(
+            column("序号", null),
+            column("服务商", Detail::setName),
+            column("车型", Detail::setModel),
+            column("上车时间", null),
+            column("城市", null),
+            column("起点", null),
+            column("终点", null),
+            column("金额", Detail::setAmount));
+
+    private static final List<String> INVOICE_ANCHORS = List.of("发票号码", "购买方信息", "合计");
+
+    public static final LayoutTemplates DEFAULT = of(Collections.emptyList(), Collections.emptyList());
+
+    private final List<LayoutTemplate> templates;
+
+    // 配置追加的定位关键字, 对所有按关键字划分区块的版式生效
+    private final Set<String> extraAnchors;
+
+    private final AnchorMatcher anchorMatcher;
+
+    private LayoutTemplates(List<LayoutTemplate> templates, List<String> extraHorizontal, List<String> extraVertical) {
+        this.templates = List.copyOf(templates);
+        Set<String> horizontal = new LinkedHashSet<>();
+        Set<String> vertical = new LinkedHashSet<>();
+        for (LayoutTemplate template : templates) {
+            horizontal.addAll(template.getHorizontal());
+            vertical.addAll(template.getVertical());
+        }
+        horizontal.addAll(extraHorizontal);
+        vertical.addAll(extraVertical);
+        Set<String> extra = new LinkedHashSet<>(extraHorizontal);
+        extra.addAll(extraVertical);
+        this.extraAnchors = Collections.unmodifiableSet(extra);
+        // 识别关键字排在定位关键字之后
+        templates.forEach(e -> horizontal.addAll(e.getMarkers()));
+        this.anchorMatcher = new AnchorMatcher(new ArrayList<>(horizontal), new ArrayList<>(vertical));
+    }
+
+    /**
+     * 内置版式
+     *
+     * @param extraHorizontal 追加的水平定位关键字
+     * @param extraVertical   追加的垂直定位关键字
+     * @return 版式模板集合
+     */
+    public static LayoutTemplates of(List<String> extraHorizontal, List<String> extraVertical) {
+        return new LayoutTemplates(builtins(), extraHorizontal, extraVertical);
+    }
+
+    public static LayoutTemplates of(List<LayoutTemplate> templates, List<String> extraHorizontal, List<String> extraVertical) {
+        return new LayoutTemplates(templates, extraHorizontal, extraVertical);
+    }
+
+    public AnchorMatcher getAnchorMatcher() {
+        return anchorMatcher;
+    }
+
+    public List<LayoutTemplate> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * 识别版式
+     *
+     * @param anchors 首页找到的关键字
+     * @return 第一个匹配的版式
+     */
+    public LayoutTemplate classify(Set<String> anchors) {
+        for (LayoutTemplate template : templates) {
+            if (template.getClassifier().test(anchors)) {
+                return template;
+            }
+        }
+        throw new IllegalArgumentException("无法识别的发票版式, 关键字: " + anchors);
+    }
+
+    /**
+     * 是否为该版式的区块关键字 (含配置追加的关键字)
+     */
+    public boolean isRegion(LayoutTemplate template, String anchor) {
+        return template.isRegion(anchor) || extraAnchors.contains(anchor);
+    }
+
+    private static List<LayoutTemplate> builtins() {
+        List<FieldRule> common = List.of(
+                region("tl", LayoutTemplates::cleanTitle, (invoice, e) -> {
+                    invoice.setType(e.contains("普通发票") ? "普通发票" : "专用发票");
+                    invoice.setTitle(CustomInvoiceTextStripper.get(FIRST_LINE, e, 0));
+                }),
+                region("备注", String::trim, Invoice::setRemark),
+                region("价税合计", Function.identity(), (invoice, e) -> {
+                    String jshj = Objects.requireNonNull(CustomInvoiceTextStripper.get(TOTAL_AMOUNT, e, 1), "总价未知: " + e);
+                    invoice.setTotalAmountString(jshj);
+                    invoice.setTotalAmount(new BigDecimal(jshj));
+                }),
+                region("合计", Function.identity(), (invoice, e) -> {
+                    List<String> hj = CustomInvoiceTextStripper.findAll(AMOUNT, e, 0);
+                    if (hj.size() < 2) hj.add("0");
+                    invoice.setAmount(new BigDecimal(hj.get(0)));
+                    invoice.setTaxAmount(new BigDecimal(hj.get(1)));
+                }),
+                pattern("tr", Function.identity(), NUMBER, 1, Invoice::setNumber),
+                pattern("tr", Function.identity(), DATE, 1, (invoice, e) -> Optional.ofNullable(e)
+                        .map(t -> WHITESPACE.matcher(t).replaceAll(""))
+                        .filter(StringUtils::isNotBlank)
+                        .ifPresent(invoice::setDate)),
+                pattern("购买方信息", CustomInvoiceTextStripper::normalize, SUBJECT_NAME, 1, Invoice::setBuyerName),
+                pattern("购买方信息", CustomInvoiceTextStripper::normalize, SUBJECT_CODE, 1, (invoice, e) -> Optional.ofNullable(e).map(t -> t.replace(" ", "")).ifPresent(invoice::setBuyerCode)),
+                pattern("购买方信息", CustomInvoiceTextStripper::normalize, SUBJECT_ADDRESS, 1, Invoice::setBuyerAddress),
+                pattern("购买方信息", CustomInvoiceTextStripper::normalize, SUBJECT_ACCOUNT, 1, Invoice::setBuyerAccount),
+                pattern("销售方信息", Function.identity(), SUBJECT_NAME, 1, Invoice::setSellerName),
+                pattern("销售方信息", Function.identity(), SUBJECT_CODE, 1, (invoice, e) -> Optional.ofNullable(e).map(t -> t.replace(" ", "")).ifPresent(invoice::setSellerCode)),
+                pattern("销售方信息", Function.identity(), SUBJECT_ADDRESS, 1, Invoice::setSellerAddress),
+                pattern("销售方信息", Function.identity(), SUBJECT_ACCOUNT, 1, Invoice::setSellerAccount),
+                pattern("开票人", CustomInvoiceTextStripper::normalize, PAYEE, 1, Invoice::setPayee),
+                pattern("开票人", CustomInvoiceTextStripper::normalize, REVIEWER, 1, Invoice::setReviewer),
+                pattern("开票人", CustomInvoiceTextStripper::normalize, DRAWER, 1, Invoice::setDrawer));
+
+        // 税控版式: 机器编号、发票代码、校验码、密码区
+        List<FieldRule> vat = new ArrayList<>(common);
+        vat.add(pattern("tl", LayoutTemplates::cleanTitle, MACHINE_NUMBER, 1, Invoice::setMachineNumber));
+        vat.add(pattern("tr", Function.identity(), CODE, 1, Invoice::setCode));
+        vat.add(pattern("tr", Function.identity(), CHECKSUM, 1, Invoice::setChecksum));
+        vat.add(region("密码区", e -> WHITESPACE.matcher(e).replaceAll(""), Invoice::setPassword));
+
+        List<String> horizontal = AnchorMatcher.HORIZONTAL;
+        List<String> vertical = AnchorMatcher.VERTICAL;
+        List<String> markers = List.of("发票代码", "专用发票", "行程单");
+
+        LayoutTemplate.LayoutTemplateBuilder invoice = LayoutTemplate.builder()
+                .geometry(LayoutTemplate.Geometry.ANCHORED)
+                .horizontal(horizontal)
+                .vertical(vertical)
+                .markers(markers)
+                .columns(INVOICE_COLUMNS)
+                .titleMatches(4)
+                .detailRow(e -> e.contains("*"));
+
+        return List.of(
+                invoice.family(InvoiceFamily.VAT_SPECIAL)
+                        .classifier(e -> isVat(e) && e.contains("专用发票"))
+                        .fields(vat)
+                        .build(),
+                invoice.family(InvoiceFamily.VAT_ORDINARY)
+                        .classifier(LayoutTemplates::isVat)
+                        .fields(vat)
+                        .build(),
+                invoice.family(InvoiceFamily.DIGITAL)
+                        .classifier(e -> e.containsAll(INVOICE_ANCHORS))
+                        .fields(common)
+                        .build(),
+                LayoutTemplate.builder()
+                        .family(InvoiceFamily.RIDE_HAILING)
+                        .classifier(e -> e.contains("行程单") && !e.contains("发票号码"))
+                        .geometry(LayoutTemplate.Geometry.PAGE)
+                        .horizontal(Collections.emptyList())
+                        .vertical(Collections.emptyList())
+                        .markers(markers)
+                        .fields(List.of(
+                                region(LayoutTemplate.PAGE_REGION, String::trim, (e, text) -> {
+                                    e.setType("行程单");
+                                    e.setTitle(CustomInvoiceTextStripper.get(FIRST_LINE, text, 0));
+                                }),
+                                pattern(LayoutTemplate.PAGE_REGION, Function.identity(), APPLY_DATE, 1, Invoice::setDate),
+                                pattern(LayoutTemplate.PAGE_REGION, Function.identity(), TRIP_TOTAL, 1, (e, text) -> Optional.ofNullable(text).ifPresent(t -> {
+                                    e.setTotalAmountString(t);
+                                    e.setTotalAmount(new BigDecimal(t));
+                                }))))
+                        .columns(TRIP_COLUMNS)
+                        .titleMatches(4)
+                        .detailRow(e -> !e.isEmpty() && Character.isDigit(e.charAt(0)))
+                        .build());
+    }
+
+    // 税控发票: 有密码区或发票代码
+    private static boolean isVat(Set<String> anchors) {
+        return anchors.containsAll(INVOICE_ANCHORS) && (anchors.contains("密码区") || anchors.contains("发票代码"));
+    }
+
+    private static LayoutTemplate.Column column(String title, BiConsumer<Detail, String> setter) {
+        return new LayoutTemplate.Column(Pattern.compile(title, Pattern.DOTALL), Objects.requireNonNullElse(setter, (detail, e) -> {
+        }));
+    }
+
+    /**
+     * 标题去除空白, 标题之后的内容保留换行
+     */
+    public static String cleanTitle(String str) {
+        String trim = Optional.ofNullable(str).map(String::trim).map(e -> e.replace(" ", "")).orElse("");
+        int tidx = Optional.of(trim.lastIndexOf("）")).filter(e -> e != -1).map(e -> e + 1).orElseGet(() -> trim.lastIndexOf("发票") + 2);
+        String pre = trim.substring(0, tidx);
+        String next = trim.substring(tidx);
+        return WHITESPACE.matcher(pre).replaceAll("") + next;
+    }
+
+    @Override
+    public String toString() {
+        return templates.stream().map(e -> e.getFamily().name()).collect(Collectors.joining(", ", "LayoutTemplates[", "]"));
+    }
+}
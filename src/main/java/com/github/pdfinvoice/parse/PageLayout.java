@@ -0,0 +1,57 @@
+package com.github.pdfinvoice.parse;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 首页版式划分结果: 区块、明细区域、表头及列边界
+ * <p>
+ * 完整解析成功后写入 {@link LayoutCache}, 同一开票方的后续文档命中时跳过关键字定位; 命中后以探针、表头位置及列边界校验, 不一致时重新定位
+ *
+ * @param template 版式
+ * @param regions  区块, 保持划分时的迭代顺序 (文字归属于第一个包含它的区块)
+ * @param detail   明细区域
+ * @param redLimit 该纵坐标以上的红色文字剔除, 不剔除为 NaN
+ * @param probes   区块关键字首字, 命中时校验
+ * @param titleY   明细表头首字纵坐标, 未确定为 NaN
+ * @param columns  明细列边界, 未确定为 null
+ */
+public record PageLayout(LayoutTemplate template, Map<String, Rectangle2D> regions, Rectangle2D detail, double redLimit,
+                         List<Probe> probes, float titleY, List<ColumnBound> columns) {
+
+    public PageLayout {
+        regions = Collections.unmodifiableMap(new LinkedHashMap<>(regions));
+        probes = List.copyOf(probes);
+        columns = columns == null ? null : List.copyOf(columns);
+    }
+
+    /**
+     * 补充明细表头及列边界
+     */
+    public PageLayout withColumns(float titleY, List<ColumnBound> columns) {
+        return new PageLayout(template, regions, detail, redLimit, probes, titleY, columns);
+    }
+
+    /**
+     * 关键字文字
+     *
+     * @param codePoint 码点
+     * @param x         横坐标
+     * @param y         纵坐标
+     */
+    public record Probe(int codePoint, float x, float y) {
+    }
+
+    /**
+     * 明细列边界
+     *
+     * @param column 模板列下标
+     * @param left   左边界
+     * @param right  右边界
+     */
+    public record ColumnBound(int column, double left, double right) {
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.pdfinvoice.parse;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单文档解析预算: 时限及内容流操作符数, 由首页及各续页任务共享, 可由其他线程取消 (客户端断开)
+ * <p>
+ * 时限从首个解析任务开始计算, 不含排队时间. 解析线程在操作符分发及文字输出时协作检查 (每 {@value #CHECK_INTERVAL} 个),
+ * 超出或取消后再次检查总是失败, pdfbox 忽略表单 (Do) 中的异常时仍会在下一次检查结束解析
+ */
+public final class ParseBudget {
+
+    // 解析线程累计该数量的操作符或文字后检查一次
+    public static final int CHECK_INTERVAL = 256;
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final long timeoutNanos;
+
+    private final long maxOperators;
+
+    private final AtomicLong operators = new AtomicLong();
+
+    private volatile long deadline = NOT_STARTED;
+
+    private volatile ParseTimeoutException failure;
+
+    /**
+     * @param timeout      解析时限, 为 null 或 0 时不限
+     * @param maxOperators 操作符上限, 0 为不限
+     */
+    public ParseBudget(Duration timeout, long maxOperators) {
+        this.timeoutNanos = Objects.isNull(timeout) ? 0 : timeout.toNanos();
+        this.maxOperators = maxOperators;
+    }
+
+    /**
+     * 不限时限及操作符, 仍可取消
+     */
+    public static ParseBudget unlimited() {
+        return new ParseBudget(null, 0);
+    }
+
+    /**
+     * 开始计时, 已开始时不变
+     */
+    public void start() {
+        if (timeoutNanos > 0 && deadline == NOT_STARTED) {
+            deadline = System.nanoTime() + timeoutNanos;
+        }
+    }
+
+    /**
+     * 取消解析, 正在解析的线程在下一次检查时结束
+     */
+    public void cancel() {
+        fail(ParseTimeoutException.Reason.CANCELLED, "解析已取消");
+    }
+
+    /**
+     * 检查是否超时或已取消
+     *
+     * @throws ParseTimeoutException 超时或已取消
+     */
+    public void check() {
+        long deadline = this.deadline;
+        if (deadline != NOT_STARTED && System.nanoTime() - deadline > 0) {
+            fail(ParseTimeoutException.Reason.DEADLINE, "解析超时 (" + Duration.ofNanos(timeoutNanos).toMillis() + "ms)");
+        }
+        ParseTimeoutException e = failure;
+        if (Objects.nonNull(e)) {
+            // 各线程分别抛出, 堆栈为检查位置
+            throw new ParseTimeoutException(e.getReason(), e.getMessage());
+        }
+    }
+
+    /**
+     * 计入解析线程累计的操作符并检查
+     *
+     * @param count 操作符数
+     * @throws ParseTimeoutException 超出上限、超时或已取消
+     */
+    public void charge(int count) {
+        long total = operators.addAndGet(count);
+        if (maxOperators > 0 && total > maxOperators) {
+            fail(ParseTimeoutException.Reason.OPERATORS, "内容流操作符超出上限 (" + maxOperators + ")");
+        }
+        check();
+    }
+
+    /**
+     * 已计入的操作符及文字数 (按检查间隔累计)
+     */
+    public long operators() {
+        return operators.get();
+    }
+
+    private synchronized void fail(ParseTimeoutException.Reason reason, String message) {
+        // 保留首个原因
+        if (Objects.isNull(failure)) {
+            failure = new ParseTimeoutException(reason, message);
+        }
+    }
+}
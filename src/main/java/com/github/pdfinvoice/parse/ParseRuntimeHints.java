@@ -0,0 +1,32 @@
+package com.github.pdfinvoice.parse;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * native image 运行时提示
+ * <p>
+ * pdfbox/fontbox 从类路径按需加载的资源: 标准 14 字体度量、字形名表、内置 CMap (含中文 CJK 编码)、
+ * 回退字体、ICC 颜色配置及双向文字镜像表; 解析结果 {@link Invoice}/{@link Detail} 的 json 序列化.
+ * 颜色操作符由 stripper 直接创建, 不需要反射提示
+ */
+public class ParseRuntimeHints implements RuntimeHintsRegistrar {
+
+    private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        hints.resources()
+                .registerPattern("org/apache/pdfbox/resources/afm/*.afm")
+                .registerPattern("org/apache/pdfbox/resources/glyphlist/*.txt")
+                .registerPattern("org/apache/pdfbox/resources/icc/*.icc")
+                .registerPattern("org/apache/pdfbox/resources/text/*.txt")
+                .registerPattern("org/apache/pdfbox/resources/ttf/*.ttf")
+                .registerPattern("org/apache/pdfbox/resources/version.properties")
+                .registerPattern("org/apache/fontbox/cmap/*")
+                .registerPattern("org/apache/fontbox/unicode/*.txt");
+        // 流式输出的元素类型为 Object, 不能由接口返回值推断, 明确注册
+        bindingRegistrar.registerReflectionHints(hints.reflection(), Invoice.class, Detail.class);
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.pdfinvoice.parse;
+
+import lombok.Getter;
+
+import java.util.Locale;
+
+/**
+ * 文档解析超出时限或操作符上限, 或已取消; 解析线程在内容流处理中检查到后立即结束
+ */
+@Getter
+public class ParseTimeoutException extends RuntimeException {
+
+    private final Reason reason;
+
+    public ParseTimeoutException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * 结束原因
+     */
+    public enum Reason {
+
+        // 超出解析时限
+        DEADLINE,
+
+        // 内容流操作符超出上限
+        OPERATORS,
+
+        // 调用方取消 (客户端断开)
+        CANCELLED;
+
+        /**
+         * 指标标签值
+         */
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
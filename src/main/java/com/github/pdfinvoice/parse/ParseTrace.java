@@ -0,0 +1,163 @@
+package com.github.pdfinvoice.parse;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * 单页解析的各阶段耗时及识别的版式, 每个解析任务一个实例, 不可在线程间共享
+ * <p>
+ * 同时保留区块划分、区块文本及明细行的引用 (不复制), 明细行文本只在采样或失败时由 {@link #detailLines()} 生成;
+ * 由 {@link InvoiceParser} 解析时上下文复用前生成, 未采样且成功时丢弃
+ */
+public final class ParseTrace {
+
+    // 是否采样, 采样时保留明细行文本
+    private final boolean sampled;
+
+    private final long[] nanos = new long[Stage.values().length];
+
+    private InvoiceFamily family;
+
+    private int detailRows;
+    // 首页区块及区块文本, 未解析到为空
+    private Map<String, Rectangle2D> regions = Map.of();
+
+    private Map<String, String> regionText = Map.of();
+    // 页下标 -> 明细区文字行
+    private final Map<Integer, Supplier<List<String>>> detailLines = new TreeMap<>();
+
+    public ParseTrace() {
+        this(false);
+    }
+
+    public ParseTrace(boolean sampled) {
+        this.sampled = sampled;
+    }
+
+    public boolean sampled() {
+        return sampled;
+    }
+
+    /**
+     * 记录阶段耗时
+     *
+     * @param stage 阶段
+     * @param start 阶段开始时间 ({@link System#nanoTime()})
+     */
+    public void stage(Stage stage, long start) {
+        nanos[stage.ordinal()] += System.nanoTime() - start;
+    }
+
+    /**
+     * 阶段耗时 (纳秒), 未执行为 0
+     */
+    public long nanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    public InvoiceFamily family() {
+        return family;
+    }
+
+    public void family(InvoiceFamily family) {
+        this.family = family;
+    }
+
+    public int detailRows() {
+        return detailRows;
+    }
+
+    public void detailRows(int detailRows) {
+        this.detailRows = detailRows;
+    }
+
+    public Map<String, Rectangle2D> regions() {
+        return regions;
+    }
+
+    void regions(Map<String, Rectangle2D> regions) {
+        this.regions = regions;
+    }
+
+    public Map<String, String> regionText() {
+        return regionText;
+    }
+
+    void regionText(Map<String, String> regionText) {
+        this.regionText = Collections.unmodifiableMap(regionText);
+    }
+
+    /**
+     * 输出各页明细区文字行
+     *
+     * @return 页下标 -> 文字行
+     */
+    public Map<Integer, List<String>> detailLines() {
+        Map<Integer, List<String>> lines = new TreeMap<>();
+        detailLines.forEach((page, supplier) -> lines.put(page, supplier.get()));
+        return lines;
+    }
+
+    void detailLines(int page, Supplier<List<String>> lines) {
+        detailLines.put(page, Objects.requireNonNull(lines));
+    }
+
+    /**
+     * 解除对解析上下文的引用: 保留时立即生成明细行文本, 否则丢弃
+     *
+     * @param keep 是否保留
+     */
+    void detach(boolean keep) {
+        if (!keep) {
+            detailLines.clear();
+            return;
+        }
+        detailLines.replaceAll((page, supplier) -> {
+            List<String> lines = supplier.get();
+            return () -> lines;
+        });
+    }
+
+    /**
+     * 解析阶段
+     */
+    public enum Stage {
+
+        // 加载文档
+        LOAD,
+
+        // 预检首页文字
+        TRIAGE,
+
+        // 解析内容流, 记录文字位置及颜色
+        EXTRACT,
+
+        // 关键字定位划分区块, 或校验缓存版式
+        LAYOUT,
+
+        // 明细区文字按行输出
+        DETAIL_LINES,
+
+        // 区块文字输出
+        REGIONS,
+
+        // 字段提取
+        FIELDS,
+
+        // 明细行组装
+        DETAILS;
+
+        /**
+         * 指标标签值
+         */
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.parse.Invoice;
+import com.github.pdfinvoice.parse.ParseBudget;
+import reactor.core.publisher.FluxSink;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个文档的续页解析进度: 多个解析任务各自加载一次文档, 依次领取续页, 结果按页序输出;
+ * 各任务同时解析的页面解码内容合计不超过单文档预算
+ */
+final class ContinuationPages {
+
+    // 等待解码预算时检查解析时限的间隔 (毫秒)
+    private static final long WAIT_MILLIS = 100;
+
+    // 最后一页下标
+    private final int last;
+
+    private final AtomicInteger next = new AtomicInteger(1);
+
+    private final FluxSink<Invoice> sink;
+
+    // 已完成、等待输出的页, 下标为页下标
+    private final Invoice[] done;
+
+    // 下一个输出的页
+    private int emitted = 1;
+
+    private final long memory;
+
+    private long used;
+
+    private int holders;
+
+    /**
+     * @param continuations 续页数
+     * @param memory        单文档解码预算
+     * @param sink          按页序输出
+     */
+    ContinuationPages(int continuations, long memory, FluxSink<Invoice> sink) {
+        this.last = continuations;
+        this.memory = memory;
+        this.sink = sink;
+        this.done = new Invoice[continuations + 1];
+    }
+
+    boolean hasNext() {
+        return next.get() <= last;
+    }
+
+    /**
+     * 领取下一页
+     *
+     * @return 页下标, 已全部领取时为 -1
+     */
+    int next() {
+        int page = next.getAndIncrement();
+        return page <= last ? page : -1;
+    }
+
+    /**
+     * 占用页面解码预算, 其他任务占用的预算不足时等待; 没有其他任务占用时总是成功 (单页已按整个预算检查)
+     *
+     * @param bytes  页面解码内容
+     * @param budget 文档解析预算, 等待期间超时或取消时结束
+     */
+    synchronized void acquire(long bytes, ParseBudget budget) throws InterruptedException {
+        while (holders > 0 && used + bytes > memory) {
+            budget.check();
+            wait(WAIT_MILLIS);
+        }
+        used += bytes;
+        holders++;
+    }
+
+    synchronized void release(long bytes) {
+        used -= bytes;
+        holders--;
+        notifyAll();
+    }
+
+    /**
+     * 记录已解析的页, 输出此前各页均已完成的页
+     */
+    synchronized void complete(int page, Invoice invoice) {
+        done[page] = invoice;
+        while (emitted <= last && done[emitted] != null) {
+            sink.next(done[emitted]);
+            done[emitted++] = null;
+        }
+    }
+}
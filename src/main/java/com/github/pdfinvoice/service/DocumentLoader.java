@@ -0,0 +1,337 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.ParseBudget;
+import com.github.pdfinvoice.parse.ParseTimeoutException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 按单文档内存预算加载 pdf
+ * <p>
+ * pdfbox 流缓存使用 {@link ScratchFile}, 超过内存上限的部分写入临时文件, 超过总上限时以 {@link DocumentTooLargeException} 拒绝.
+ * 读取时解码的流不经过流缓存而是整体解码到堆内, 因此解析页面前先流式估算该页需要解码的内容 (内容流、表单、嵌入字体), 超过上限时拒绝;
+ * 对象按需解析, 图片不缓存, 未使用的图片不会解码; 字体、颜色空间跨文档共享 ({@link SharedResourceCache}).
+ * 加载前检查文件头, 版面解析前预检首页 ({@link #triage(PDDocument, ParseBudget)}), 不通过时以 {@link DocumentRejectedException} 拒绝
+ */
+@Component
+public class DocumentLoader implements MeterBinder {
+
+    // ScratchFile 超出上限时的异常信息
+    private static final String EXCEEDED = "Maximum allowed scratch file memory exceeded";
+
+    private final long maxMainMemory;
+
+    private final long maxStorage;
+
+    private final PdfInvoiceProperties properties;
+
+    private final SharedResourceCache sharedResources;
+
+    private final boolean triage;
+
+    private final long maxScanSize;
+
+    public DocumentLoader(PdfInvoiceProperties properties) {
+        PdfInvoiceProperties.Document document = properties.getDocument();
+        this.maxMainMemory = document.getMaxMainMemory().toBytes();
+        this.maxStorage = Math.max(maxMainMemory, document.getMaxStorage().toBytes());
+        this.properties = properties;
+        this.sharedResources = new SharedResourceCache(Math.max(0, document.getResourceCacheSize()),
+                document.getResourceCacheMemory().toBytes());
+        this.triage = properties.getTriage().isEnabled();
+        this.maxScanSize = properties.getTriage().getMaxScanSize().toBytes();
+    }
+
+    /**
+     * 加载文档, 关闭文档时释放缓存及临时文件, 归还共享的字体、颜色空间
+     *
+     * @param read pdf 内容, 由调用方关闭
+     * @return 文档
+     * @throws DocumentRejectedException 不是 pdf 或需要打开密码
+     * @throws IOException               加载失败
+     */
+    public PDDocument load(RandomAccessRead read) throws IOException {
+        return load(read, 1);
+    }
+
+    /**
+     * 加载文档, 同一文档同时加载多份 (续页并发解析) 时流缓存内存按份数均分
+     *
+     * @param read   pdf 内容, 由调用方关闭
+     * @param shares 同时加载的份数
+     * @return 文档
+     * @throws DocumentRejectedException 不是 pdf 或需要打开密码
+     * @throws IOException               加载失败
+     */
+    public PDDocument load(RandomAccessRead read, int shares) throws IOException {
+        if (triage) {
+            DocumentTriage.header(read);
+        }
+        DefaultResourceCache resources = sharedResources.forDocument();
+        try {
+            long mainMemory = maxMainMemory / Math.max(1, shares);
+            PDDocument document = Loader.loadPDF(read, () -> streamCache(resources, mainMemory));
+            document.setResourceCache(resources);
+            return document;
+        } catch (InvalidPasswordException e) {
+            throw new DocumentRejectedException(DocumentRejectedException.Reason.ENCRYPTED, e);
+        } catch (IOException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * 版面解析前预检: 页数, 首页字体、文字操作符及发票号码; 只解码首页文字, 不计算位置. 调用前先以 {@link #checkPage(PDPage, ParseBudget)} 检查首页
+     *
+     * @param document 文档
+     * @param budget   文档解析预算, 按读取的操作符计入
+     * @throws DocumentRejectedException 没有页面、首页没有文字 (扫描件) 或不是发票
+     * @throws IOException               读取失败
+     */
+    public void triage(PDDocument document, ParseBudget budget) throws IOException {
+        if (triage) {
+            DocumentTriage.firstPage(document, maxScanSize, budget);
+        }
+    }
+
+    /**
+     * 文档的流缓存, pdfbox 关闭文档时关闭流缓存, 此时归还共享资源
+     */
+    private ScratchFile streamCache(DefaultResourceCache resources, long mainMemory) throws IOException {
+        MemoryUsageSetting setting = MemoryUsageSetting.setupMixed(mainMemory, maxStorage);
+        if (Objects.nonNull(properties.getUpload().getTempDir())) {
+            setting.setTempDir(properties.getUpload().getTempDir().toFile());
+        }
+        return new ScratchFile(setting) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    sharedResources.release(resources);
+                }
+            }
+        };
+    }
+
+    /**
+     * 预估页面文字解析需要解码的内容, 超出预算时拒绝; 只读取 Flate 解压后的长度, 不保留内容
+     *
+     * @param page 页
+     * @return 页面需要解码的内容长度
+     * @throws DocumentTooLargeException 超出预算
+     * @throws IOException               读取失败
+     */
+    public long checkPage(PDPage page) throws IOException {
+        return checkPage(page, ParseBudget.unlimited());
+    }
+
+    /**
+     * 在解析预算内预估页面需要解码的内容, 每个流及解压时检查解析时限
+     *
+     * @param page  页
+     * @param parse 文档解析预算
+     * @return 页面需要解码的内容长度
+     * @throws DocumentTooLargeException 超出单页解码预算
+     * @throws ParseTimeoutException     超时或已取消
+     * @throws IOException               读取失败
+     */
+    public long checkPage(PDPage page, ParseBudget parse) throws IOException {
+        Budget budget = new Budget(maxStorage, parse);
+        COSBase contents = page.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+        if (contents instanceof COSArray array) {
+            for (COSBase e : array) {
+                budget.stream(resolve(e));
+            }
+        } else {
+            budget.stream(contents);
+        }
+        if (Objects.nonNull(page.getResources())) {
+            budget.resources(page.getResources().getCOSObject(), 0);
+        }
+        return maxStorage - budget.remaining;
+    }
+
+    /**
+     * 单文档流缓存及单页解码内容上限
+     */
+    public long getMaxStorage() {
+        return maxStorage;
+    }
+
+    private static COSBase resolve(COSBase base) {
+        return base instanceof COSObject object ? object.getObject() : base;
+    }
+
+    /**
+     * 超出预算的异常转换为 {@link DocumentTooLargeException}, 其他异常原样返回
+     *
+     * @param e 加载或解析异常
+     * @return 异常
+     */
+    public IOException translate(IOException e) {
+        for (Throwable t = e; Objects.nonNull(t); t = t.getCause()) {
+            if (t instanceof IOException && Objects.toString(t.getMessage(), "").startsWith(EXCEEDED)) {
+                return new DocumentTooLargeException("文档超出单文档内存预算 (" + DataSize.ofBytes(maxStorage).toMegabytes() + "MB)", e);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * 页面解码预算, 同一对象只计算一次
+     */
+    private class Budget {
+
+        // 表单嵌套深度上限
+        private static final int MAX_DEPTH = 8;
+
+        private long remaining;
+
+        private final ParseBudget parse;
+
+        private final Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Budget(long remaining, ParseBudget parse) {
+            this.remaining = remaining;
+            this.parse = parse;
+        }
+
+        void resources(COSDictionary resources, int depth) throws IOException {
+            if (Objects.isNull(resources) || depth > MAX_DEPTH || !seen.add(resources)) {
+                return;
+            }
+            for (COSBase e : values(resources.getCOSDictionary(COSName.FONT))) {
+                if (e instanceof COSDictionary font) {
+                    font(font, depth);
+                }
+            }
+            for (COSBase e : values(resources.getCOSDictionary(COSName.XOBJECT))) {
+                // 图片不解码
+                if (e instanceof COSStream form && COSName.FORM.equals(form.getCOSName(COSName.SUBTYPE))) {
+                    stream(form);
+                    resources(form.getCOSDictionary(COSName.RESOURCES), depth + 1);
+                }
+            }
+            for (COSBase e : values(resources.getCOSDictionary(COSName.PATTERN))) {
+                if (e instanceof COSStream pattern) {
+                    stream(pattern);
+                    resources(pattern.getCOSDictionary(COSName.RESOURCES), depth + 1);
+                }
+            }
+        }
+
+        private void font(COSDictionary font, int depth) throws IOException {
+            if (!seen.add(font)) {
+                return;
+            }
+            COSDictionary descriptor = font.getCOSDictionary(COSName.FONT_DESC);
+            if (Objects.nonNull(descriptor)) {
+                stream(descriptor.getDictionaryObject(COSName.FONT_FILE));
+                stream(descriptor.getDictionaryObject(COSName.FONT_FILE2));
+                stream(descriptor.getDictionaryObject(COSName.FONT_FILE3));
+            }
+            COSArray descendants = font.getCOSArray(COSName.DESCENDANT_FONTS);
+            if (Objects.nonNull(descendants)) {
+                for (COSBase e : descendants) {
+                    if (resolve(e) instanceof COSDictionary descendant) {
+                        font(descendant, depth);
+                    }
+                }
+            }
+            // Type3 字形过程
+            for (COSBase e : values(font.getCOSDictionary(COSName.CHAR_PROCS))) {
+                stream(e);
+            }
+            resources(font.getCOSDictionary(COSName.RESOURCES), depth + 1);
+        }
+
+        private List<COSBase> values(COSDictionary dictionary) {
+            if (Objects.isNull(dictionary)) {
+                return List.of();
+            }
+            List<COSBase> values = new ArrayList<>();
+            for (COSName key : dictionary.keySet()) {
+                values.add(dictionary.getDictionaryObject(key));
+            }
+            return values;
+        }
+
+        void stream(COSBase base) throws IOException {
+            if (!(base instanceof COSStream stream) || !seen.add(stream)) {
+                return;
+            }
+            parse.check();
+            remaining -= decodedLength(stream, remaining);
+            if (remaining < 0) {
+                throw new DocumentTooLargeException("文档超出单文档内存预算 (" + DataSize.ofBytes(maxStorage).toMegabytes() + "MB)", null);
+            }
+        }
+
+        /**
+         * 解码后长度, Flate 流式解压计数 (最多计到 limit + 1), 其他编码按原始长度
+         */
+        private long decodedLength(COSStream stream, long limit) throws IOException {
+            if (!flate(stream)) {
+                return stream.getLength();
+            }
+            byte[] buffer = new byte[8192];
+            long n = 0;
+            try (InputStream in = new InflaterInputStream(stream.createRawInputStream())) {
+                int read;
+                while (n <= limit && (read = in.read(buffer)) > 0) {
+                    n += read;
+                    parse.check();
+                }
+            } catch (ZipException e) {
+                // 损坏的压缩流由解析时处理
+                return stream.getLength();
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 只有一个 Flate 编码, 可由 {@link InflaterInputStream} 流式解压
+     */
+    static boolean flate(COSStream stream) {
+        COSBase filters = stream.getFilters();
+        if (filters instanceof COSArray array && array.size() == 1) {
+            filters = array.getObject(0);
+        }
+        return COSName.FLATE_DECODE.equals(filters) || COSName.FLATE_DECODE_ABBREVIATION.equals(filters);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        sharedResources.bindTo(registry);
+    }
+}
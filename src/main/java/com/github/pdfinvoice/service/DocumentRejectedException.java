@@ -0,0 +1,55 @@
+package com.github.pdfinvoice.service;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 文档未通过预检, 未进行版面解析
+ */
+@Getter
+public class DocumentRejectedException extends IOException {
+
+    private final Reason reason;
+
+    public DocumentRejectedException(Reason reason, Throwable cause) {
+        super(reason.getMessage(), cause);
+        this.reason = reason;
+    }
+
+    /**
+     * 拒绝原因
+     */
+    @Getter
+    public enum Reason {
+
+        // 文件头不是 %PDF-
+        NOT_PDF("不是 pdf 文档"),
+
+        // 需要打开密码
+        ENCRYPTED("文档已加密, 无法读取"),
+
+        // 没有页面
+        NO_PAGES("文档没有页面"),
+
+        // 首页没有字体或文字, 扫描件、图片
+        NO_TEXT("发票首页没有文字, 扫描件可使用二维码解析 (mode=qr)"),
+
+        // 首页有文字但没有发票号码
+        NOT_INVOICE("发票首页没有发票号码, 不是发票");
+
+        private final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+
+        /**
+         * 指标标签值
+         */
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+}
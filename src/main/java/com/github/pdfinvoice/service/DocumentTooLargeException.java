@@ -0,0 +1,13 @@
+package com.github.pdfinvoice.service;
+
+import java.io.IOException;
+
+/**
+ * 文档解析超出内存预算
+ */
+public class DocumentTooLargeException extends IOException {
+
+    public DocumentTooLargeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,301 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.parse.ParseBudget;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 文档预检: 只读取文件头、页数及首页的字体和文字操作符, 在版面解析前拒绝非 pdf、扫描件及非发票文档
+ * <p>
+ * 首页文字按内容流顺序解码 (不计算位置), 去掉空白后查找发票号码 (行程单无发票号码, 查找 "行程单"), 找到即停止;
+ * 内容流 (含表单) 合计最多读取 maxScanSize 字节, 读完仍未找到时不拒绝; 字体经文档资源缓存加载, 版面解析时不再重复加载
+ */
+final class DocumentTriage {
+
+    // 文件头须在前 1024 字节内
+    private static final int HEADER_WINDOW = 1024;
+
+    private static final byte[] HEADER = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+
+    private static final List<String> ANCHORS = List.of("发票号码", "行程单");
+
+    // 表单嵌套深度上限
+    private static final int MAX_DEPTH = 8;
+
+    private DocumentTriage() {
+    }
+
+    /**
+     * 检查文件头, 检查后恢复读取位置
+     *
+     * @param read pdf 内容
+     * @throws DocumentRejectedException 不是 pdf
+     */
+    static void header(RandomAccessRead read) throws IOException {
+        long position = read.getPosition();
+        byte[] head = new byte[HEADER_WINDOW];
+        int n = 0;
+        int count;
+        while (n < head.length && (count = read.read(head, n, head.length - n)) > 0) {
+            n += count;
+        }
+        read.seek(position);
+        for (int i = 0; i + HEADER.length <= n; i++) {
+            if (matches(head, i)) {
+                return;
+            }
+        }
+        throw new DocumentRejectedException(DocumentRejectedException.Reason.NOT_PDF, null);
+    }
+
+    private static boolean matches(byte[] bytes, int offset) {
+        for (int k = 0; k < HEADER.length; k++) {
+            if (bytes[offset + k] != HEADER[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 检查页数及首页文字
+     *
+     * @param document    文档
+     * @param maxScanSize 最多读取的解码内容
+     * @param budget      文档解析预算
+     * @throws DocumentRejectedException 没有页面、首页没有文字或没有发票号码
+     */
+    static void firstPage(PDDocument document, long maxScanSize, ParseBudget budget) throws IOException {
+        if (document.getNumberOfPages() == 0) {
+            throw new DocumentRejectedException(DocumentRejectedException.Reason.NO_PAGES, null);
+        }
+        PDPage page = document.getPage(0);
+        if (!hasFonts(page.getResources(), 0)) {
+            throw new DocumentRejectedException(DocumentRejectedException.Reason.NO_TEXT, null);
+        }
+        Scan scan = new Scan(maxScanSize, budget);
+        scan.content(page.getCOSObject().getDictionaryObject(COSName.CONTENTS), page.getResources(), 0);
+        if (!scan.found && !scan.truncated) {
+            throw new DocumentRejectedException(scan.text.isEmpty() ? DocumentRejectedException.Reason.NO_TEXT
+                    : DocumentRejectedException.Reason.NOT_INVOICE, null);
+        }
+    }
+
+    /**
+     * 页面或其表单引用了字体, 不解析字体
+     */
+    private static boolean hasFonts(PDResources resources, int depth) {
+        if (Objects.isNull(resources) || depth > MAX_DEPTH) {
+            return false;
+        }
+        COSDictionary fonts = resources.getCOSObject().getCOSDictionary(COSName.FONT);
+        if (Objects.nonNull(fonts) && fonts.size() > 0) {
+            return true;
+        }
+        COSDictionary xObjects = resources.getCOSObject().getCOSDictionary(COSName.XOBJECT);
+        if (Objects.isNull(xObjects)) {
+            return false;
+        }
+        for (COSName name : xObjects.keySet()) {
+            if (xObjects.getDictionaryObject(name) instanceof COSStream form && COSName.FORM.equals(form.getCOSName(COSName.SUBTYPE))
+                    && hasFonts(new PDResources(form.getCOSDictionary(COSName.RESOURCES)), depth + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按内容流顺序解码的首页文字 (不含空白)
+     */
+    private static final class Scan {
+
+        private final StringBuilder text = new StringBuilder();
+
+        private final Set<COSBase> forms = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private final ParseBudget budget;
+
+        // 剩余可读取的解码内容
+        private long remaining;
+
+        private boolean found;
+
+        // 内容未读完 (超出上限或解压失败)
+        private boolean truncated;
+
+        Scan(long maxScanSize, ParseBudget budget) {
+            this.remaining = maxScanSize;
+            this.budget = budget;
+        }
+
+        /**
+         * @param contents 页面内容流 (单个或数组) 或表单
+         */
+        void content(COSBase contents, PDResources resources, int depth) throws IOException {
+            if (Objects.isNull(resources) || depth > MAX_DEPTH) {
+                return;
+            }
+            PDFStreamParser parser = new PDFStreamParser(read(contents));
+            try {
+                tokens(parser, resources, depth);
+            } finally {
+                parser.close();
+            }
+        }
+
+        /**
+         * 读取解码内容, 数组中的各流以换行分隔, 合计不超过剩余上限
+         */
+        private byte[] read(COSBase contents) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (contents instanceof COSArray array) {
+                for (COSBase e : array) {
+                    read(e instanceof COSObject object ? object.getObject() : e, out);
+                    out.write('\n');
+                }
+            } else {
+                read(contents, out);
+            }
+            return out.toByteArray();
+        }
+
+        private void read(COSBase base, ByteArrayOutputStream out) throws IOException {
+            if (!(base instanceof COSStream stream)) {
+                return;
+            }
+            byte[] buffer = new byte[8192];
+            try (InputStream in = DocumentLoader.flate(stream) ? new InflaterInputStream(stream.createRawInputStream()) : stream.createInputStream()) {
+                for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                    if (n > remaining) {
+                        out.write(buffer, 0, (int) remaining);
+                        remaining = 0;
+                        truncated = true;
+                        return;
+                    }
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            } catch (ZipException | EOFException e) {
+                // 损坏的压缩流保留已解压的部分, 由版面解析处理
+                truncated = true;
+            }
+        }
+
+        private void tokens(PDFStreamParser parser, PDResources resources, int depth) throws IOException {
+            List<COSBase> operands = new ArrayList<>();
+            PDFont font = null;
+            int count = 0;
+            int operators = 0;
+            for (Object token = parser.parseNextToken(); Objects.nonNull(token) && !found; token = parser.parseNextToken()) {
+                if (++count == ParseBudget.CHECK_INTERVAL) {
+                    // 按读取的记号检查, 只计入操作符
+                    budget.charge(operators);
+                    count = 0;
+                    operators = 0;
+                }
+                if (token instanceof COSBase operand) {
+                    operands.add(operand);
+                    continue;
+                }
+                if (!(token instanceof Operator operator)) {
+                    continue;
+                }
+                operators++;
+                switch (operator.getName()) {
+                    case "Tf" -> font = font(resources, operands);
+                    case "Tj", "'" -> show(font, last(operands));
+                    case "\"" -> show(font, operands.size() == 3 ? operands.get(2) : null);
+                    case "TJ" -> {
+                        if (last(operands) instanceof COSArray array) {
+                            for (COSBase e : array) {
+                                show(font, e);
+                            }
+                        }
+                    }
+                    case "Do" -> {
+                        if (last(operands) instanceof COSName name && resources.getXObject(name) instanceof PDFormXObject form
+                                && forms.add(form.getCOSObject())) {
+                            content(form.getCOSObject(), Objects.requireNonNullElse(form.getResources(), resources), depth + 1);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+                operands.clear();
+            }
+            budget.charge(operators);
+        }
+
+        private static COSBase last(List<COSBase> operands) {
+            return operands.isEmpty() ? null : operands.get(operands.size() - 1);
+        }
+
+        private static PDFont font(PDResources resources, List<COSBase> operands) {
+            if (operands.isEmpty() || !(operands.get(0) instanceof COSName name)) {
+                return null;
+            }
+            try {
+                return resources.getFont(name);
+            } catch (IOException e) {
+                // 损坏的字体由版面解析处理
+                return null;
+            }
+        }
+
+        private void show(PDFont font, COSBase operand) throws IOException {
+            if (Objects.isNull(font) || !(operand instanceof COSString string)) {
+                return;
+            }
+            int from = text.length();
+            InputStream in = new ByteArrayInputStream(string.getBytes());
+            while (in.available() > 0) {
+                String unicode = font.toUnicode(font.readCode(in));
+                if (Objects.isNull(unicode)) {
+                    continue;
+                }
+                for (int i = 0; i < unicode.length(); i++) {
+                    char c = unicode.charAt(i);
+                    if (!Character.isWhitespace(c) && !Character.isSpaceChar(c)) {
+                        text.append(c);
+                    }
+                }
+            }
+            for (String anchor : ANCHORS) {
+                if (text.indexOf(anchor, Math.max(0, from - anchor.length() + 1)) >= 0) {
+                    found = true;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.Invoice;
+import com.github.pdfinvoice.parse.InvoiceFamily;
+import com.github.pdfinvoice.parse.InvoiceParser;
+import com.github.pdfinvoice.parse.InvoiceQrCode;
+import com.github.pdfinvoice.parse.LayoutCache;
+import com.github.pdfinvoice.parse.LayoutTemplate;
+import com.github.pdfinvoice.parse.LayoutTemplates;
+import com.github.pdfinvoice.parse.ParseBudget;
+import com.github.pdfinvoice.parse.ParseTimeoutException;
+import com.github.pdfinvoice.parse.ParseTrace;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发票文档解析
+ */
+@Service
+public class InvoiceService implements MeterBinder {
+
+    private final ParseExecutor parseExecutor;
+
+    private final ResultCache resultCache;
+
+    private final DocumentLoader documentLoader;
+
+    // 版式模板、定位关键字及版式缓存只构建一次, 所有解析共享
+    private final InvoiceParser invoiceParser;
+
+    // 单文档续页并发解析任务数
+    private final int pageParallelism;
+
+    // 续页及批量任务被拒绝时有限次退避重试 (已开始解析或输出)
+    private final Retry rejectedRetry;
+
+    // 单文档解析时限及操作符上限
+    private final Duration timeout;
+
+    private final long maxOperators;
+
+    private final ParseMetrics parseMetrics = new ParseMetrics();
+
+    private final TraceBuffer traceBuffer;
+
+    public InvoiceService(ParseExecutor parseExecutor, ResultCache resultCache, DocumentLoader documentLoader, TraceBuffer traceBuffer,
+                          PdfInvoiceProperties properties) {
+        this.parseExecutor = parseExecutor;
+        this.resultCache = resultCache;
+        this.documentLoader = documentLoader;
+        this.traceBuffer = traceBuffer;
+        PdfInvoiceProperties.Anchor anchor = properties.getAnchor();
+        int cacheSize = properties.getLayout().getCacheSize();
+        this.invoiceParser = new InvoiceParser(LayoutTemplates.of(anchor.getHorizontal(), anchor.getVertical()),
+                cacheSize > 0 ? new LayoutCache(cacheSize) : null);
+        this.pageParallelism = Math.max(1, Math.min(properties.getWorker().getThreads(), properties.getWorker().getPageParallelism()));
+        this.rejectedRetry = Retry.backoff(Math.max(0, properties.getWorker().getMaxRetries()), Duration.ofMillis(50))
+                .maxBackoff(properties.getWorker().getRetryAfter())
+                .filter(ParseRejectedException.class::isInstance)
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+        this.timeout = properties.getDocument().getTimeout();
+        this.maxOperators = Math.max(0, properties.getDocument().getMaxOperators());
+    }
+
+    /**
+     * 在解析线程池中解析, 队列已满时以 {@link ParseRejectedException} 结束; 相同内容命中缓存或共享进行中的解析
+     *
+     * @param upload 上传文件, 由调用方关闭
+     * @return 发票
+     */
+    public Mono<Invoice> parseAsync(SpooledUpload upload) {
+        return parseAsync(upload, ParseMode.FULL);
+    }
+
+    /**
+     * 在解析线程池中按指定方式解析; 首页解析后续页由若干任务并发解析, 每个任务加载一次文档并依次领取续页, 明细按页序合并.
+     * 超出单文档解析时限或操作符上限时以 {@link ParseTimeoutException} 结束, 取消订阅时正在执行的解析在下一次检查时结束
+     *
+     * @param upload 上传文件, 由调用方关闭
+     * @param mode   解析方式
+     * @return 发票
+     */
+    public Mono<Invoice> parseAsync(SpooledUpload upload, ParseMode mode) {
+        return parseAsync(upload, mode, null);
+    }
+
+    /**
+     * 按指定方式解析并记录解析过程, 记录可通过 {@link TraceBuffer#find(String)} 查询
+     *
+     * @param upload  上传文件, 由调用方关闭
+     * @param mode    解析方式
+     * @param traceId 记录 id, 不为 null 时不使用结果缓存; 为 null 时按比例采样
+     * @return 发票
+     */
+    public Mono<Invoice> parseAsync(SpooledUpload upload, ParseMode mode, String traceId) {
+        // 不同解析方式的结果不同, 分别缓存
+        String key = Objects.nonNull(traceId) || Objects.isNull(upload.sha256()) ? null
+                : mode == ParseMode.FULL ? upload.sha256() : upload.sha256() + "-" + mode.name().toLowerCase();
+        return resultCache.get(key, () -> Mono.defer(() -> {
+            String id = Objects.nonNull(traceId) ? traceId : traceBuffer.sample();
+            ParseBudget budget = budget();
+            return parseExecutor.submit(() -> withDocument(upload, mode, id, budget, (document, trace) -> parseFirstPage(document, mode, trace, budget)))
+                    .flatMap(first -> continuations(upload, mode, id, first, budget)
+                            .reduce(first.invoice(), (invoice, continuation) -> {
+                                invoice.addDetails(continuation);
+                                return invoice;
+                            })
+                            .doOnNext(invoice -> parseMetrics.document(upload.size(), first.family(), detailRows(invoice))))
+                    .doOnCancel(budget::cancel);
+        }));
+    }
+
+    /**
+     * 批量任务中解析单个文档, 解析队列已满时退避重试 (批量任务已开始输出, 不能再返回 503); 重试次数用尽时以 {@link ParseRejectedException} 结束
+     *
+     * @param upload 上传文件, 由调用方关闭
+     * @param mode   解析方式
+     * @return 发票
+     */
+    public Mono<Invoice> parseQueued(SpooledUpload upload, ParseMode mode) {
+        return parseAsync(upload, mode).retryWhen(rejectedRetry);
+    }
+
+    /**
+     * 流式解析: 首个元素为发票 (不含明细), 其后按页序逐行输出明细; 各页解析完成即输出, 不合并全部明细, 不使用结果缓存
+     *
+     * @param upload 上传文件, 由调用方关闭
+     * @param mode   解析方式
+     * @return 发票及明细
+     */
+    public Flux<Object> parseStream(SpooledUpload upload, ParseMode mode) {
+        return Flux.defer(() -> {
+            String id = traceBuffer.sample();
+            AtomicInteger rows = new AtomicInteger();
+            ParseBudget budget = budget();
+            return parseExecutor.submit(() -> withDocument(upload, mode, id, budget, (document, trace) -> parseFirstPage(document, mode, trace, budget)))
+                    .flatMapMany(first -> {
+                        Invoice header = first.invoice();
+                        List<?> firstPage = Objects.requireNonNullElse(header.getDetailList(), List.of());
+                        header.setDetailList(null);
+                        Flux<Object> details = Flux.concat(Flux.fromIterable(firstPage), continuations(upload, mode, id, first, budget)
+                                .<Object>flatMapIterable(e -> Objects.requireNonNullElse(e.getDetailList(), List.of())));
+                        return Flux.concat(Mono.just(header), details.doOnNext(e -> rows.incrementAndGet()))
+                                .doOnComplete(() -> parseMetrics.document(upload.size(), first.family(), rows.get()));
+                    })
+                    .doOnCancel(budget::cancel);
+        });
+    }
+
+    /**
+     * 续页由至多 pageParallelism 个任务并发解析, 每个任务加载一次文档, 流缓存内存按任务数均分, 同时解析的页面共用单文档解码预算;
+     * 按页序输出. 首个任务被拒绝时退避重试, 其他任务被拒绝时由已开始的任务解析剩余页
+     */
+    private Flux<Invoice> continuations(SpooledUpload upload, ParseMode mode, String traceId, FirstPage first, ParseBudget budget) {
+        int continuations = first.continuations();
+        if (continuations == 0) {
+            return Flux.empty();
+        }
+        int workers = Math.min(pageParallelism, continuations);
+        return Flux.create(sink -> {
+            ContinuationPages pages = new ContinuationPages(continuations, documentLoader.getMaxStorage(), sink);
+            Disposable tasks = Flux.range(0, workers)
+                    .flatMap(worker -> {
+                        Mono<Integer> task = parseExecutor.submit(() -> !pages.hasNext() ? 0 : withDocument(upload, mode, traceId, workers, budget,
+                                (document, trace) -> parseContinuations(document, first.template(), pages, trace, budget)));
+                        return worker == 0 ? task.retryWhen(rejectedRetry) : task.onErrorResume(ParseRejectedException.class, e -> Mono.empty());
+                    }, workers)
+                    .subscribe(null, sink::error, sink::complete);
+            sink.onDispose(tasks);
+        });
+    }
+
+    /**
+     * 依次领取并解析续页, 占用页面解码预算期间解析
+     *
+     * @return 解析的页数
+     */
+    private int parseContinuations(PDDocument document, LayoutTemplate template, ContinuationPages pages, ParseTrace trace,
+                                   ParseBudget budget) throws Exception {
+        int n = 0;
+        for (int page = pages.next(); page > 0; page = pages.next()) {
+            long bytes = documentLoader.checkPage(document.getPage(page), budget);
+            pages.acquire(bytes, budget);
+            try {
+                pages.complete(page, invoiceParser.parseContinuation(document, template, page, trace, budget));
+            } finally {
+                pages.release(bytes);
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 解析单个 pdf 文档
+     *
+     * @param read pdf 内容
+     * @return 发票
+     * @throws Exception 文档加载或解析失败
+     */
+    public Invoice parse(RandomAccessRead read) throws Exception {
+        return parse(read, ParseMode.FULL);
+    }
+
+    /**
+     * 按指定方式解析单个 pdf 文档
+     *
+     * @param read pdf 内容
+     * @param mode 解析方式
+     * @return 发票
+     * @throws Exception 文档加载或解析失败, 超出内存预算 ({@link DocumentTooLargeException}) 或解析时限 ({@link ParseTimeoutException}),
+     *                   或二维码与版面不一致
+     */
+    public Invoice parse(RandomAccessRead read, ParseMode mode) throws Exception {
+        long size = read.length();
+        ParseBudget budget = budget();
+        return withDocument(read, null, mode, traceBuffer.sample(), 1, budget, (document, trace) -> {
+            FirstPage first = parseFirstPage(document, mode, trace, budget);
+            for (int page = 1; page <= first.continuations(); page++) {
+                first.invoice().addDetails(parseContinuation(document, first.template(), page, trace, budget));
+            }
+            parseMetrics.document(size, first.family(), detailRows(first.invoice()));
+            return first.invoice();
+        });
+    }
+
+    /**
+     * 解析续页明细
+     */
+    private Invoice parseContinuation(PDDocument document, LayoutTemplate template, int page, ParseTrace trace, ParseBudget budget) throws Exception {
+        documentLoader.checkPage(document.getPage(page), budget);
+        return invoiceParser.parseContinuation(document, template, page, trace, budget);
+    }
+
+    /**
+     * 单个文档的解析预算, 首页及续页共享
+     */
+    private ParseBudget budget() {
+        return new ParseBudget(timeout, maxOperators);
+    }
+
+    private static int detailRows(Invoice invoice) {
+        return Objects.isNull(invoice.getDetailList()) ? 0 : invoice.getDetailList().size();
+    }
+
+    private <T> T withDocument(SpooledUpload upload, ParseMode mode, String traceId, ParseBudget budget, DocumentTask<T> task) throws Exception {
+        return withDocument(upload, mode, traceId, 1, budget, task);
+    }
+
+    private <T> T withDocument(SpooledUpload upload, ParseMode mode, String traceId, int shares, ParseBudget budget,
+                               DocumentTask<T> task) throws Exception {
+        try (RandomAccessRead read = upload.open()) {
+            return withDocument(read, upload.sha256(), mode, traceId, shares, budget, task);
+        }
+    }
+
+    /**
+     * 在单文档内存预算内加载文档并处理, 记录加载及各解析阶段耗时, 失败时按原因计数; 采样或失败时保存解析记录.
+     * 解析时限从任务开始 (加载前) 计算, 加载后检查
+     *
+     * @param read    pdf 内容
+     * @param sha256  内容哈希, 未知为 null
+     * @param mode    解析方式
+     * @param traceId 解析记录 id, 未采样为 null
+     * @param shares  同一文档同时加载的份数, 见 {@link DocumentLoader#load(RandomAccessRead, int)}
+     * @param budget  文档解析预算
+     * @param task    处理
+     * @return 处理结果
+     * @throws Exception 处理失败, 超出预算时为 {@link DocumentTooLargeException}
+     */
+    private <T> T withDocument(RandomAccessRead read, String sha256, ParseMode mode, String traceId, int shares, ParseBudget budget,
+                               DocumentTask<T> task) throws Exception {
+        budget.start();
+        ParseTrace trace = new ParseTrace(Objects.nonNull(traceId));
+        try {
+            T result;
+            long start = System.nanoTime();
+            try (PDDocument document = documentLoader.load(read, shares)) {
+                trace.stage(ParseTrace.Stage.LOAD, start);
+                budget.check();
+                result = task.apply(document, trace);
+            } catch (IOException e) {
+                throw documentLoader.translate(e);
+            }
+            parseMetrics.stages(trace);
+            traceBuffer.record(traceId, sha256, mode, trace, null);
+            return result;
+        } catch (Exception e) {
+            parseMetrics.stages(trace);
+            parseMetrics.failure(trace, e);
+            traceBuffer.record(traceId, sha256, mode, trace, e);
+            throw e;
+        }
+    }
+
+    /**
+     * 解析首页
+     *
+     * @param document 文档
+     * @param mode     解析方式
+     * @param trace    解析任务记录
+     * @param budget   文档解析预算
+     * @return 首页结果, 只读取二维码时无续页
+     * @throws Exception 解析失败, 未通过预检 ({@link DocumentRejectedException}), 或二维码与版面不一致
+     */
+    private FirstPage parseFirstPage(PDDocument document, ParseMode mode, ParseTrace trace, ParseBudget budget) throws Exception {
+        InvoiceQrCode qrCode = mode == ParseMode.FULL ? null : InvoiceQrCode.find(document, budget);
+        if (mode == ParseMode.QR && Objects.nonNull(qrCode)) {
+            Invoice invoice = new Invoice();
+            qrCode.fill(invoice);
+            return new FirstPage(invoice, null, 1);
+        }
+        budget.check();
+        // 预检解码首页文字, 先按单页预算检查首页
+        if (document.getNumberOfPages() > 0) {
+            documentLoader.checkPage(document.getPage(0), budget);
+        }
+        long start = System.nanoTime();
+        documentLoader.triage(document, budget);
+        trace.stage(ParseTrace.Stage.TRIAGE, start);
+        budget.check();
+        InvoiceParser.Result result = invoiceParser.parseFirstPage(document, trace, budget);
+        Invoice invoice = result.invoice();
+        if (mode == ParseMode.VERIFY && Objects.nonNull(qrCode)) {
+            List<String> mismatches = qrCode.mismatches(invoice);
+            if (!mismatches.isEmpty()) {
+                throw new IllegalArgumentException("二维码与版面解析结果不一致: " + String.join(", ", mismatches));
+            }
+            if (Objects.isNull(invoice.getChecksum())) {
+                invoice.setChecksum(qrCode.checksum());
+            }
+        }
+        return new FirstPage(invoice, result.template(), document.getNumberOfPages());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        parseMetrics.bindTo(registry);
+        LayoutCache layoutCache = invoiceParser.getLayoutCache();
+        if (layoutCache == null) {
+            return;
+        }
+        Gauge.builder("pdf.layout.cache.size", layoutCache, LayoutCache::size)
+                .description("缓存的版式数")
+                .register(registry);
+        FunctionCounter.builder("pdf.layout.cache", layoutCache, LayoutCache::hits)
+                .description("版式缓存查询数")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("pdf.layout.cache", layoutCache, LayoutCache::misses)
+                .description("版式缓存查询数")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("pdf.layout.cache", layoutCache, LayoutCache::invalidations)
+                .description("版式缓存查询数")
+                .tag("result", "invalid")
+                .register(registry);
+    }
+
+    /**
+     * 首页解析结果
+     *
+     * @param invoice  发票
+     * @param template 首页版式, 只读取二维码时为 null
+     * @param pages    页数
+     */
+    private record FirstPage(Invoice invoice, LayoutTemplate template, int pages) {
+
+        // 续页数
+        int continuations() {
+            return Objects.isNull(template) ? 0 : pages - 1;
+        }
+
+        // 发票种类, 只读取二维码时为 null
+        InvoiceFamily family() {
+            return Objects.isNull(template) ? null : template.getFamily();
+        }
+    }
+
+    @FunctionalInterface
+    private interface DocumentTask<T> {
+        T apply(PDDocument document, ParseTrace trace) throws Exception;
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 解析线程池, 将 pdf 加载与解析移出 netty 事件循环; 有界队列, 队列满时直接拒绝
+ */
+@Component
+public class ParseExecutor implements MeterBinder, DisposableBean {
+
+    private static final String NAME = "pdf-parse";
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ParseExecutor(PdfInvoiceProperties properties) {
+        PdfInvoiceProperties.Worker worker = properties.getWorker();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(NAME + "-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(worker.getThreads(), worker.getThreads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(worker.getQueueCapacity()), threadFactory, (r, e) -> {
+            rejected.incrementAndGet();
+            throw new ParseRejectedException("解析队列已满, 请稍后重试");
+        });
+    }
+
+    /**
+     * 提交解析任务, 队列已满时以 {@link ParseRejectedException} 结束; 取消订阅时移除尚未执行的任务
+     *
+     * @param task 解析任务
+     * @return 解析结果
+     */
+    public <T> Mono<T> submit(Callable<T> task) {
+        return Mono.create(sink -> {
+            FutureTask<Void> future = new FutureTask<>(() -> {
+                try {
+                    sink.success(task.call());
+                } catch (Throwable e) {
+                    sink.error(e);
+                }
+            }, null);
+            try {
+                executor.execute(future);
+            } catch (ParseRejectedException e) {
+                sink.error(e);
+                return;
+            }
+            sink.onCancel(() -> {
+                future.cancel(false);
+                executor.remove(future);
+            });
+        });
+    }
+
+    /**
+     * 队列是否已满, 用于在读取上传内容前提前拒绝
+     */
+    public boolean isSaturated() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(executor, NAME, Tags.empty()).bindTo(registry);
+        FunctionCounter.builder("executor.rejected", rejected, AtomicLong::get)
+                .description("被拒绝的解析任务数")
+                .tag("name", NAME)
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
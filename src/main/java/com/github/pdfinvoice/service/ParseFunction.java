@@ -0,0 +1,101 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.Invoice;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * 发票解析函数 (Spring Cloud Function), 每条消息为一个 pdf; 可由消息中间件或 serverless 适配器调用,
+ * http 调用见 POST /pdf/parse/function (上传内容经 {@link UploadSpooler} 接收后调用 {@link #applyUploads(Flux)})
+ * <p>
+ * 每次向上游请求 batch-size 条消息, 最多 parallelism 个文档并发解析, 解析队列已满时退避重试;
+ * 单个文档失败输出错误记录, 不中断消息流
+ */
+@Component(ParseFunction.NAME)
+public class ParseFunction implements Function<Flux<Message<byte[]>>, Flux<Invoice>> {
+
+    public static final String NAME = "parseInvoice";
+
+    // 消息头: 文件名, 原样写入结果
+    public static final String FILE_NAME_HEADER = "fileName";
+
+    // 消息头: 解析方式, 默认 FULL
+    public static final String MODE_HEADER = "mode";
+
+    private final InvoiceService invoiceService;
+
+    private final UploadSpooler uploadSpooler;
+
+    private final int parallelism;
+
+    private final int batchSize;
+
+    private final boolean ordered;
+
+    public ParseFunction(InvoiceService invoiceService, UploadSpooler uploadSpooler, PdfInvoiceProperties properties) {
+        this.invoiceService = invoiceService;
+        this.uploadSpooler = uploadSpooler;
+        PdfInvoiceProperties.Function function = properties.getFunction();
+        this.parallelism = Math.max(1, function.getParallelism());
+        this.batchSize = Math.max(1, function.getBatchSize());
+        this.ordered = function.isOrdered();
+    }
+
+    @Override
+    public Flux<Invoice> apply(Flux<Message<byte[]>> messages) {
+        return parse(messages, message -> uploadSpooler.spool(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(message.getPayload()))));
+    }
+
+    /**
+     * 解析已接收的上传内容 (http 调用), 上传内容已按内存预算接收 (超过阈值的已落盘), 解析后关闭; 未解析即取消的上传同样关闭
+     *
+     * @param uploads 上传内容, 消息头与 {@link #apply(Flux)} 相同
+     * @return 发票, 单个文档失败返回错误记录
+     */
+    public Flux<Invoice> applyUploads(Flux<Message<SpooledUpload>> uploads) {
+        return parse(uploads, message -> Mono.just(message.getPayload()))
+                .doOnDiscard(Message.class, message -> {
+                    if (message.getPayload() instanceof SpooledUpload upload) {
+                        upload.close();
+                    }
+                });
+    }
+
+    private <T> Flux<Invoice> parse(Flux<Message<T>> messages, Function<Message<T>, Mono<SpooledUpload>> spool) {
+        Flux<Message<T>> batches = messages.limitRate(batchSize);
+        Function<Message<T>, Mono<Invoice>> parse = message -> parse(message, spool);
+        return ordered ? batches.flatMapSequential(parse, parallelism) : batches.flatMap(parse, parallelism);
+    }
+
+    private <T> Mono<Invoice> parse(Message<T> message, Function<Message<T>, Mono<SpooledUpload>> spool) {
+        String fileName = Objects.toString(message.getHeaders().get(FILE_NAME_HEADER), null);
+        return Mono.usingWhen(spool.apply(message),
+                        upload -> Mono.fromCallable(() -> mode(message)).flatMap(mode -> invoiceService.parseQueued(upload, mode)),
+                        upload -> Mono.fromRunnable(upload::close))
+                .map(invoice -> {
+                    invoice.setFileName(fileName);
+                    return invoice;
+                })
+                .onErrorResume(e -> Mono.just(Invoice.error(fileName, e)));
+    }
+
+    private static ParseMode mode(Message<?> message) {
+        String mode = Objects.toString(message.getHeaders().get(MODE_HEADER), null);
+        if (StringUtils.isBlank(mode)) {
+            return ParseMode.FULL;
+        }
+        try {
+            return ParseMode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的解析方式: " + mode);
+        }
+    }
+}
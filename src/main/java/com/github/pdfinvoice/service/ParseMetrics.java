@@ -0,0 +1,130 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.parse.InvoiceFamily;
+import com.github.pdfinvoice.parse.ParseTrace;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 解析指标: 各阶段耗时、上传大小、明细行数及按原因统计的解析失败, 均以识别的发票种类 (family) 为标签; 预检拒绝另按拒绝原因计数
+ * <p>
+ * 未绑定注册表时不记录
+ */
+public class ParseMetrics implements MeterBinder {
+
+    // 版式未识别时的种类标签
+    static final String UNKNOWN = "unknown";
+
+    private static final Pattern CHINESE = Pattern.compile("\\p{IsHan}");
+
+    // 中文异常信息在这些字符前截断, 去掉关键字、文件大小等可变部分
+    private static final String CAUSE_END = ":：,，(（";
+
+    private volatile MeterRegistry registry;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 记录单个解析任务 (一次文档加载) 各阶段耗时, 未执行的阶段不记录
+     *
+     * @param trace 解析任务记录
+     */
+    void stages(ParseTrace trace) {
+        MeterRegistry registry = this.registry;
+        if (Objects.isNull(registry)) {
+            return;
+        }
+        String family = family(trace.family());
+        for (ParseTrace.Stage stage : ParseTrace.Stage.values()) {
+            long nanos = trace.nanos(stage);
+            if (nanos > 0) {
+                Timer.builder("pdf.parse.stage")
+                        .description("解析各阶段耗时")
+                        .tag("stage", stage.tag())
+                        .tag("family", family)
+                        .register(registry)
+                        .record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * 记录解析成功的文档
+     *
+     * @param size       上传大小 (字节)
+     * @param family     发票种类, 未识别 (只读取二维码) 为 null
+     * @param detailRows 明细行数 (含续页)
+     */
+    void document(long size, InvoiceFamily family, int detailRows) {
+        MeterRegistry registry = this.registry;
+        if (Objects.isNull(registry)) {
+            return;
+        }
+        String tag = family(family);
+        DistributionSummary.builder("pdf.upload.size")
+                .description("上传文档大小")
+                .baseUnit("bytes")
+                .tag("family", tag)
+                .register(registry)
+                .record(size);
+        DistributionSummary.builder("pdf.parse.detail.rows")
+                .description("发票明细行数")
+                .tag("family", tag)
+                .register(registry)
+                .record(detailRows);
+    }
+
+    /**
+     * 记录解析失败
+     *
+     * @param trace 解析任务记录, 版式识别前失败时种类为 unknown
+     * @param e     异常
+     */
+    void failure(ParseTrace trace, Throwable e) {
+        MeterRegistry registry = this.registry;
+        if (Objects.isNull(registry)) {
+            return;
+        }
+        Counter.builder("pdf.parse.failures")
+                .description("解析失败数")
+                .tag("family", family(trace.family()))
+                .tag("cause", cause(e))
+                .register(registry)
+                .increment();
+        if (e instanceof DocumentRejectedException rejected) {
+            Counter.builder("pdf.triage.rejections")
+                    .description("预检拒绝的文档数")
+                    .tag("reason", rejected.getReason().tag())
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    /**
+     * 失败原因标签: 中文异常信息取首个分隔符前的部分 (如 "发票号码区块不存在"), 否则为异常类名
+     */
+    public static String cause(Throwable e) {
+        String message = e.getMessage();
+        if (StringUtils.isBlank(message) || !CHINESE.matcher(message).find()) {
+            return e.getClass().getSimpleName();
+        }
+        int end = StringUtils.indexOfAny(message, CAUSE_END);
+        String cause = StringUtils.strip(end < 0 ? message : message.substring(0, end));
+        return cause.isEmpty() ? e.getClass().getSimpleName() : cause;
+    }
+
+    private static String family(InvoiceFamily family) {
+        return Objects.isNull(family) ? UNKNOWN : family.name().toLowerCase();
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.pdfinvoice.service;
+
+/**
+ * 解析方式
+ */
+public enum ParseMode {
+    // 版面解析
+    FULL,
+    // 只读取首页二维码 (发票代码、号码、金额、日期、校验码), 未找到二维码时版面解析
+    QR,
+    // 版面解析并与二维码核对, 不一致时解析失败; 未找到二维码时不核对
+    VERIFY
+}
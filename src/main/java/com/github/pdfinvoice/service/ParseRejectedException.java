@@ -0,0 +1,13 @@
+package com.github.pdfinvoice.service;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 解析队列已满, 拒绝新的解析任务
+ */
+public class ParseRejectedException extends RejectedExecutionException {
+
+    public ParseRejectedException(String message) {
+        super(message);
+    }
+}
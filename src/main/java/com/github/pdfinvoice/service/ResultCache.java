@@ -0,0 +1,328 @@
+package com.github.pdfinvoice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.Invoice;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 解析结果缓存, 以 pdf 内容 SHA-256 为键, 结果以 json 保存, 每次命中返回新的副本
+ * <p>
+ * 内存中按最近使用及过期时间淘汰; 可选文件缓存目录, 重启后仍有效, 同一主机的多个实例可共享.
+ * 同一内容同时只解析一次, 并发请求共享解析结果, 所有请求取消时取消解析; 解析失败不缓存
+ */
+@Slf4j
+@Component
+public class ResultCache implements MeterBinder {
+
+    private static final String SUFFIX = ".json";
+
+    private final ObjectMapper objectMapper;
+
+    private final int maxEntries;
+
+    private final long ttl;
+
+    private final Path dir;
+
+    private final Map<String, Entry> entries;
+
+    private final ConcurrentMap<String, Mono<byte[]>> inflight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong fileHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong shared = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    public ResultCache(PdfInvoiceProperties properties, ObjectMapper objectMapper) {
+        PdfInvoiceProperties.ResultCache config = properties.getResultCache();
+        this.objectMapper = objectMapper;
+        this.maxEntries = config.getMaxEntries();
+        this.ttl = config.getTtl().toMillis();
+        this.dir = config.getDir();
+        this.entries = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean evict = size() > maxEntries;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+        if (isEnabled() && Objects.nonNull(dir)) {
+            try {
+                Files.createDirectories(dir);
+            } catch (IOException e) {
+                throw new UncheckedIOException("解析结果缓存目录创建失败: " + dir, e);
+            }
+            Schedulers.boundedElastic().schedule(this::purgeExpired);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * 查询缓存, 未命中时由 loader 解析并写入缓存
+     *
+     * @param key    内容 SHA-256, 为空时不缓存
+     * @param loader 解析
+     * @return 发票, 每次返回新的副本
+     */
+    public Mono<Invoice> get(String key, Supplier<Mono<Invoice>> loader) {
+        if (!isEnabled() || Objects.isNull(key)) {
+            return loader.get();
+        }
+        return bytes(key, loader).map(this::decode);
+    }
+
+    private Mono<byte[]> bytes(String key, Supplier<Mono<Invoice>> loader) {
+        return Mono.defer(() -> {
+            byte[] cached = memory(key);
+            if (Objects.nonNull(cached)) {
+                hits.incrementAndGet();
+                return Mono.just(cached);
+            }
+            AtomicReference<Mono<byte[]>> created = new AtomicReference<>();
+            Mono<byte[]> flight = inflight.computeIfAbsent(key, k -> {
+                created.set(load(k, loader));
+                return created.get();
+            });
+            boolean joined = created.get() == null;
+            if (joined) {
+                shared.incrementAndGet();
+            }
+            // 解析刚完成时加入的请求收不到结果, 此时结果已在内存中; 共享的解析失败或取消后加入的请求重新查询, 使用自己的 loader
+            return flight.switchIfEmpty(Mono.defer(() -> {
+                byte[] bytes = memory(key);
+                return Objects.nonNull(bytes) || !joined ? Mono.justOrEmpty(bytes) : bytes(key, loader);
+            }));
+        });
+    }
+
+    /**
+     * 共享的解析; 结束 (完成、失败或全部取消) 时先移出 inflight 再通知订阅者,
+     * 结束后仍持有该 Mono 的请求再次订阅时不重新执行 loader (上传内容可能已关闭), 返回空
+     */
+    private Mono<byte[]> load(String key, Supplier<Mono<Invoice>> loader) {
+        AtomicReference<Mono<byte[]>> self = new AtomicReference<>();
+        AtomicBoolean connected = new AtomicBoolean();
+        Mono<byte[]> source = read(key)
+                .switchIfEmpty(Mono.defer(() -> {
+                    misses.incrementAndGet();
+                    return loader.get().map(this::encode).flatMap(bytes -> write(key, bytes).thenReturn(bytes));
+                }))
+                .doOnNext(bytes -> putMemory(key, bytes))
+                .doOnTerminate(() -> inflight.remove(key, self.get()))
+                .doOnCancel(() -> inflight.remove(key, self.get()));
+        Mono<byte[]> once = Mono.defer(() -> connected.compareAndSet(false, true) ? source : Mono.empty());
+        self.set(once.flux().publish().refCount().singleOrEmpty());
+        return self.get();
+    }
+
+    private byte[] memory(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (Objects.isNull(entry)) {
+                return null;
+            }
+            if (entry.expiresAt() <= System.currentTimeMillis()) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                return null;
+            }
+            return entry.bytes();
+        }
+    }
+
+    private void putMemory(String key, byte[] bytes) {
+        synchronized (entries) {
+            entries.put(key, new Entry(bytes, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * 读取文件缓存, 过期文件删除
+     */
+    private Mono<byte[]> read(String key) {
+        if (Objects.isNull(dir)) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> {
+            Path file = dir.resolve(key + SUFFIX);
+            try {
+                if (Files.getLastModifiedTime(file).toMillis() + ttl <= System.currentTimeMillis()) {
+                    Files.deleteIfExists(file);
+                    expirations.incrementAndGet();
+                    return null;
+                }
+                byte[] bytes = Files.readAllBytes(file);
+                fileHits.incrementAndGet();
+                return bytes;
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                log.warn("解析结果缓存读取失败 {}", file, e);
+                return null;
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 写入文件缓存, 先写临时文件再原子替换, 其他实例不会读到不完整的内容
+     */
+    private Mono<Void> write(String key, byte[] bytes) {
+        if (Objects.isNull(dir)) {
+            return Mono.empty();
+        }
+        return Mono.<Void>fromRunnable(() -> {
+            try {
+                Path temp = Files.createTempFile(dir, key, ".tmp");
+                try {
+                    Files.write(temp, bytes);
+                    Files.move(temp, dir.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException e) {
+                log.warn("解析结果缓存写入失败 {}", key, e);
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 删除过期的缓存文件
+     *
+     * @return 删除的文件数
+     */
+    public int purgeExpired() {
+        if (Objects.isNull(dir)) {
+            return 0;
+        }
+        int n = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() + ttl <= now && Files.deleteIfExists(file)) {
+                    n++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("解析结果缓存清理失败 {}", dir, e);
+        }
+        expirations.addAndGet(n);
+        return n;
+    }
+
+    private byte[] encode(Invoice invoice) {
+        try {
+            return objectMapper.writeValueAsBytes(invoice);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Invoice decode(byte[] bytes) {
+        try {
+            return objectMapper.readValue(bytes, Invoice.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getFileHits() {
+        return fileHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getShared() {
+        return shared.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!isEnabled()) {
+            return;
+        }
+        Gauge.builder("pdf.result.cache.size", this, ResultCache::size)
+                .description("内存中缓存的解析结果数")
+                .register(registry);
+        counter(registry, "pdf.result.cache.requests", "result", "hit", ResultCache::getHits);
+        counter(registry, "pdf.result.cache.requests", "result", "file-hit", ResultCache::getFileHits);
+        counter(registry, "pdf.result.cache.requests", "result", "miss", ResultCache::getMisses);
+        counter(registry, "pdf.result.cache.requests", "result", "shared", ResultCache::getShared);
+        counter(registry, "pdf.result.cache.evictions", "cause", "size", ResultCache::getEvictions);
+        counter(registry, "pdf.result.cache.evictions", "cause", "expired", ResultCache::getExpirations);
+    }
+
+    private void counter(MeterRegistry registry, String name, String tag, String value, ToDoubleFunction<ResultCache> f) {
+        FunctionCounter.builder(name, this, f)
+                .description("解析结果缓存")
+                .tag(tag, value)
+                .register(registry);
+    }
+
+    /**
+     * 缓存条目
+     *
+     * @param bytes     发票 json
+     * @param expiresAt 过期时间
+     */
+    private record Entry(byte[] bytes, long expiresAt) {
+    }
+}
@@ -0,0 +1,387 @@
+package com.github.pdfinvoice.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 跨文档共享的字体及颜色空间, 以对象内容 (字典及流原始字节, 含间接引用) 的 SHA-256 为键, 同一开票方嵌入的相同字体子集只解析一次
+ * <p>
+ * pdfbox 字体非线程安全, 实例同时只借给一个文档, 文档关闭时归还; 空闲实例数或占用超过上限时淘汰最久未使用的内容.
+ * 占用按内容中流的原始长度 (嵌入字体程序、ICC 配置) 加固定开销估算, 解析后的字体程序与其大致成正比.
+ * 计算内容哈希时解析字体引用的全部对象, 文档关闭后实例不再依赖文档
+ */
+class SharedResourceCache implements MeterBinder {
+
+    // 内容哈希遍历深度上限
+    private static final int MAX_DEPTH = 16;
+
+    // 每个实例除流以外的估算开销 (字典、解析后的字形表等)
+    private static final long INSTANCE_OVERHEAD = 1024;
+
+    private final int capacity;
+
+    private final long maxBytes;
+
+    // 内容键 -> 空闲实例, 按访问顺序
+    private final LinkedHashMap<String, Idle> idle = new LinkedHashMap<>(16, 0.75F, true);
+
+    private int size;
+
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity 空闲实例数上限, 0 为不共享
+     * @param maxBytes 空闲实例估算占用上限
+     */
+    SharedResourceCache(int capacity, long maxBytes) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 单文档资源缓存, 图片不缓存; 字体、颜色空间先从共享缓存借用
+     */
+    DefaultResourceCache forDocument() {
+        return new DocumentResources();
+    }
+
+    /**
+     * 归还文档使用过的共享资源
+     *
+     * @param resources {@link #forDocument()} 的返回值
+     */
+    void release(DefaultResourceCache resources) {
+        if (resources instanceof DocumentResources document) {
+            document.release();
+        }
+    }
+
+    private synchronized Object borrow(ContentKey key) {
+        Idle instances = idle.get(key.id());
+        if (Objects.isNull(instances) || instances.resources.isEmpty()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        size--;
+        bytes -= instances.bytes;
+        Object resource = instances.resources.pop();
+        if (instances.resources.isEmpty()) {
+            idle.remove(key.id());
+        }
+        return resource;
+    }
+
+    private synchronized void giveBack(List<Map.Entry<ContentKey, Object>> resources) {
+        for (Map.Entry<ContentKey, Object> e : resources) {
+            idle.computeIfAbsent(e.getKey().id(), k -> new Idle(e.getKey().bytes())).resources.push(e.getValue());
+            size++;
+            bytes += e.getKey().bytes();
+        }
+        Iterator<Idle> eldest = idle.values().iterator();
+        while ((size > capacity || bytes > maxBytes) && eldest.hasNext()) {
+            Idle instances = eldest.next();
+            size -= instances.resources.size();
+            bytes -= instances.bytes * instances.resources.size();
+            evictions.add(instances.resources.size());
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 空闲实例的估算占用
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("pdf.resource.cache.size", this, SharedResourceCache::size)
+                .description("空闲的共享字体、颜色空间数")
+                .register(registry);
+        Gauge.builder("pdf.resource.cache.bytes", this, SharedResourceCache::bytes)
+                .description("空闲的共享字体、颜色空间估算占用")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("pdf.resource.cache.requests", this, SharedResourceCache::getHits)
+                .description("共享字体、颜色空间查询数")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("pdf.resource.cache.requests", this, SharedResourceCache::getMisses)
+                .description("共享字体、颜色空间查询数")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("pdf.resource.cache.evictions", this, SharedResourceCache::getEvictions)
+                .description("淘汰的共享字体、颜色空间数")
+                .register(registry);
+    }
+
+    /**
+     * 内容键
+     *
+     * @param type   资源类型
+     * @param object 资源对象
+     * @return 键, 无法计算 (读取失败) 时为 null
+     */
+    static ContentKey key(String type, COSBase object) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long[] streams = new long[1];
+            digest(digest, object, Collections.newSetFromMap(new IdentityHashMap<>()), 0, streams);
+            return new ContentKey(type + ":" + HexFormat.of().formatHex(digest.digest()), INSTANCE_OVERHEAD + streams[0]);
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param streams 累计流的原始长度
+     */
+    private static void digest(MessageDigest digest, COSBase base, Set<COSBase> path, int depth, long[] streams) throws IOException {
+        if (base instanceof COSObject object) {
+            base = object.getObject();
+        }
+        if (depth > MAX_DEPTH) {
+            throw new IOException("对象嵌套过深");
+        }
+        if (base instanceof COSDictionary dictionary) {
+            // 循环引用只记录标记
+            if (!path.add(dictionary)) {
+                digest.update((byte) 'R');
+                return;
+            }
+            digest.update((byte) (dictionary instanceof COSStream ? 'T' : 'D'));
+            List<COSName> keys = new ArrayList<>(dictionary.keySet());
+            keys.sort(null);
+            update(digest, keys.size());
+            for (COSName key : keys) {
+                update(digest, key.getName().getBytes(StandardCharsets.UTF_8));
+                digest(digest, dictionary.getItem(key), path, depth + 1, streams);
+            }
+            if (dictionary instanceof COSStream stream) {
+                try (InputStream in = stream.createRawInputStream()) {
+                    update(digest, stream.getLength());
+                    streams[0] += stream.getLength();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+            path.remove(dictionary);
+        } else if (base instanceof COSArray array) {
+            if (!path.add(array)) {
+                digest.update((byte) 'R');
+                return;
+            }
+            digest.update((byte) 'A');
+            update(digest, array.size());
+            for (int i = 0; i < array.size(); i++) {
+                digest(digest, array.get(i), path, depth + 1, streams);
+            }
+            path.remove(array);
+        } else if (base instanceof COSName name) {
+            digest.update((byte) 'N');
+            update(digest, name.getName().getBytes(StandardCharsets.UTF_8));
+        } else if (base instanceof COSString string) {
+            digest.update((byte) 'S');
+            update(digest, string.getBytes());
+        } else if (base instanceof COSInteger integer) {
+            digest.update((byte) 'I');
+            update(digest, integer.longValue());
+        } else if (base instanceof COSFloat number) {
+            digest.update((byte) 'F');
+            update(digest, Float.floatToIntBits(number.floatValue()));
+        } else if (base instanceof COSBoolean bool) {
+            digest.update((byte) (bool.getValue() ? 'Y' : 'n'));
+        } else {
+            digest.update((byte) '0');
+        }
+    }
+
+    private static void update(MessageDigest digest, byte[] bytes) {
+        update(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, long value) {
+        digest.update(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+    }
+
+    /**
+     * 内容键
+     *
+     * @param id    资源类型及内容哈希
+     * @param bytes 单个实例的估算占用
+     */
+    record ContentKey(String id, long bytes) {
+    }
+
+    /**
+     * 同一内容的空闲实例
+     */
+    private static final class Idle {
+
+        private final long bytes;
+
+        private final ArrayDeque<Object> resources = new ArrayDeque<>();
+
+        Idle(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * 单文档资源缓存: 文档内按间接对象复用, 未命中时按内容从共享缓存借用, 文档关闭时归还借用及新建的实例
+     */
+    private class DocumentResources extends DefaultResourceCache {
+
+        // 本文档持有的共享资源 (内容键, 实例)
+        private final List<Map.Entry<ContentKey, Object>> held = new ArrayList<>();
+
+        // 已查询共享缓存但未命中的对象, 新建后以该键归还
+        private final Map<COSObject, ContentKey> pending = new IdentityHashMap<>();
+
+        private boolean released;
+
+        @Override
+        public PDFont getFont(COSObject indirect) {
+            PDFont font = super.getFont(indirect);
+            if (Objects.isNull(font) && !released && indirect.getObject() instanceof COSDictionary dictionary
+                    && !COSName.TYPE3.equals(dictionary.getCOSName(COSName.SUBTYPE))) {
+                font = (PDFont) lookup("font", indirect);
+                if (Objects.nonNull(font)) {
+                    super.put(indirect, font);
+                }
+            }
+            return font;
+        }
+
+        @Override
+        public void put(COSObject indirect, PDFont font) {
+            super.put(indirect, font);
+            hold(indirect, font);
+        }
+
+        @Override
+        public PDColorSpace getColorSpace(COSObject indirect) {
+            PDColorSpace colorSpace = super.getColorSpace(indirect);
+            if (Objects.isNull(colorSpace) && !released) {
+                colorSpace = (PDColorSpace) lookup("colorspace", indirect);
+                if (Objects.nonNull(colorSpace)) {
+                    super.put(indirect, colorSpace);
+                }
+            }
+            return colorSpace;
+        }
+
+        @Override
+        public void put(COSObject indirect, PDColorSpace colorSpace) {
+            super.put(indirect, colorSpace);
+            hold(indirect, colorSpace);
+        }
+
+        @Override
+        public void put(COSObject indirect, PDXObject xobject) {
+            if (!(xobject instanceof PDImageXObject)) {
+                super.put(indirect, xobject);
+            }
+        }
+
+        private Object lookup(String type, COSObject indirect) {
+            if (capacity == 0 || maxBytes == 0) {
+                return null;
+            }
+            ContentKey key = key(type, indirect);
+            if (Objects.isNull(key)) {
+                return null;
+            }
+            Object resource = borrow(key);
+            if (Objects.isNull(resource)) {
+                pending.put(indirect, key);
+            } else {
+                held.add(Map.entry(key, resource));
+            }
+            return resource;
+        }
+
+        private void hold(COSObject indirect, Object resource) {
+            ContentKey key = pending.remove(indirect);
+            if (Objects.nonNull(key) && !released) {
+                held.add(Map.entry(key, resource));
+            }
+        }
+
+        void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            pending.clear();
+            giveBack(held);
+            held.clear();
+        }
+    }
+}
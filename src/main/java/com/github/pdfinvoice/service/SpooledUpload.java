@@ -0,0 +1,101 @@
+package com.github.pdfinvoice.service;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessReadMemoryMappedFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 已接收的上传内容, 小文件在内存中, 超过阈值的落盘为临时文件; 关闭时归还内存额度并删除临时文件
+ */
+public class SpooledUpload implements Closeable {
+
+    private final byte[] bytes;
+
+    private final Path file;
+
+    private final long size;
+
+    private final boolean memoryMapped;
+
+    private final Runnable release;
+
+    // 内容 SHA-256 (十六进制)
+    private final String sha256;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private SpooledUpload(byte[] bytes, Path file, long size, boolean memoryMapped, Runnable release, String sha256) {
+        this.bytes = bytes;
+        this.file = file;
+        this.size = size;
+        this.memoryMapped = memoryMapped;
+        this.release = release;
+        this.sha256 = sha256;
+    }
+
+    static SpooledUpload memory(byte[] bytes, Runnable release, String sha256) {
+        return new SpooledUpload(bytes, null, bytes.length, false, release, sha256);
+    }
+
+    static SpooledUpload file(Path file, long size, boolean memoryMapped, String sha256) {
+        return new SpooledUpload(null, file, size, memoryMapped, () -> {
+        }, sha256);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public String sha256() {
+        return sha256;
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * 以 pdfbox 随机读取方式打开, 内存内容直接包装不复制
+     */
+    public RandomAccessRead open() throws IOException {
+        checkClosed();
+        if (isInMemory()) {
+            return new RandomAccessReadBuffer(bytes);
+        }
+        return memoryMapped ? new RandomAccessReadMemoryMappedFile(file) : new RandomAccessReadBufferedFile(file);
+    }
+
+    public InputStream inputStream() throws IOException {
+        checkClosed();
+        return isInMemory() ? new ByteArrayInputStream(bytes) : Files.newInputStream(file);
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed.get()) {
+            throw new IOException("上传内容已释放");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        release.run();
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
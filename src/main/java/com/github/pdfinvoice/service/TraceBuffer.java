@@ -0,0 +1,140 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.ParseTrace;
+import org.springframework.stereotype.Component;
+
+import java.awt.geom.Rectangle2D;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最近的解析记录 (区块、区块文本、明细行), 按比例采样, 失败及请求要求时总是记录; 超出容量时丢弃最早的记录
+ * <p>
+ * 未采样的解析不生成记录, 解析过程只保留已有结果的引用
+ */
+@Component
+public class TraceBuffer {
+
+    private final double sampleRate;
+
+    private final boolean onFailure;
+
+    private final int capacity;
+
+    // 按记录时间排列, 访问时加锁
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    public TraceBuffer(PdfInvoiceProperties properties) {
+        PdfInvoiceProperties.Trace trace = properties.getTrace();
+        this.sampleRate = trace.getSampleRate();
+        this.onFailure = trace.isOnFailure();
+        this.capacity = Math.max(0, trace.getCapacity());
+    }
+
+    /**
+     * 按采样比例决定是否记录
+     *
+     * @return 记录 id, 不记录为 null
+     */
+    public String sample() {
+        return capacity > 0 && sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate ? newId() : null;
+    }
+
+    public static String newId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * 记录解析任务, 未指定 id 时只记录失败
+     *
+     * @param id     记录 id, 同一文档的各页任务相同; 为 null 时未采样
+     * @param sha256 内容哈希
+     * @param mode   解析方式
+     * @param trace  解析任务记录
+     * @param error  失败原因, 成功为 null
+     */
+    void record(String id, String sha256, ParseMode mode, ParseTrace trace, Throwable error) {
+        if (capacity == 0 || (Objects.isNull(id) && (Objects.isNull(error) || !onFailure))) {
+            return;
+        }
+        Map<String, Double> stages = new LinkedHashMap<>();
+        for (ParseTrace.Stage stage : ParseTrace.Stage.values()) {
+            if (trace.nanos(stage) > 0) {
+                stages.put(stage.tag(), trace.nanos(stage) / 1e6);
+            }
+        }
+        Map<String, double[]> regions = new LinkedHashMap<>();
+        trace.regions().forEach((k, v) -> regions.put(k, bounds(v)));
+        Entry entry = new Entry(Objects.nonNull(id) ? id : newId(), Instant.now(), sha256, mode,
+                Objects.isNull(trace.family()) ? null : trace.family().name(),
+                Objects.isNull(error) ? null : Objects.toString(error.getMessage(), error.getClass().getName()),
+                stages, regions, new TreeMap<>(trace.regionText()), trace.detailLines());
+        synchronized (entries) {
+            if (entries.size() == capacity) {
+                entries.removeFirst();
+            }
+            entries.addLast(entry);
+        }
+    }
+
+    private static double[] bounds(Rectangle2D rectangle) {
+        return new double[]{rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight()};
+    }
+
+    /**
+     * 最近的记录概要, 新记录在前
+     */
+    public List<Summary> list() {
+        List<Summary> summaries = new ArrayList<>();
+        synchronized (entries) {
+            entries.descendingIterator().forEachRemaining(e -> summaries.add(new Summary(e.id(), e.time(), e.sha256(), e.family(), e.error())));
+        }
+        return summaries;
+    }
+
+    /**
+     * 按 id 查找记录, 每个解析任务 (首页或续页) 一条
+     *
+     * @param id 记录 id
+     * @return 记录, 已丢弃或不存在时为空
+     */
+    public List<Entry> find(String id) {
+        synchronized (entries) {
+            return entries.stream().filter(e -> e.id().equals(id)).toList();
+        }
+    }
+
+    /**
+     * 解析记录
+     *
+     * @param id          记录 id
+     * @param time        记录时间
+     * @param sha256      内容哈希
+     * @param mode        解析方式
+     * @param family      发票种类, 未识别为 null
+     * @param error       失败原因, 成功为 null
+     * @param stages      各阶段耗时 (毫秒)
+     * @param regions     首页区块 [x, y, width, height]
+     * @param regionText  首页区块文本
+     * @param detailLines 页下标 -> 明细区文字行
+     */
+    public record Entry(String id, Instant time, String sha256, ParseMode mode, String family, String error,
+                        Map<String, Double> stages, Map<String, double[]> regions, Map<String, String> regionText,
+                        Map<Integer, List<String>> detailLines) {
+    }
+
+    /**
+     * 解析记录概要
+     */
+    public record Summary(String id, Instant time, String sha256, String family, String error) {
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 全局上传内存额度, 内存中的上传字节数超过额度时挂起读取, 向客户端施加背压
+ */
+@Component
+public class UploadBudget implements MeterBinder {
+
+    private final long capacity;
+
+    private long available;
+
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    public UploadBudget(PdfInvoiceProperties properties) {
+        this.capacity = properties.getUpload().getMaxInFlight().toBytes();
+        this.available = capacity;
+    }
+
+    /**
+     * 申请额度, 额度不足时按申请顺序等待; 单次申请超过总额度时按总额度计
+     *
+     * @param bytes 字节数
+     * @return 实际占用的字节数, 需通过 {@link #release(long)} 归还
+     */
+    public Mono<Long> acquire(long bytes) {
+        long n = Math.min(bytes, capacity);
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(n, sink);
+            synchronized (this) {
+                if (waiters.isEmpty() && available >= n) {
+                    available -= n;
+                    waiter = null;
+                } else {
+                    waiters.add(waiter);
+                }
+            }
+            if (waiter == null) {
+                sink.success(n);
+                return;
+            }
+            Waiter w = waiter;
+            // 仅在结果未送达时触发, 已分配的额度需要归还
+            sink.onCancel(() -> {
+                boolean queued;
+                synchronized (this) {
+                    queued = waiters.remove(w);
+                }
+                if (!queued) {
+                    release(w.bytes);
+                }
+            });
+        });
+    }
+
+    /**
+     * 尝试立即申请额度, 有等待者或额度不足时失败
+     *
+     * @param bytes 字节数, 超过总额度时按总额度计
+     * @return 是否成功
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        long n = Math.min(bytes, capacity);
+        if (!waiters.isEmpty() || available < n) {
+            return false;
+        }
+        available -= n;
+        return true;
+    }
+
+    public void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            available = Math.min(capacity, available + bytes);
+            while (!waiters.isEmpty() && waiters.peek().bytes <= available) {
+                Waiter waiter = waiters.poll();
+                available -= waiter.bytes;
+                ready.add(waiter);
+            }
+        }
+        ready.forEach(e -> e.sink.success(e.bytes));
+    }
+
+    public synchronized long getInFlight() {
+        return capacity - available;
+    }
+
+    public synchronized int getWaiting() {
+        return waiters.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("pdf.upload.inflight", this, UploadBudget::getInFlight)
+                .description("内存中的上传字节数")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("pdf.upload.waiting", this, UploadBudget::getWaiting)
+                .description("等待上传额度的读取数")
+                .register(registry);
+    }
+
+    private record Waiter(long bytes, MonoSink<Long> sink) {
+    }
+}
@@ -0,0 +1,215 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 上传内容接收, 不超过阈值的保留在内存并只复制一次, 超过阈值的落盘; 内存占用受 {@link UploadBudget} 限制
+ * <p>
+ * 接收时同时计算内容的 SHA-256, 用于解析结果缓存
+ */
+@Component
+@RequiredArgsConstructor
+public class UploadSpooler {
+
+    private final UploadBudget budget;
+
+    private final PdfInvoiceProperties properties;
+
+    /**
+     * 接收上传内容, 失败或取消时释放已占用的内存、额度与临时文件
+     * <p>
+     * 仅未占用额度的新上传会等待额度; 已占用额度的上传在额度不足时改为落盘, 避免相互等待
+     *
+     * @param content 上传内容
+     * @return 上传文件, 使用完毕需关闭
+     */
+    public Mono<SpooledUpload> spool(Flux<DataBuffer> content) {
+        return spool(content, true);
+    }
+
+    /**
+     * 接收嵌套内容 (如压缩包条目), 调用方已持有额度, 额度不足时直接落盘而不等待
+     *
+     * @param content 内容
+     * @return 上传文件, 使用完毕需关闭
+     */
+    public Mono<SpooledUpload> spoolNested(Flux<DataBuffer> content) {
+        return spool(content, false);
+    }
+
+    private Mono<SpooledUpload> spool(Flux<DataBuffer> content, boolean await) {
+        return Mono.usingWhen(Mono.fromSupplier(Spool::new),
+                spool -> content
+                        .concatMap(buffer -> {
+                            int n = buffer.readableByteCount();
+                            if (!spool.spilling(buffer)) {
+                                if (await && spool.isEmpty()) {
+                                    return budget.acquire(n).doOnNext(acquired -> spool.add(buffer, acquired)).then();
+                                }
+                                if (budget.tryAcquire(n)) {
+                                    spool.add(buffer, n);
+                                    return Mono.empty();
+                                }
+                            }
+                            return Mono.fromRunnable(() -> spool.write(buffer)).subscribeOn(Schedulers.boundedElastic());
+                        })
+                        .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                        .then(Mono.fromCallable(spool::finish).subscribeOn(Schedulers.boundedElastic())),
+                spool -> Mono.empty(),
+                (spool, e) -> Mono.fromRunnable(spool::discard),
+                spool -> Mono.fromRunnable(spool::discard));
+    }
+
+    private class Spool {
+
+        private final List<DataBuffer> buffers = new ArrayList<>();
+
+        private long size;
+
+        // 内存中内容占用的额度
+        private long reserved;
+
+        private Path file;
+
+        private FileChannel channel;
+
+        private SpooledUpload result;
+
+        private final MessageDigest digest = sha256();
+
+        private boolean done;
+
+        synchronized boolean spilling(DataBuffer buffer) {
+            return Objects.nonNull(channel) || size + buffer.readableByteCount() > properties.getUpload().getSpoolThreshold().toBytes();
+        }
+
+        synchronized boolean isEmpty() {
+            return buffers.isEmpty() && Objects.isNull(channel);
+        }
+
+        synchronized void add(DataBuffer buffer, long acquired) {
+            if (done) {
+                DataBufferUtils.release(buffer);
+                budget.release(acquired);
+                return;
+            }
+            reserved += acquired;
+            buffers.add(buffer);
+            size += buffer.readableByteCount();
+        }
+
+        synchronized void write(DataBuffer buffer) {
+            try {
+                if (done) {
+                    return;
+                }
+                if (Objects.isNull(channel)) {
+                    // 超过阈值或额度不足, 已接收的内容一并落盘并归还额度
+                    PdfInvoiceProperties.Upload upload = properties.getUpload();
+                    file = Objects.isNull(upload.getTempDir()) ? Files.createTempFile("pdf-upload-", ".pdf") : Files.createTempFile(upload.getTempDir(), "pdf-upload-", ".pdf");
+                    channel = FileChannel.open(file, StandardOpenOption.WRITE);
+                    for (DataBuffer e : buffers) {
+                        transfer(e);
+                        DataBufferUtils.release(e);
+                    }
+                    buffers.clear();
+                    budget.release(reserved);
+                    reserved = 0;
+                }
+                size += transfer(buffer);
+            } catch (IOException e) {
+                throw new IllegalStateException("上传内容写入临时文件失败", e);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        private int transfer(DataBuffer buffer) throws IOException {
+            int n = buffer.readableByteCount();
+            try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                while (iterator.hasNext()) {
+                    ByteBuffer byteBuffer = iterator.next();
+                    digest.update(byteBuffer.duplicate());
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                }
+            }
+            return n;
+        }
+
+        synchronized SpooledUpload finish() throws IOException {
+            done = true;
+            if (Objects.nonNull(channel)) {
+                channel.close();
+                result = SpooledUpload.file(file, size, properties.getUpload().isMemoryMapped(), hex(digest));
+                return result;
+            }
+            byte[] bytes = new byte[Math.toIntExact(size)];
+            int offset = 0;
+            for (DataBuffer e : buffers) {
+                int n = e.readableByteCount();
+                e.read(bytes, offset, n);
+                offset += n;
+                DataBufferUtils.release(e);
+            }
+            buffers.clear();
+            digest.update(bytes);
+            long held = reserved;
+            reserved = 0;
+            result = SpooledUpload.memory(bytes, () -> budget.release(held), hex(digest));
+            return result;
+        }
+
+        synchronized void discard() {
+            done = true;
+            buffers.forEach(DataBufferUtils::release);
+            buffers.clear();
+            budget.release(reserved);
+            reserved = 0;
+            try {
+                if (Objects.nonNull(channel)) {
+                    channel.close();
+                }
+                if (Objects.nonNull(result)) {
+                    result.close();
+                } else if (Objects.nonNull(file)) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
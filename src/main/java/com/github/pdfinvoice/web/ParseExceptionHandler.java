@@ -0,0 +1,63 @@
+package com.github.pdfinvoice.web;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.ParseTimeoutException;
+import com.github.pdfinvoice.service.DocumentRejectedException;
+import com.github.pdfinvoice.service.DocumentTooLargeException;
+import com.github.pdfinvoice.service.ParseRejectedException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * 解析异常响应
+ */
+@RestControllerAdvice
+@RequiredArgsConstructor
+public class ParseExceptionHandler {
+
+    private final PdfInvoiceProperties properties;
+
+    /**
+     * 解析队列已满, 返回 503 并提示重试时间
+     */
+    @ExceptionHandler(ParseRejectedException.class)
+    public ResponseEntity<ProblemDetail> rejected(ParseRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(properties.getWorker().getRetryAfter().toSeconds()))
+                .body(ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage()));
+    }
+
+    /**
+     * 文档超出单文档内存预算, 返回 413
+     */
+    @ExceptionHandler(DocumentTooLargeException.class)
+    public ResponseEntity<ProblemDetail> tooLarge(DocumentTooLargeException e) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(ProblemDetail.forStatusAndDetail(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage()));
+    }
+
+    /**
+     * 文档未通过预检, 返回 422, reason 为拒绝原因
+     */
+    @ExceptionHandler(DocumentRejectedException.class)
+    public ResponseEntity<ProblemDetail> unprocessable(DocumentRejectedException e) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+        problem.setProperty("reason", e.getReason().tag());
+        return ResponseEntity.unprocessableEntity().body(problem);
+    }
+
+    /**
+     * 文档超出解析时限或操作符上限, 返回 422, reason 为 deadline 或 operators
+     */
+    @ExceptionHandler(ParseTimeoutException.class)
+    public ResponseEntity<ProblemDetail> timeout(ParseTimeoutException e) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+        problem.setProperty("reason", e.getReason().tag());
+        return ResponseEntity.unprocessableEntity().body(problem);
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.pdfinvoice.web;
+
+import com.github.pdfinvoice.service.TraceBuffer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 解析记录查询: /actuator/parsetraces 列出最近的记录, /actuator/parsetraces/{id} 返回区块、区块文本及明细行
+ * <p>
+ * 记录含发票内容, 默认不暴露; 需要时在独立的管理端口 (management.server.port, 不对外开放) 上暴露
+ */
+@Component
+@Endpoint(id = "parsetraces")
+@RequiredArgsConstructor
+public class ParseTraceEndpoint {
+
+    private final TraceBuffer traceBuffer;
+
+    @ReadOperation
+    public List<TraceBuffer.Summary> traces() {
+        return traceBuffer.list();
+    }
+
+    @ReadOperation
+    public List<TraceBuffer.Entry> trace(@Selector String id) {
+        return traceBuffer.find(id);
+    }
+}
@@ -1,43 +1,302 @@
 package com.github.pdfinvoice.web;
 
-import com.github.pdfinvoice.parse.CustomInvoiceTextStripper;
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
 import com.github.pdfinvoice.parse.Invoice;
-import org.apache.pdfbox.Loader;
-import org.apache.pdfbox.io.IOUtils;
-import org.apache.pdfbox.io.RandomAccessRead;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.fdf.FDFDocument;
-import org.springframework.core.io.buffer.DataBuffer;
+import com.github.pdfinvoice.service.DocumentTooLargeException;
+import com.github.pdfinvoice.service.InvoiceService;
+import com.github.pdfinvoice.service.ParseExecutor;
+import com.github.pdfinvoice.service.ParseFunction;
+import com.github.pdfinvoice.service.ParseMode;
+import com.github.pdfinvoice.service.ParseRejectedException;
+import com.github.pdfinvoice.service.SpooledUpload;
+import com.github.pdfinvoice.service.TraceBuffer;
+import com.github.pdfinvoice.service.UploadSpooler;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.multipart.FilePart;
-import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 @RestController
 @RequestMapping("pdf")
+@RequiredArgsConstructor
 public class PdfCtrl {
 
+    private static final int ENTRY_BUFFER_SIZE = 8192;
 
+    // 请求头为 true 且配置允许 (trace.allow-header) 时记录解析过程, 响应头返回记录 id
+    static final String TRACE_HEADER = "X-Parse-Trace";
+
+    static final String TRACE_ID_HEADER = "X-Parse-Trace-Id";
+
+    private final InvoiceService invoiceService;
+
+    private final ParseExecutor parseExecutor;
+
+    private final UploadSpooler uploadSpooler;
+
+    private final PdfInvoiceProperties properties;
+
+    private final ParseFunction function;
+
+
+    /**
+     * 解析单个 pdf
+     *
+     * @param file     pdf 文件
+     * @param mode     解析方式, QR 只读取二维码中的发票代码、号码、金额、日期及校验码
+     * @param trace    是否记录解析过程 (不使用结果缓存), 配置不允许时忽略; 记录通过管理端口的 /actuator/parsetraces/{id} 查询
+     * @param response 记录时返回记录 id
+     * @return 发票
+     */
     @PostMapping(value = "parse", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Mono<Invoice> parseInvoice(@RequestPart FilePart file) {
-        return DataBufferUtils.join(file.content()).map(DataBuffer::asInputStream)
-                .flatMap((inputStream) -> {
-                    try (PDDocument document = Loader.loadPDF(IOUtils.toByteArray(inputStream))) {
-                        CustomInvoiceTextStripper stripper = new CustomInvoiceTextStripper(document);
-                        return Mono.just(stripper.getInvoice());
-                    } catch (Exception e) {
-                        return Mono.error(e);
+    public Mono<Invoice> parseInvoice(@RequestPart FilePart file, @RequestParam(defaultValue = "FULL") ParseMode mode,
+                                      @RequestHeader(name = TRACE_HEADER, defaultValue = "false") boolean trace, ServerHttpResponse response) {
+        if (parseExecutor.isSaturated()) {
+            return Mono.error(new ParseRejectedException("解析队列已满, 请稍后重试"));
+        }
+        String traceId = trace && properties.getTrace().isAllowHeader() ? TraceBuffer.newId() : null;
+        if (traceId != null) {
+            response.getHeaders().set(TRACE_ID_HEADER, traceId);
+        }
+        return Mono.usingWhen(uploadSpooler.spool(file.content()), upload -> invoiceService.parseAsync(upload, mode, traceId), this::close);
+    }
+
+    /**
+     * 流式解析单个 pdf, 以 ndjson 返回: 首行为发票 (detailList 为空), 其后每行一条明细, 续页解析完成即输出
+     *
+     * @param file pdf 文件
+     * @param mode 解析方式
+     * @return 发票及明细
+     */
+    @PostMapping(value = "parse/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Object> parseStream(@RequestPart FilePart file, @RequestParam(defaultValue = "FULL") ParseMode mode) {
+        if (parseExecutor.isSaturated()) {
+            return Flux.error(new ParseRejectedException("解析队列已满, 请稍后重试"));
+        }
+        return Flux.usingWhen(uploadSpooler.spool(file.content()), upload -> invoiceService.parseStream(upload, mode), this::close);
+    }
+
+    /**
+     * 批量解析, 支持多个 pdf 或 zip 压缩包, 每个文档解析完成即以 ndjson 返回, 单个文档失败返回错误记录
+     *
+     * @param files pdf/zip 文件
+     * @param mode  解析方式
+     * @return 发票
+     */
+    @PostMapping(value = "parse/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Invoice> parseBatch(@RequestPart("files") Flux<FilePart> files, @RequestParam(defaultValue = "FULL") ParseMode mode) {
+        return files.concatMap(this::documents)
+                .flatMap(document -> parseDocument(document, mode), properties.getBatch().getParallelism())
+                .doOnDiscard(Document.class, e -> close(e.upload()));
+    }
+
+    /**
+     * 通过解析函数批量解析, 与消息中间件、serverless 调用相同: 每个文件为一条消息, 并发及批次由 pdf-invoice.function 配置;
+     * 不展开 zip, 文件按上传内存预算接收 (超过阈值的落盘), 不整体读入内存
+     *
+     * @param files pdf 文件
+     * @param mode  解析方式
+     * @return 发票, 单个文档失败返回错误记录
+     */
+    @PostMapping(value = "parse/function", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Invoice> parseFunction(@RequestPart("files") Flux<FilePart> files, @RequestParam(defaultValue = "FULL") ParseMode mode) {
+        if (parseExecutor.isSaturated()) {
+            return Flux.error(new ParseRejectedException("解析队列已满, 请稍后重试"));
+        }
+        return function.applyUploads(files.concatMap(file -> uploadSpooler.spool(file.content())
+                .map(upload -> MessageBuilder.withPayload(upload)
+                        .setHeader(ParseFunction.FILE_NAME_HEADER, file.filename())
+                        .setHeader(ParseFunction.MODE_HEADER, mode.name())
+                        .build())));
+    }
+
+    private Mono<Invoice> parseDocument(Document document, ParseMode mode) {
+        if (Objects.nonNull(document.error())) {
+            return Mono.just(Invoice.error(document.name(), document.error()));
+        }
+        // 批量任务已开始输出, 无法再返回 503, 被拒绝时退避重试
+        return Mono.usingWhen(Mono.just(document.upload()), upload -> invoiceService.parseQueued(upload, mode), this::close)
+                .map(invoice -> {
+                    invoice.setFileName(document.name());
+                    return invoice;
+                })
+                .onErrorResume(e -> Mono.just(Invoice.error(document.name(), e)));
+    }
+
+    /**
+     * 展开上传文件, zip 压缩包按条目逐个读取
+     *
+     * @param file 上传文件
+     * @return 待解析文档
+     */
+    private Flux<Document> documents(FilePart file) {
+        String filename = file.filename();
+        return uploadSpooler.spool(file.content())
+                .flatMapMany(upload -> isZip(file) ? zipEntries(filename, upload) : Flux.just(new Document(filename, upload, null)))
+                .onErrorResume(e -> Flux.just(new Document(filename, null, e)));
+    }
+
+    /**
+     * 逐个读取压缩包内的 pdf, 当前条目接收完毕才读取下一个条目; 条目超出上限时返回该条目的错误记录,
+     * 条目数或解压总字节数超出上限时停止读取, 返回压缩包的错误记录
+     */
+    private Flux<Document> zipEntries(String filename, SpooledUpload upload) {
+        return Flux.using(() -> new ArchiveReader(new ZipInputStream(upload.inputStream()), properties.getBatch()), archive -> Flux.<String>generate(sink -> {
+                    try {
+                        String name = archive.next();
+                        if (Objects.isNull(name)) {
+                            sink.complete();
+                        } else {
+                            sink.next(name);
+                        }
+                    } catch (IOException e) {
+                        sink.error(e);
                     }
-                });
+                }).concatMap(name -> Mono.defer(() -> uploadSpooler.spoolNested(DataBufferUtils.readInputStream(archive::entry, DefaultDataBufferFactory.sharedInstance, ENTRY_BUFFER_SIZE)))
+                        .map(entry -> new Document(filename + "!/" + name, entry, null))
+                        .onErrorResume(DocumentTooLargeException.class, e -> Mono.just(new Document(filename + "!/" + name, null, e))), 0), archive -> {
+                    archive.close();
+                    upload.close();
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private boolean isZip(FilePart file) {
+        String contentType = Optional.ofNullable(file.headers().getContentType()).map(MediaType::toString).orElse("");
+        return StringUtils.endsWithIgnoreCase(file.filename(), ".zip") || StringUtils.containsIgnoreCase(contentType, "zip");
+    }
+
+    private Mono<Void> close(SpooledUpload upload) {
+        return Mono.fromRunnable(() -> Optional.ofNullable(upload).ifPresent(SpooledUpload::close));
+    }
+
+    /**
+     * 压缩包读取上限: 单个条目、解压总字节数 (含跳过的条目内容) 及条目数
+     */
+    private static final class ArchiveReader {
+
+        private final ZipInputStream zip;
+
+        private final long maxEntrySize;
+
+        private final long maxArchiveSize;
+
+        private final int maxEntries;
+
+        private long total;
+
+        private int entries;
+
+        // 超出压缩包上限后不再读取
+        private DocumentTooLargeException failure;
+
+        ArchiveReader(ZipInputStream zip, PdfInvoiceProperties.Batch limits) {
+            this.zip = zip;
+            this.maxEntrySize = limits.getMaxEntrySize().toBytes();
+            this.maxArchiveSize = limits.getMaxArchiveSize().toBytes();
+            this.maxEntries = limits.getMaxEntries();
+        }
+
+        /**
+         * 跳过当前条目的剩余内容 (计入解压总字节数), 读取下一个 pdf 条目
+         *
+         * @return 条目名, 没有更多条目为 null
+         * @throws DocumentTooLargeException 条目数或解压总字节数超出上限
+         */
+        String next() throws IOException {
+            byte[] buffer = new byte[ENTRY_BUFFER_SIZE];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // 跳过
+            }
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (++entries > maxEntries) {
+                    throw fail("压缩包条目数超出上限 (" + maxEntries + ")");
+                }
+                if (!entry.isDirectory() && StringUtils.endsWithIgnoreCase(entry.getName(), ".pdf")) {
+                    return entry.getName();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 当前条目内容, 超过单个条目上限时读取失败
+         */
+        InputStream entry() {
+            return new InputStream() {
+
+                private long size;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = ArchiveReader.this.read(b, off, len);
+                    if (n > 0 && (size += n) > maxEntrySize) {
+                        throw new DocumentTooLargeException("压缩包条目超出上限 (" + DataSize.ofBytes(maxEntrySize).toMegabytes() + "MB)", null);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            if (Objects.nonNull(failure)) {
+                throw failure;
+            }
+            int n = zip.read(b, off, len);
+            if (n > 0 && (total += n) > maxArchiveSize) {
+                throw fail("压缩包解压后超出上限 (" + DataSize.ofBytes(maxArchiveSize).toMegabytes() + "MB)");
+            }
+            return n;
+        }
+
+        private DocumentTooLargeException fail(String message) {
+            failure = new DocumentTooLargeException(message, null);
+            return failure;
+        }
+
+        void close() {
+            try {
+                zip.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 待解析文档
+     *
+     * @param name    文件名, 压缩包内条目为 "压缩包!/条目"
+     * @param upload  pdf 内容
+     * @param error   读取失败原因
+     */
+    private record Document(String name, SpooledUpload upload, Throwable error) {
     }
 }
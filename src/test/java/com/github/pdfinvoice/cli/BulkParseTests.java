@@ -0,0 +1,91 @@
+package com.github.pdfinvoice.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pdfinvoice.parse.Invoice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkParseTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final PrintStream log = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * 递归扫描目录及压缩包, 失败的文档输出错误记录; 以相同参数再次运行时全部跳过, retry-failed 只重新解析失败的文档
+     */
+    @Test
+    void resumable(@TempDir Path dir) throws Exception {
+        List<Path> pdfs;
+        try (Stream<Path> list = Files.list(Paths.get("test"))) {
+            pdfs = list.filter(e -> e.getFileName().toString().endsWith(".pdf")).sorted().toList();
+        }
+        Path input = Files.createDirectories(dir.resolve("input/nested"));
+        for (int i = 0; i < pdfs.size(); i++) {
+            Files.copy(pdfs.get(i), input.resolve(i + ".pdf"));
+        }
+        Files.writeString(input.resolve("broken.pdf"), "not a pdf");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(dir.resolve("input/bundle.zip")))) {
+            for (int i = 0; i < pdfs.size(); i++) {
+                zip.putNextEntry(new ZipEntry("a/" + i + ".pdf"));
+                zip.write(Files.readAllBytes(pdfs.get(i)));
+                zip.closeEntry();
+            }
+        }
+        Path out = dir.resolve("out.ndjson");
+        Map<String, String> options = Map.of("out", out.toString(), "threads", "4");
+
+        BulkParse.Summary summary = BulkParse.run(options, List.of(dir.resolve("input")), log);
+        assertEquals(pdfs.size() * 2L, summary.parsed());
+        assertEquals(1, summary.failed());
+        assertFalse(summary.interrupted());
+        List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+        assertEquals(pdfs.size() * 2 + 1, lines.size());
+        for (String line : lines) {
+            Invoice invoice = objectMapper.readValue(line, Invoice.class);
+            assertNotNull(invoice.getFileName());
+            assertEquals(invoice.getFileName().endsWith("broken.pdf"), invoice.getError() != null, line);
+        }
+
+        summary = BulkParse.run(options, List.of(dir.resolve("input")), log);
+        assertEquals(0, summary.parsed() + summary.failed());
+        assertEquals(pdfs.size() * 2L + 1, summary.skipped());
+
+        summary = BulkParse.run(Map.of("out", out.toString(), "retry-failed", "true"), List.of(dir.resolve("input")), log);
+        assertEquals(1, summary.failed());
+        assertEquals(pdfs.size() * 2L, summary.skipped());
+        assertEquals(pdfs.size() * 2 + 2, Files.readAllLines(out, StandardCharsets.UTF_8).size());
+
+        Path csv = dir.resolve("out.csv");
+        BulkParse.run(Map.of("out", csv.toString()), List.of(dir.resolve("input")), log);
+        List<String> rows = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        assertTrue(rows.get(0).startsWith("fileName,"));
+        assertEquals(pdfs.size() * 2 + 2, rows.size());
+
+        // 压缩包条目全部解压到临时文件, 超过上限的条目输出错误记录
+        long largest = 0;
+        for (Path pdf : pdfs) {
+            largest = Math.max(largest, Files.size(pdf));
+        }
+        long limit = largest - 1;
+        long rejected = pdfs.stream().filter(e -> e.toFile().length() > limit).count();
+        summary = BulkParse.run(Map.of("out", dir.resolve("limited.ndjson").toString(), "spool-threshold", "1KB",
+                "max-entry-size", limit + "B"), List.of(dir.resolve("input")), log);
+        assertEquals(pdfs.size() * 2L - rejected, summary.parsed());
+        assertEquals(1 + rejected, summary.failed());
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.pdfinvoice.parse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnchorMatcherTests {
+
+    private static List<String> scan(AnchorMatcher matcher, String text) {
+        List<String> result = new ArrayList<>();
+        int state = 0;
+        for (int cp : text.codePoints().toArray()) {
+            state = matcher.next(state, cp);
+            int k = matcher.match(state);
+            if (k >= 0) {
+                result.add(matcher.getHorizontal().get(k));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    void longestMatchWins() {
+        AnchorMatcher matcher = AnchorMatcher.DEFAULT;
+        // "合计" 不占用 "价税合计" 的文字
+        assertEquals(List.of("价税合计"), scan(matcher, "价税合计（大写）"));
+        assertEquals(List.of("合计", "价税合计"), scan(matcher, "合计¥1.00价税合计"));
+        assertEquals(List.of("发票号码", "开票人"), scan(matcher, "发票发票号码:01开票人:张三"));
+        assertEquals(4, matcher.length(matcher.getHorizontal().indexOf("价税合计")));
+    }
+
+    @Test
+    void verticalMask() {
+        AnchorMatcher matcher = AnchorMatcher.DEFAULT;
+        List<String> vertical = matcher.getVertical();
+        int mask = matcher.verticalMask('方');
+        assertEquals((1 << vertical.indexOf("购买方信息")) | (1 << vertical.indexOf("销售方信息")), mask);
+        assertEquals(0, matcher.verticalMask('x'));
+    }
+
+    @Test
+    void extraAnchors() {
+        AnchorMatcher matcher = AnchorMatcher.DEFAULT.with(List.of("收款人"), List.of("备注"));
+        assertEquals(AnchorMatcher.VERTICAL, matcher.getVertical());
+        assertEquals(List.of("收款人"), scan(matcher, "收款人:"));
+        assertSame(AnchorMatcher.DEFAULT, AnchorMatcher.DEFAULT.with(List.of(), List.of()));
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.pdfinvoice.parse;
+
+import org.apache.pdfbox.text.TextPosition;
+import org.apache.pdfbox.util.Matrix;
+import org.junit.jupiter.api.Test;
+
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlyphIndexTests {
+
+    private static TextPosition glyph(float x, float y) {
+        return new TextPosition(0, 600, 800, new Matrix(10, 0, 0, 10, x, 800 - y), x + 10, 800 - y, 10, 10, 3, "a", new int[]{'a'}, null, 1, 10);
+    }
+
+    private static GlyphStore store(TextPosition... glyphs) {
+        GlyphStore store = new GlyphStore();
+        for (TextPosition glyph : glyphs) {
+            store.add(glyph, -1);
+        }
+        return store;
+    }
+
+    @Test
+    void queryMatchesLinearScan() {
+        Random random = new Random(42);
+        TextPosition[] glyphs = new TextPosition[2000];
+        for (int i = 0; i < glyphs.length; i++) {
+            glyphs[i] = glyph(random.nextFloat() * 600, random.nextFloat() * 800);
+        }
+        GlyphStore store = store(glyphs);
+        GlyphIndex index = new GlyphIndex(store);
+        for (int i = 0; i < 200; i++) {
+            Rectangle2D rect = new Rectangle2D.Double(random.nextFloat() * 600 - 50, random.nextFloat() * 800 - 50, random.nextFloat() * 300, random.nextFloat() * 300);
+            int[] expected = IntStream.range(0, glyphs.length).filter(k -> rect.contains(glyphs[k].getX(), glyphs[k].getY())).toArray();
+            assertArrayEquals(expected, index.query(rect));
+        }
+    }
+
+    @Test
+    void nearestAndColumn() {
+        GlyphStore store = store(glyph(100, 100), glyph(100.5F, 120), glyph(100, 140), glyph(300, 110), glyph(150, 100.2F), glyph(120, 99.8F));
+        GlyphIndex index = new GlyphIndex(store);
+
+        assertEquals(1, index.nearestBelow(0, 1, t -> true));
+        assertEquals(2, index.nearestBelow(0, 1, t -> t != 1));
+        assertEquals(-1, index.nearestBelow(2, 1, t -> true));
+
+        assertEquals(5, index.nearestRight(0, 1, t -> true));
+        assertEquals(4, index.nearestRight(5, 1, t -> true));
+
+        assertArrayEquals(new int[]{1, 2}, index.column(0, 1, t -> true));
+    }
+
+    @Test
+    void outlier() {
+        TextPosition[] glyphs = {glyph(100, 100), glyph(120, 100), glyph(1e9F, 100), glyph(1e12F, 300), glyph(-1e12F, 100),
+                glyph(100, Float.POSITIVE_INFINITY), glyph(Float.NaN, 200), glyph(300, 100)};
+        GlyphStore store = store(glyphs);
+        for (GlyphIndex index : new GlyphIndex[]{new GlyphIndex(store), new GlyphIndex(store, new Rectangle2D.Double(0, 0, 600, 800))}) {
+            for (Rectangle2D rect : new Rectangle2D[]{new Rectangle2D.Double(0, 0, 600, 800), new Rectangle2D.Double(-1e13, 0, 2e13, 1e3)}) {
+                int[] expected = IntStream.range(0, glyphs.length).filter(k -> rect.contains(glyphs[k].getX(), glyphs[k].getY())).toArray();
+                assertArrayEquals(expected, index.query(rect));
+            }
+            assertEquals(1, index.nearestRight(0, 1, t -> true));
+            assertEquals(2, index.nearestRight(7, 1, t -> true));
+            assertEquals(-1, index.nearestRight(2, 1, t -> true));
+            assertEquals(5, index.nearestBelow(0, 1, t -> true));
+        }
+    }
+
+    @Test
+    void storeLookup() {
+        TextPosition a = glyph(10, 10), b = glyph(20, 10);
+        GlyphStore store = store(a, b);
+        List<TextPosition> view = store.glyphs(new int[]{1, 0});
+        assertEquals(1, store.indexOf(view.get(0)));
+        assertEquals(0, store.indexOf(view.get(1)));
+        assertEquals(-1, store.indexOf(b));
+        assertEquals('a', store.codePoint(0));
+        TextPosition copy = view.get(0);
+        assertEquals(b.getXDirAdj(), copy.getXDirAdj());
+        assertEquals(b.getYDirAdj(), copy.getYDirAdj());
+        assertEquals(b.getWidthDirAdj(), copy.getWidthDirAdj());
+        assertEquals(b.getHeightDir(), copy.getHeightDir());
+        assertEquals(b.getDir(), copy.getDir());
+        assertEquals(b.getUnicode(), copy.getUnicode());
+        store.exclude(1);
+        assertTrue(store.isExcluded(1));
+        assertFalse(store.isExcluded(0));
+    }
+}
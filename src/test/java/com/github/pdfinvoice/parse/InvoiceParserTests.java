@@ -0,0 +1,134 @@
+package com.github.pdfinvoice.parse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceParserTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 每页新建 stripper 的结果
+    private String expected(File file) throws Exception {
+        try (PDDocument document = Loader.loadPDF(file)) {
+            CustomInvoiceTextStripper first = new CustomInvoiceTextStripper(document);
+            Invoice invoice = first.getInvoice();
+            for (int page = 1; page < document.getNumberOfPages(); page++) {
+                invoice.addDetails(new CustomInvoiceTextStripper(document, LayoutTemplates.DEFAULT, first.getTemplate(), page).getInvoice());
+            }
+            return objectMapper.writeValueAsString(invoice);
+        }
+    }
+
+    private String parse(InvoiceParser parser, File file) throws Exception {
+        return objectMapper.writeValueAsString(parser.parse(new RandomAccessReadBufferedFile(file)));
+    }
+
+    /**
+     * 同一线程交替解析不同文档, 以及多线程共享解析器, 结果与每次新建 stripper 相同
+     */
+    @Test
+    void reusedContexts() throws Exception {
+        File[] files = new File("test").listFiles((dir, name) -> name.endsWith(".pdf"));
+        assertNotNull(files);
+        List<String> expected = new ArrayList<>();
+        for (File file : files) {
+            expected.add(expected(file));
+        }
+        InvoiceParser parser = new InvoiceParser(LayoutTemplates.DEFAULT, new LayoutCache(16));
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < files.length; i++) {
+                assertEquals(expected.get(i), parse(parser, files[i]), files[i].getName());
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int round = 0; round < 8; round++) {
+                for (File file : files) {
+                    results.add(executor.submit(() -> parse(parser, file)));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(expected.get(i % files.length), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 页面 2000 次引用同一表单, 表单含 2000 个操作符
+     */
+    private static PDDocument nestedForms() throws Exception {
+        PDDocument document = new PDDocument();
+        PDFormXObject form = new PDFormXObject(document);
+        try (OutputStream out = form.getContentStream().createOutputStream()) {
+            out.write("1 0 0 1 0 0 cm\n".repeat(2000).getBytes(StandardCharsets.US_ASCII));
+        }
+        PDPage page = new PDPage();
+        document.addPage(page);
+        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+            for (int i = 0; i < 2000; i++) {
+                content.drawForm(form);
+            }
+        }
+        return document;
+    }
+
+    private static ParseTimeoutException.Reason abort(InvoiceParser parser, ParseBudget budget) throws Exception {
+        try (PDDocument document = nestedForms()) {
+            return assertThrows(ParseTimeoutException.class, () -> parser.parse(document, budget)).getReason();
+        }
+    }
+
+    /**
+     * 超出操作符上限、时限或取消时在表单内容流中结束解析, 上下文可继续使用
+     */
+    @Test
+    void budget() throws Exception {
+        File file = new File("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf");
+        String expected = expected(file);
+        InvoiceParser parser = new InvoiceParser();
+
+        assertEquals(ParseTimeoutException.Reason.OPERATORS, abort(parser, new ParseBudget(null, 100_000)));
+        assertEquals(expected, parse(parser, file));
+
+        long start = System.nanoTime();
+        assertEquals(ParseTimeoutException.Reason.DEADLINE, abort(parser, new ParseBudget(Duration.ofMillis(100), 0)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(expected, parse(parser, file));
+
+        ParseBudget budget = ParseBudget.unlimited();
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            budget.cancel();
+        });
+        canceller.start();
+        assertEquals(ParseTimeoutException.Reason.CANCELLED, abort(parser, budget));
+        canceller.join();
+        assertEquals(expected, parse(parser, file));
+    }
+}
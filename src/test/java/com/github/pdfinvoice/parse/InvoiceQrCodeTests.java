@@ -0,0 +1,50 @@
+package com.github.pdfinvoice.parse;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceQrCodeTests {
+
+    @Test
+    void parse() {
+        InvoiceQrCode vat = InvoiceQrCode.parse("01,10,034002400111,00775176,101.73,20240415,79471929842855345672,D440,");
+        assertNotNull(vat);
+        assertFalse(vat.isDigital());
+        assertEquals("2024年04月15日", vat.date());
+
+        InvoiceQrCode digital = InvoiceQrCode.parse("01,32, ,24342000000046678733,61.83,20240506, ,CE5B");
+        assertNotNull(digital);
+        assertTrue(digital.isDigital());
+        assertNull(digital.code());
+        assertNull(digital.checksum());
+
+        Invoice invoice = new Invoice();
+        digital.fill(invoice);
+        assertEquals(new BigDecimal("61.83"), invoice.getTotalAmount());
+        assertNull(invoice.getAmount());
+
+        assertNull(InvoiceQrCode.parse("https://example.com"));
+        assertNull(InvoiceQrCode.parse("01,32,,123,abc,20240506,,"));
+    }
+
+    @Test
+    void samplesMatchLayout() throws Exception {
+        File[] files = new File("test").listFiles((dir, name) -> name.endsWith(".pdf"));
+        assertNotNull(files);
+        for (File file : files) {
+            try (PDDocument document = Loader.loadPDF(file)) {
+                InvoiceQrCode qrCode = InvoiceQrCode.find(document);
+                assertNotNull(qrCode, file.getName());
+                Invoice invoice = new CustomInvoiceTextStripper(document).getInvoice();
+                assertEquals(List.of(), qrCode.mismatches(invoice), file.getName());
+            }
+        }
+    }
+}
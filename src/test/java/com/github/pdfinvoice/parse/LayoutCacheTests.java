@@ -0,0 +1,85 @@
+package com.github.pdfinvoice.parse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LayoutCacheTests {
+
+    private static String parse(File file, LayoutCache cache) throws Exception {
+        try (PDDocument document = Loader.loadPDF(file)) {
+            CustomInvoiceTextStripper stripper = new CustomInvoiceTextStripper(document, LayoutTemplates.DEFAULT, cache);
+            return new ObjectMapper().writeValueAsString(stripper.getInvoice());
+        }
+    }
+
+    @Test
+    void repeatedLayoutHits() throws Exception {
+        File[] files = new File("test").listFiles((dir, name) -> name.endsWith(".pdf"));
+        assertNotNull(files);
+        LayoutCache cache = new LayoutCache(16);
+        for (File file : files) {
+            String expected = parse(file, null);
+            assertEquals(expected, parse(file, cache), file.getName());
+            long hits = cache.hits();
+            assertEquals(expected, parse(file, cache), file.getName());
+            assertEquals(hits + 1, cache.hits(), file.getName());
+        }
+        assertEquals(0, cache.invalidations());
+    }
+
+    /**
+     * 缓存版式的探针或列边界与文档不一致时重新定位, 结果与不使用缓存时相同
+     */
+    @Test
+    void staleLayoutRediscovered() throws Exception {
+        File[] files = new File("test").listFiles((dir, name) -> name.endsWith(".pdf"));
+        assertNotNull(files);
+        for (File file : files) {
+            String expected = parse(file, null);
+            LayoutCache cache = new LayoutCache(16);
+            parse(file, cache);
+            long fingerprint = cache.fingerprints().iterator().next();
+            PageLayout layout = cache.get(fingerprint);
+            assertNotNull(layout.columns(), file.getName());
+            assertFalse(layout.probes().isEmpty(), file.getName());
+
+            List<PageLayout.Probe> probes = layout.probes().stream().map(e -> new PageLayout.Probe(e.codePoint(), e.x() + 50, e.y())).toList();
+            cache.put(fingerprint, new PageLayout(layout.template(), layout.regions(), layout.detail(), layout.redLimit(), probes,
+                    layout.titleY(), layout.columns()));
+            assertEquals(expected, parse(file, cache), file.getName());
+            assertEquals(1, cache.invalidations(), file.getName());
+
+            List<PageLayout.ColumnBound> columns = layout.columns().stream()
+                    .map(e -> new PageLayout.ColumnBound(e.column(), e.left() + 60, e.right() + 60)).toList();
+            cache.put(fingerprint, layout.withColumns(layout.titleY(), columns));
+            assertEquals(expected, parse(file, cache), file.getName());
+            assertEquals(2, cache.invalidations(), file.getName());
+            assertEquals(layout, cache.get(fingerprint), file.getName());
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedEvicted() {
+        LayoutCache cache = new LayoutCache(2);
+        PageLayout layout = new PageLayout(null, Map.of("page", new Rectangle2D.Double()), new Rectangle2D.Double(), Double.NaN, List.of(), Float.NaN, null);
+        cache.put(1, layout);
+        cache.put(2, layout);
+        assertSame(layout, cache.get(1));
+        cache.put(3, layout);
+        assertNull(cache.get(2));
+        assertSame(layout, cache.get(1));
+        assertEquals(2, cache.size());
+        cache.invalidate(1, layout);
+        assertNull(cache.get(1));
+        assertEquals(1, cache.invalidations());
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.pdfinvoice.parse;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LayoutTemplatesTests {
+
+    @Test
+    void classify() {
+        LayoutTemplates templates = LayoutTemplates.DEFAULT;
+        assertEquals(InvoiceFamily.VAT_ORDINARY, templates.classify(Set.of("发票号码", "购买方信息", "合计", "密码区")).getFamily());
+        assertEquals(InvoiceFamily.VAT_SPECIAL, templates.classify(Set.of("发票号码", "购买方信息", "合计", "发票代码", "专用发票")).getFamily());
+        assertEquals(InvoiceFamily.DIGITAL, templates.classify(Set.of("发票号码", "购买方信息", "合计", "专用发票")).getFamily());
+        assertEquals(InvoiceFamily.RIDE_HAILING, templates.classify(Set.of("行程单", "合计")).getFamily());
+        assertThrows(IllegalArgumentException.class, () -> templates.classify(Set.of("合计")));
+    }
+
+    @Test
+    void markersAreNotRegions() {
+        LayoutTemplates templates = LayoutTemplates.of(List.of("收款人"), List.of());
+        LayoutTemplate vat = templates.classify(Set.of("发票号码", "购买方信息", "合计", "密码区"));
+        assertTrue(templates.isRegion(vat, "价税合计"));
+        assertTrue(templates.isRegion(vat, "收款人"));
+        assertFalse(templates.isRegion(vat, "发票代码"));
+        assertTrue(templates.getAnchorMatcher().getHorizontal().containsAll(List.of("发票代码", "收款人")));
+    }
+
+    @Test
+    void samples() throws Exception {
+        File[] files = new File("test").listFiles((dir, name) -> name.endsWith(".pdf"));
+        assertNotNull(files);
+        for (File file : files) {
+            try (PDDocument document = Loader.loadPDF(file)) {
+                CustomInvoiceTextStripper stripper = new CustomInvoiceTextStripper(document);
+                InvoiceFamily expected = stripper.getInvoice().getCode() == null ? InvoiceFamily.DIGITAL : InvoiceFamily.VAT_ORDINARY;
+                assertEquals(expected, stripper.getTemplate().getFamily(), file.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.pdfinvoice.parse;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParseRuntimeHintsTests {
+
+    /**
+     * pdfbox/fontbox 自带的资源 (类文件及说明文档除外) 均已注册, 解析结果类型可反射访问
+     */
+    @Test
+    void hints() throws Exception {
+        RuntimeHints hints = new RuntimeHints();
+        new ParseRuntimeHints().registerHints(hints, getClass().getClassLoader());
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        int n = 0;
+        for (String pattern : new String[]{"classpath*:org/apache/pdfbox/resources/**/*", "classpath*:org/apache/fontbox/**/*"}) {
+            for (Resource resource : resolver.getResources(pattern)) {
+                String url = resource.getURL().toString();
+                String path = url.substring(url.lastIndexOf("!/") + 2);
+                if (!resource.isReadable() || path.endsWith(".class") || path.endsWith(".html")) {
+                    continue;
+                }
+                assertTrue(RuntimeHintsPredicates.resource().forResource(path).test(hints), path);
+                n++;
+            }
+        }
+        assertTrue(n > 100);
+        assertTrue(RuntimeHintsPredicates.reflection().onType(Detail.class).withMemberCategory(MemberCategory.DECLARED_FIELDS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(Invoice.class, "getDetailList").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(TypeReference.of(Invoice.class)).test(hints));
+    }
+}
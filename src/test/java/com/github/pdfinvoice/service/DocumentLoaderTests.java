@@ -0,0 +1,65 @@
+package com.github.pdfinvoice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.CustomInvoiceTextStripper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentLoaderTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String parse(DocumentLoader loader, byte[] bytes) throws Exception {
+        try (PDDocument document = loader.load(new RandomAccessReadBuffer(bytes))) {
+            return objectMapper.writeValueAsString(new CustomInvoiceTextStripper(document).getInvoice());
+        }
+    }
+
+    /**
+     * 第二次解析使用前一文档归还的字体、颜色空间, 结果与不共享时相同
+     */
+    @Test
+    void sharedResources() throws Exception {
+        PdfInvoiceProperties unshared = new PdfInvoiceProperties();
+        unshared.getDocument().setResourceCacheSize(0);
+        DocumentLoader plain = new DocumentLoader(unshared);
+        DocumentLoader shared = new DocumentLoader(new PdfInvoiceProperties());
+        // 占用上限只够一个实例
+        PdfInvoiceProperties small = new PdfInvoiceProperties();
+        small.getDocument().setResourceCacheMemory(DataSize.ofKilobytes(2));
+        DocumentLoader limited = new DocumentLoader(small);
+        List<Path> pdfs;
+        try (Stream<Path> list = Files.list(Paths.get("test"))) {
+            pdfs = list.filter(e -> e.getFileName().toString().endsWith(".pdf")).sorted().toList();
+        }
+        for (Path pdf : pdfs) {
+            byte[] bytes = Files.readAllBytes(pdf);
+            String expected = parse(plain, bytes);
+            assertEquals(expected, parse(shared, bytes), pdf.toString());
+            assertEquals(expected, parse(shared, bytes), pdf.toString());
+            assertEquals(expected, parse(limited, bytes), pdf.toString());
+        }
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        shared.bindTo(registry);
+        assertTrue(registry.get("pdf.resource.cache.requests").tag("result", "hit").functionCounter().count() > 0);
+        assertTrue(registry.get("pdf.resource.cache.size").gauge().value() > 0);
+        assertTrue(registry.get("pdf.resource.cache.bytes").gauge().value() > 0);
+
+        registry = new SimpleMeterRegistry();
+        limited.bindTo(registry);
+        assertTrue(registry.get("pdf.resource.cache.evictions").functionCounter().count() > 0);
+        assertTrue(registry.get("pdf.resource.cache.bytes").gauge().value() <= DataSize.ofKilobytes(2).toBytes());
+    }
+}
@@ -0,0 +1,285 @@
+package com.github.pdfinvoice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.Invoice;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceServiceTests {
+
+    private final PdfInvoiceProperties properties = new PdfInvoiceProperties();
+
+    private final ParseExecutor parseExecutor = new ParseExecutor(properties);
+
+    private final TraceBuffer traceBuffer = new TraceBuffer(properties);
+
+    private final InvoiceService invoiceService = new InvoiceService(parseExecutor, new ResultCache(properties, new ObjectMapper()), new DocumentLoader(properties), traceBuffer, properties);
+
+    /**
+     * 首页之后追加一份首页副本 (续页) 及一个空白页
+     */
+    private byte[] multiPage(File file) throws Exception {
+        try (PDDocument document = Loader.loadPDF(file); PDDocument copy = Loader.loadPDF(file)) {
+            document.importPage(copy.getPage(0));
+            document.addPage(new PDPage());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    void continuationPages() throws Exception {
+        File file = new File("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf");
+        Invoice single = invoiceService.parse(new RandomAccessReadBuffer(Files.readAllBytes(file.toPath())));
+        int rows = single.getDetailList().size();
+        assertTrue(rows > 0);
+
+        byte[] bytes = multiPage(file);
+        Invoice sync = invoiceService.parse(new RandomAccessReadBuffer(bytes));
+        assertEquals(rows * 2, sync.getDetailList().size());
+        assertEquals(single.getNumber(), sync.getNumber());
+
+        try (SpooledUpload upload = SpooledUpload.memory(bytes, () -> {
+        }, null)) {
+            Invoice async = invoiceService.parseAsync(upload).block();
+            assertNotNull(async);
+            assertEquals(rows * 2, async.getDetailList().size());
+            assertEquals(new ObjectMapper().writeValueAsString(sync), new ObjectMapper().writeValueAsString(async));
+        } finally {
+            parseExecutor.destroy();
+        }
+    }
+
+    @Test
+    void memoryBudget() throws Exception {
+        PdfInvoiceProperties tight = new PdfInvoiceProperties();
+        tight.getDocument().setMaxMainMemory(DataSize.ofKilobytes(4));
+        tight.getDocument().setMaxStorage(DataSize.ofKilobytes(4));
+        InvoiceService service = new InvoiceService(parseExecutor, new ResultCache(tight, new ObjectMapper()), new DocumentLoader(tight), traceBuffer, tight);
+        byte[] bytes = Files.readAllBytes(new File("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf").toPath());
+        assertThrows(DocumentTooLargeException.class, () -> service.parse(new RandomAccessReadBuffer(bytes)));
+        assertNotNull(invoiceService.parse(new RandomAccessReadBuffer(bytes)).getNumber());
+    }
+
+    @Test
+    void metrics() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        invoiceService.bindTo(registry);
+        byte[] bytes = Files.readAllBytes(new File("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf").toPath());
+        Invoice invoice = invoiceService.parse(new RandomAccessReadBuffer(bytes));
+
+        for (String stage : new String[]{"load", "triage", "extract", "layout", "detail-lines", "regions", "fields", "details"}) {
+            assertEquals(1, registry.get("pdf.parse.stage").tags("stage", stage, "family", "digital").timer().count(), stage);
+        }
+        assertEquals(bytes.length, registry.get("pdf.upload.size").tag("family", "digital").summary().totalAmount());
+        assertEquals(invoice.getDetailList().size(), registry.get("pdf.parse.detail.rows").tag("family", "digital").summary().totalAmount());
+
+        assertThrows(Exception.class, () -> invoiceService.parse(new RandomAccessReadBuffer(new byte[16])));
+        assertEquals(1, registry.get("pdf.parse.failures").tag("family", ParseMetrics.UNKNOWN).counter().count());
+        assertEquals("发票号码区块不存在", ParseMetrics.cause(new NullPointerException("发票号码区块不存在")));
+        assertEquals("无法识别的发票版式", ParseMetrics.cause(new IllegalArgumentException("无法识别的发票版式, 关键字: [a]")));
+        assertEquals("IOException", ParseMetrics.cause(new java.io.IOException("Header doesn't contain versioninfo")));
+    }
+
+    private static byte[] save(Consumer<PDDocument> pages, StandardProtectionPolicy policy) throws Exception {
+        try (PDDocument document = new PDDocument()) {
+            pages.accept(document);
+            if (policy != null) {
+                document.protect(policy);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static Consumer<PDDocument> page(String text, boolean image) {
+        return document -> {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                if (image) {
+                    content.drawImage(LosslessFactory.createFromImage(document, new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB)), 0, 0);
+                }
+                if (text != null) {
+                    content.beginText();
+                    content.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+                    content.showText(text);
+                    content.endText();
+                }
+            } catch (java.io.IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    /**
+     * 非 pdf、加密、无页面、扫描件及非发票文档在版面解析前拒绝, 按原因计数
+     */
+    @Test
+    void triage() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        invoiceService.bindTo(registry);
+        StandardProtectionPolicy policy = new StandardProtectionPolicy("owner", "user", new AccessPermission());
+        Object[][] cases = {
+                {new byte[0], DocumentRejectedException.Reason.NOT_PDF},
+                {"not a pdf".getBytes(), DocumentRejectedException.Reason.NOT_PDF},
+                {save(page("invoice", false), policy), DocumentRejectedException.Reason.ENCRYPTED},
+                {save(document -> {
+                }, null), DocumentRejectedException.Reason.NO_PAGES},
+                {save(page(null, true), null), DocumentRejectedException.Reason.NO_TEXT},
+                {save(page("  ", false), null), DocumentRejectedException.Reason.NO_TEXT},
+                {save(page("Hello, world", true), null), DocumentRejectedException.Reason.NOT_INVOICE},
+        };
+        for (Object[] e : cases) {
+            DocumentRejectedException rejected = assertThrows(DocumentRejectedException.class,
+                    () -> invoiceService.parse(new RandomAccessReadBuffer((byte[]) e[0])));
+            assertEquals(e[1], rejected.getReason());
+        }
+        assertEquals(2, registry.get("pdf.triage.rejections").tag("reason", "no-text").counter().count());
+        assertEquals(1, registry.get("pdf.triage.rejections").tag("reason", "not-invoice").counter().count());
+        assertEquals(1, registry.get("pdf.parse.failures").tag("cause", "发票首页没有发票号码").counter().count());
+
+        // 关闭预检时由版面解析失败
+        PdfInvoiceProperties disabled = new PdfInvoiceProperties();
+        disabled.getTriage().setEnabled(false);
+        InvoiceService service = new InvoiceService(parseExecutor, new ResultCache(disabled, new ObjectMapper()), new DocumentLoader(disabled), traceBuffer, disabled);
+        Exception e = assertThrows(Exception.class, () -> service.parse(new RandomAccessReadBuffer(save(page("Hello, world", false), null))));
+        assertFalse(e instanceof DocumentRejectedException);
+
+        // 读取上限内未找到发票号码时不拒绝
+        PdfInvoiceProperties limited = new PdfInvoiceProperties();
+        limited.getTriage().setMaxScanSize(DataSize.ofBytes(4));
+        InvoiceService scan = new InvoiceService(parseExecutor, new ResultCache(limited, new ObjectMapper()), new DocumentLoader(limited), traceBuffer, limited);
+        e = assertThrows(Exception.class, () -> scan.parse(new RandomAccessReadBuffer(save(page("Hello, world", true), null))));
+        assertFalse(e instanceof DocumentRejectedException);
+    }
+
+    /**
+     * 客户端断开 (取消订阅) 时正在执行的解析结束, 释放解析线程
+     */
+    @Test
+    void cancel() throws Exception {
+        PdfInvoiceProperties unlimited = new PdfInvoiceProperties();
+        unlimited.getTriage().setEnabled(false);
+        unlimited.getDocument().setTimeout(Duration.ZERO);
+        unlimited.getDocument().setMaxOperators(0);
+        ParseExecutor executor = new ParseExecutor(unlimited);
+        InvoiceService service = new InvoiceService(executor, new ResultCache(unlimited, new ObjectMapper()), new DocumentLoader(unlimited), traceBuffer, unlimited);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service.bindTo(registry);
+        // 页面 2000 次引用含 2000 个操作符的表单
+        byte[] bytes = save(document -> {
+            try {
+                PDFormXObject form = new PDFormXObject(document);
+                try (OutputStream out = form.getContentStream().createOutputStream()) {
+                    out.write("1 0 0 1 0 0 cm\n".repeat(2000).getBytes(StandardCharsets.US_ASCII));
+                }
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    for (int i = 0; i < 2000; i++) {
+                        content.drawForm(form);
+                    }
+                }
+            } catch (java.io.IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, null);
+        try (SpooledUpload upload = SpooledUpload.memory(bytes, () -> {
+        }, null)) {
+            Disposable subscription = service.parseAsync(upload).subscribe(e -> {
+            }, e -> {
+            });
+            for (int i = 0; i < 100 && executor.getActiveWorkers() == 0; i++) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            assertEquals(1, executor.getActiveWorkers());
+            subscription.dispose();
+            for (int i = 0; i < 200 && executor.getActiveWorkers() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, executor.getActiveWorkers());
+        } finally {
+            executor.destroy();
+        }
+        assertEquals(1, registry.get("pdf.parse.failures").tag("cause", "解析已取消").counter().count());
+    }
+
+    @Test
+    void traces() throws Exception {
+        byte[] bytes = multiPage(new File("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf"));
+        invoiceService.parse(new RandomAccessReadBuffer(bytes));
+        assertTrue(traceBuffer.list().isEmpty());
+
+        String id = TraceBuffer.newId();
+        try (SpooledUpload upload = SpooledUpload.memory(bytes, () -> {
+        }, null)) {
+            assertNotNull(invoiceService.parseAsync(upload, ParseMode.FULL, id).block());
+        }
+        // 首页一条, 续页每个任务一条 (每个任务加载一次文档, 解析多页)
+        List<TraceBuffer.Entry> entries = traceBuffer.find(id);
+        assertTrue(entries.size() >= 2 && entries.size() <= 3);
+        TraceBuffer.Entry first = entries.stream().filter(e -> !e.regions().isEmpty()).findFirst().orElseThrow();
+        assertEquals("DIGITAL", first.family());
+        assertTrue(first.regionText().values().stream().anyMatch(e -> e.contains("24432000000037977864")));
+        assertFalse(first.detailLines().get(0).isEmpty());
+        assertTrue(entries.stream().anyMatch(e -> e.detailLines().containsKey(1)));
+        assertTrue(entries.stream().anyMatch(e -> e.detailLines().containsKey(2)));
+
+        assertThrows(Exception.class, () -> invoiceService.parse(new RandomAccessReadBuffer(new byte[16])));
+        assertNotNull(traceBuffer.list().get(0).error());
+    }
+
+    @Test
+    void stream() throws Exception {
+        byte[] bytes = multiPage(new File("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf"));
+        Invoice expected = invoiceService.parse(new RandomAccessReadBuffer(bytes));
+        // 续页由多个任务并发解析, 仍按页序输出
+        PdfInvoiceProperties parallel = new PdfInvoiceProperties();
+        parallel.getWorker().setThreads(2);
+        parallel.getWorker().setPageParallelism(2);
+        ParseExecutor executor = new ParseExecutor(parallel);
+        InvoiceService service = new InvoiceService(executor, new ResultCache(parallel, new ObjectMapper()), new DocumentLoader(parallel), traceBuffer, parallel);
+        try (SpooledUpload upload = SpooledUpload.memory(bytes, () -> {
+        }, null)) {
+            List<Object> items = service.parseStream(upload, ParseMode.FULL).collectList().block();
+            assertNotNull(items);
+            Invoice header = assertInstanceOf(Invoice.class, items.get(0));
+            assertNull(header.getDetailList());
+            assertEquals(expected.getNumber(), header.getNumber());
+            ObjectMapper objectMapper = new ObjectMapper();
+            assertEquals(objectMapper.writeValueAsString(expected.getDetailList()), objectMapper.writeValueAsString(items.subList(1, items.size())));
+        } finally {
+            executor.destroy();
+        }
+    }
+}
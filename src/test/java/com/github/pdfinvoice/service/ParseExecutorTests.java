@@ -0,0 +1,47 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParseExecutorTests {
+
+    @Test
+    void rejectWhenQueueFull() throws Exception {
+        PdfInvoiceProperties properties = new PdfInvoiceProperties();
+        properties.getWorker().setThreads(1);
+        properties.getWorker().setQueueCapacity(1);
+        ParseExecutor executor = new ParseExecutor(properties);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            executor.submit(() -> {
+                started.countDown();
+                release.await();
+                return 1;
+            }).subscribe();
+            started.await();
+
+            Disposable queued = executor.submit(() -> 2).subscribe();
+            assertTrue(executor.isSaturated());
+            assertEquals(1, executor.getQueueDepth());
+
+            StepVerifier.create(executor.submit(() -> 3)).expectError(ParseRejectedException.class).verify();
+            assertEquals(1, executor.getRejected());
+
+            // 取消后释放队列
+            queued.dispose();
+            assertEquals(0, executor.getQueueDepth());
+            release.countDown();
+
+            StepVerifier.create(executor.submit(() -> 4)).expectNext(4).verifyComplete();
+        } finally {
+            executor.destroy();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.pdfinvoice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.Invoice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTests {
+
+    private static Invoice invoice(String number) {
+        Invoice invoice = new Invoice();
+        invoice.setNumber(number);
+        invoice.setAmount(new BigDecimal("101.73"));
+        return invoice;
+    }
+
+    @Test
+    void singleFlight() throws Exception {
+        ResultCache cache = new ResultCache(new PdfInvoiceProperties(), new ObjectMapper());
+        AtomicInteger loads = new AtomicInteger();
+        Sinks.One<Invoice> sink = Sinks.one();
+
+        CompletableFuture<Invoice> first = cache.get("a", () -> {
+            loads.incrementAndGet();
+            return sink.asMono();
+        }).toFuture();
+        CompletableFuture<Invoice> second = cache.get("a", () -> {
+            loads.incrementAndGet();
+            return Mono.just(invoice("2"));
+        }).toFuture();
+        assertFalse(first.isDone());
+        sink.tryEmitValue(invoice("1"));
+
+        assertEquals("1", first.get().getNumber());
+        assertEquals("1", second.get().getNumber());
+        assertNotSame(first.get(), second.get());
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getShared());
+
+        // 命中返回副本
+        Invoice hit = cache.get("a", () -> Mono.error(new IllegalStateException())).block();
+        assertNotNull(hit);
+        assertEquals(new BigDecimal("101.73"), hit.getAmount());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void errorsAreNotCached() {
+        ResultCache cache = new ResultCache(new PdfInvoiceProperties(), new ObjectMapper());
+        assertThrows(IllegalStateException.class, () -> cache.get("a", () -> Mono.error(new IllegalStateException())).block());
+        assertEquals("1", cache.get("a", () -> Mono.just(invoice("1"))).block().getNumber());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void sizeAndTtl() throws Exception {
+        PdfInvoiceProperties properties = new PdfInvoiceProperties();
+        properties.getResultCache().setMaxEntries(1);
+        properties.getResultCache().setTtl(Duration.ofMillis(50));
+        ResultCache cache = new ResultCache(properties, new ObjectMapper());
+
+        cache.get("a", () -> Mono.just(invoice("1"))).block();
+        cache.get("b", () -> Mono.just(invoice("2"))).block();
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        Thread.sleep(60);
+        assertEquals("3", cache.get("b", () -> Mono.just(invoice("3"))).block().getNumber());
+        assertEquals(1, cache.getExpirations());
+    }
+
+    @Test
+    void fileTierSurvivesRestart(@TempDir Path dir) {
+        PdfInvoiceProperties properties = new PdfInvoiceProperties();
+        properties.getResultCache().setDir(dir);
+        new ResultCache(properties, new ObjectMapper()).get("a", () -> Mono.just(invoice("1"))).block();
+
+        ResultCache restarted = new ResultCache(properties, new ObjectMapper());
+        Invoice invoice = restarted.get("a", () -> Mono.error(new IllegalStateException())).block();
+        assertNotNull(invoice);
+        assertEquals("1", invoice.getNumber());
+        assertEquals(1, restarted.getFileHits());
+        assertEquals(0, restarted.getMisses());
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.pdfinvoice.service;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadSpoolerTests {
+
+    private final DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+
+    private Flux<DataBuffer> content(byte[] bytes, int chunk) {
+        return Flux.range(0, (bytes.length + chunk - 1) / chunk)
+                .map(i -> factory.wrap(Arrays.copyOfRange(bytes, i * chunk, Math.min(bytes.length, (i + 1) * chunk))));
+    }
+
+    private byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private byte[] read(SpooledUpload upload) throws Exception {
+        try (RandomAccessRead read = upload.open()) {
+            byte[] bytes = new byte[(int) read.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += read.read(bytes, offset, bytes.length - offset);
+            }
+            return bytes;
+        }
+    }
+
+    private String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+    @Test
+    void spool() throws Exception {
+        PdfInvoiceProperties properties = new PdfInvoiceProperties();
+        properties.getUpload().setSpoolThreshold(DataSize.ofBytes(1000));
+        properties.getUpload().setMaxInFlight(DataSize.ofBytes(4000));
+        UploadBudget budget = new UploadBudget(properties);
+        UploadSpooler spooler = new UploadSpooler(budget, properties);
+
+        byte[] small = bytes(900);
+        SpooledUpload memory = spooler.spool(content(small, 100)).block();
+        assertNotNull(memory);
+        assertTrue(memory.isInMemory());
+        assertEquals(900, budget.getInFlight());
+        assertArrayEquals(small, read(memory));
+        assertEquals(sha256(small), memory.sha256());
+        memory.close();
+        assertEquals(0, budget.getInFlight());
+
+        byte[] large = bytes(5000);
+        SpooledUpload file = spooler.spool(content(large, 100)).block();
+        assertNotNull(file);
+        assertFalse(file.isInMemory());
+        assertEquals(5000, file.size());
+        assertEquals(0, budget.getInFlight());
+        assertArrayEquals(large, read(file));
+        assertEquals(sha256(large), file.sha256());
+        file.close();
+    }
+
+    @Test
+    void budgetExhausted() throws Exception {
+        PdfInvoiceProperties properties = new PdfInvoiceProperties();
+        properties.getUpload().setSpoolThreshold(DataSize.ofBytes(1000));
+        properties.getUpload().setMaxInFlight(DataSize.ofBytes(1000));
+        UploadBudget budget = new UploadBudget(properties);
+        UploadSpooler spooler = new UploadSpooler(budget, properties);
+
+        SpooledUpload first = spooler.spool(content(bytes(950), 50)).block();
+        assertNotNull(first);
+
+        // 已持有额度的上传不等待, 直接落盘
+        SpooledUpload nested = spooler.spoolNested(content(bytes(600), 100)).block();
+        assertNotNull(nested);
+        assertFalse(nested.isInMemory());
+        nested.close();
+
+        // 新上传等待额度释放
+        var pending = spooler.spool(content(bytes(600), 100)).toFuture();
+        assertFalse(pending.isDone());
+        assertEquals(1, budget.getWaiting());
+        first.close();
+        SpooledUpload second = pending.get();
+        assertTrue(second.isInMemory());
+        second.close();
+        assertEquals(0, budget.getInFlight());
+    }
+}
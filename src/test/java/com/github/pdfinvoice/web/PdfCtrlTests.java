@@ -0,0 +1,187 @@
+package com.github.pdfinvoice.web;
+
+import com.github.pdfinvoice.config.PdfInvoiceProperties;
+import com.github.pdfinvoice.parse.Invoice;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.util.unit.DataSize;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureWebTestClient
+class PdfCtrlTests {
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @Autowired
+    PdfInvoiceProperties properties;
+
+    private List<Invoice> batch(MultipartBodyBuilder builder) {
+        return webTestClient.post().uri("/pdf/parse/batch")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Invoice.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+    }
+
+    @Test
+    void parseBatch() throws Exception {
+        List<Path> pdfs;
+        try (var list = Files.list(Paths.get("test"))) {
+            pdfs = list.filter(e -> e.getFileName().toString().endsWith(".pdf")).sorted().collect(Collectors.toList());
+        }
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            for (int i = 0; i < pdfs.size(); i++) {
+                out.putNextEntry(new ZipEntry(i + ".pdf"));
+                out.write(Files.readAllBytes(pdfs.get(i)));
+                out.closeEntry();
+            }
+        }
+
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("files", new FileSystemResource(pdfs.get(0))).filename("single.pdf");
+        builder.part("files", new ByteArrayResource(zip.toByteArray())).filename("bundle.zip");
+        builder.part("files", new ByteArrayResource("not a pdf".getBytes())).filename("broken.pdf");
+
+        List<Invoice> invoices = webTestClient.post().uri("/pdf/parse/batch")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Invoice.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertNotNull(invoices);
+        assertEquals(pdfs.size() + 2, invoices.size());
+        assertTrue(invoices.stream().allMatch(e -> Objects.nonNull(e.getFileName())));
+
+        List<Invoice> errors = invoices.stream().filter(e -> Objects.nonNull(e.getError())).collect(Collectors.toList());
+        assertEquals(1, errors.size());
+        assertEquals("broken.pdf", errors.get(0).getFileName());
+        assertTrue(invoices.stream().filter(e -> Objects.isNull(e.getError())).allMatch(e -> Objects.nonNull(e.getNumber())));
+    }
+
+    @Test
+    void parseFunction() throws Exception {
+        List<Path> pdfs;
+        try (var list = Files.list(Paths.get("test"))) {
+            pdfs = list.filter(e -> e.getFileName().toString().endsWith(".pdf")).sorted().collect(Collectors.toList());
+        }
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        for (Path pdf : pdfs) {
+            builder.part("files", new FileSystemResource(pdf)).filename(pdf.getFileName().toString());
+        }
+        builder.part("files", new ByteArrayResource("not a pdf".getBytes())).filename("broken.pdf");
+
+        List<Invoice> invoices = webTestClient.post().uri("/pdf/parse/function")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Invoice.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertNotNull(invoices);
+        assertEquals(pdfs.size() + 1, invoices.size());
+        for (Path pdf : pdfs) {
+            Invoice invoice = invoices.stream().filter(e -> pdf.getFileName().toString().equals(e.getFileName())).findFirst().orElseThrow();
+            assertNull(invoice.getError());
+            assertNotNull(invoice.getNumber());
+        }
+        assertTrue(invoices.stream().anyMatch(e -> "broken.pdf".equals(e.getFileName()) && Objects.nonNull(e.getError())));
+
+        // 解析函数不自动映射 http 路由, 也不接管其他路径
+        webTestClient.post().uri("/parseInvoice").bodyValue("not a pdf").exchange().expectStatus().isNotFound();
+        webTestClient.get().uri("/actuator/parsetraces").exchange().expectStatus().isNotFound();
+    }
+
+    /**
+     * 超出上限的压缩包条目返回错误记录, 其余条目照常解析; 条目数超出上限时停止读取该压缩包
+     */
+    @Test
+    void zipLimits() throws Exception {
+        Path pdf = Paths.get("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf");
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("bomb.pdf"));
+            out.write(new byte[4 * 1024 * 1024]);
+            out.closeEntry();
+            for (int i = 0; i < 2; i++) {
+                out.putNextEntry(new ZipEntry(i + ".pdf"));
+                out.write(Files.readAllBytes(pdf));
+                out.closeEntry();
+            }
+        }
+        PdfInvoiceProperties.Batch limits = properties.getBatch();
+        DataSize maxEntrySize = limits.getMaxEntrySize();
+        int maxEntries = limits.getMaxEntries();
+        try {
+            limits.setMaxEntrySize(DataSize.ofMegabytes(1));
+            MultipartBodyBuilder builder = new MultipartBodyBuilder();
+            builder.part("files", new ByteArrayResource(zip.toByteArray())).filename("bundle.zip");
+            List<Invoice> invoices = batch(builder);
+            assertNotNull(invoices);
+            assertEquals(3, invoices.size());
+            assertEquals("bundle.zip!/bomb.pdf", invoices.get(0).getFileName());
+            assertNotNull(invoices.get(0).getError());
+            assertTrue(invoices.subList(1, 3).stream().allMatch(e -> Objects.isNull(e.getError()) && Objects.nonNull(e.getNumber())));
+
+            limits.setMaxEntries(2);
+            invoices = batch(builder);
+            assertNotNull(invoices);
+            assertEquals("bundle.zip", invoices.get(invoices.size() - 1).getFileName());
+            assertTrue(invoices.get(invoices.size() - 1).getError().contains("条目数"));
+        } finally {
+            limits.setMaxEntrySize(maxEntrySize);
+            limits.setMaxEntries(maxEntries);
+        }
+    }
+
+    @Test
+    void traceNotExposed() {
+        Path pdf = Paths.get("test/dzfp_24432000000037977864_合肥正恩信息科技有限公司_20240420160255.pdf");
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("file", new FileSystemResource(pdf));
+        // 默认不允许请求头强制记录
+        webTestClient.post().uri("/pdf/parse")
+                .header(PdfCtrl.TRACE_HEADER, "true")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(PdfCtrl.TRACE_ID_HEADER);
+    }
+}